@@ -0,0 +1,183 @@
+/*
+ * Copyright (C) 2014 Daniel Velazco
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.danvelazco.android.wear.emergencyalert.benchmark;
+
+import com.danvelazco.android.wear.emergencyalert.data.AlertPayload;
+import com.danvelazco.android.wear.emergencyalert.sms.MessageTemplate;
+import com.danvelazco.android.wear.emergencyalert.sms.SmsSegments;
+import com.danvelazco.android.wear.emergencyalert.util.SeenAlertCache;
+
+import java.text.DateFormat;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+
+/**
+ * The operations on the alert path that can run on a plain JVM. Code that depends on the Android framework or on Play
+ * Services has a stand-in here: the location message is formatted with {@link DateFormat} where the app uses {@code
+ * DateUtils}, and the alert payload is measured in place of the {@code DataMap} based configuration.
+ *
+ * @since 10/18/26
+ */
+public class AlertPathBenchmarks {
+
+    // Constants
+    private static final String LOCATION_FORMAT =
+            "Current location: http://maps.google.com/maps?q=%1$s,%2$s on %3$s";
+    private static final String LOCATION_LABEL = "Current location:";
+    private static final String LOCATION_TEMPLATE = "{maps_url} on {time}";
+    private static final String MESSAGE_GSM7 = "Automatic emergency message: Something happened! Please call me "
+            + "back as soon as you get this, and if I don't answer call 911. Current location: "
+            + "http://maps.google.com/maps?q=37.4219999,-122.0840575 on Oct 18, 2026 10:42 AM";
+    private static final String MESSAGE_UCS2 = MESSAGE_GSM7.replace('\'', '’');
+    private static final double LATITUDE = 37.4219999;
+    private static final double LONGITUDE = -122.0840575;
+    private static final long TIME = 1792316520000L;
+    private static final int ALERT_ID_OFFSET = 4;
+
+    /**
+     * @return {@link List} of every {@link Benchmark}
+     */
+    public static List<Benchmark> getBenchmarks() {
+        List<Benchmark> benchmarks = new ArrayList<>();
+
+        benchmarks.add(new Benchmark("format.location") {
+            private final DateFormat mmDateFormat = DateFormat.getDateTimeInstance(DateFormat.MEDIUM,
+                    DateFormat.SHORT);
+
+            @Override
+            public long run(int operations) {
+                long sink = 0;
+                for (int i = 0; i < operations; i++) {
+                    String message = String.format(LOCATION_FORMAT, Double.toString(LATITUDE + i * 1e-7),
+                            Double.toString(LONGITUDE), mmDateFormat.format(new Date(TIME + i)));
+                    sink += message.length();
+                }
+                return sink;
+            }
+        });
+
+        benchmarks.add(new Benchmark("format.template") {
+            private final MessageTemplate mmTemplate = MessageTemplate.compile(LOCATION_TEMPLATE);
+            private final MessageTemplate.Values mmValues = new MessageTemplate.Values();
+            private final StringBuilder mmBuffer = new StringBuilder(256);
+            private final DateFormat mmDateFormat = DateFormat.getDateTimeInstance(DateFormat.MEDIUM,
+                    DateFormat.SHORT);
+            private final String mmTime = mmDateFormat.format(new Date(TIME));
+
+            @Override
+            public long run(int operations) {
+                long sink = 0;
+                for (int i = 0; i < operations; i++) {
+                    // The time is formatted by the framework before rendering, it is measured by format.location
+                    mmValues.clear().setLocation(LATITUDE + i * 1e-7, LONGITUDE, 12f).setTime(mmTime);
+                    mmBuffer.setLength(0);
+                    mmBuffer.append(LOCATION_LABEL).append(' ');
+                    mmTemplate.renderTo(mmBuffer, mmValues);
+                    sink += mmBuffer.length();
+                }
+                return sink;
+            }
+        });
+
+        benchmarks.add(new Benchmark("payload.encode") {
+            private final AlertPayload mmPayload = new AlertPayload();
+            private final byte[] mmBuffer = new byte[AlertPayload.MAX_SIZE];
+
+            @Override
+            public long run(int operations) {
+                long sink = 0;
+                for (int i = 0; i < operations; i++) {
+                    sink += mmPayload.set(i, TIME + i, i, 80, AlertPayload.FLAG_CONFIRMED_BY_BUTTON)
+                            .encode(mmBuffer, 0);
+                }
+                return sink + mmBuffer[4];
+            }
+        });
+
+        benchmarks.add(new Benchmark("payload.decode") {
+            private final AlertPayload mmPayload = new AlertPayload();
+            private final byte[] mmBuffer = new AlertPayload().set(1, TIME, 1, 80, 0).toByteArray();
+
+            @Override
+            public long run(int operations) {
+                long sink = 0;
+                for (int i = 0; i < operations; i++) {
+                    // Change the alert ID every time, so the decoding can't be hoisted out of the loop
+                    mmBuffer[ALERT_ID_OFFSET] = (byte) i;
+                    if (mmPayload.decode(mmBuffer, 0, mmBuffer.length)) {
+                        sink += mmPayload.getAlertId();
+                    }
+                }
+                return sink;
+            }
+        });
+
+        benchmarks.add(new Benchmark("dedupe.duplicate") {
+            private final SeenAlertCache mmCache = new SeenAlertCache(16, Long.MAX_VALUE);
+
+            @Override
+            public long run(int operations) {
+                mmCache.markSeen(1, 0);
+                long sink = 0;
+                for (int i = 0; i < operations; i++) {
+                    sink += mmCache.markSeen(1, i) ? 1 : 0;
+                }
+                return sink;
+            }
+        });
+
+        benchmarks.add(new Benchmark("dedupe.new") {
+            private final SeenAlertCache mmCache = new SeenAlertCache(16, Long.MAX_VALUE);
+            private long mmNextId = 0;
+
+            @Override
+            public long run(int operations) {
+                long sink = 0;
+                for (int i = 0; i < operations; i++) {
+                    sink += mmCache.markSeen(mmNextId++, i) ? 1 : 0;
+                }
+                return sink;
+            }
+        });
+
+        benchmarks.add(new Benchmark("segments.gsm7") {
+            @Override
+            public long run(int operations) {
+                long sink = 0;
+                for (int i = 0; i < operations; i++) {
+                    sink += SmsSegments.countSegments(MESSAGE_GSM7);
+                }
+                return sink;
+            }
+        });
+
+        benchmarks.add(new Benchmark("segments.ucs2") {
+            @Override
+            public long run(int operations) {
+                long sink = 0;
+                for (int i = 0; i < operations; i++) {
+                    sink += SmsSegments.countSegments(MESSAGE_UCS2);
+                }
+                return sink;
+            }
+        });
+
+        return benchmarks;
+    }
+
+}
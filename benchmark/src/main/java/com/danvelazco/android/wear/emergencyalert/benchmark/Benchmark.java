@@ -0,0 +1,55 @@
+/*
+ * Copyright (C) 2014 Daniel Velazco
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.danvelazco.android.wear.emergencyalert.benchmark;
+
+/**
+ * A single operation on the alert path to be measured by the {@link BenchmarkRunner}.
+ *
+ * @since 10/18/26
+ */
+public abstract class Benchmark {
+
+    // Members
+    private final String mName;
+
+    /**
+     * Constructor.
+     *
+     * @param name
+     *         {@link String} shown in the report
+     */
+    protected Benchmark(String name) {
+        mName = name;
+    }
+
+    /**
+     * @return {@link String} name of the benchmark
+     */
+    public String getName() {
+        return mName;
+    }
+
+    /**
+     * Run the operation a number of times in a row.
+     *
+     * @param operations
+     *         {@link int} how many times to run it
+     * @return {@link long} value derived from every result, so the work can't be optimized away
+     */
+    public abstract long run(int operations);
+
+}
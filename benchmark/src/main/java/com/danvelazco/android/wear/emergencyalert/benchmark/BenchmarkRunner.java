@@ -0,0 +1,125 @@
+/*
+ * Copyright (C) 2014 Daniel Velazco
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.danvelazco.android.wear.emergencyalert.benchmark;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.Arrays;
+import java.util.Locale;
+
+/**
+ * Runs the {@link AlertPathBenchmarks} on a plain JVM and reports the throughput in operations per second and the
+ * bytes allocated per operation, measured through the per-thread allocation counter of the HotSpot {@link
+ * ThreadMXBean}. Every benchmark is warmed up first so it is measured once the JIT compiled it. Only the benchmarks
+ * whose name contains the first argument are run, if there is one.
+ *
+ * @since 10/18/26
+ */
+public class BenchmarkRunner {
+
+    // Constants
+    private static final int WARMUP_ITERATIONS = 5;
+    private static final int MEASURED_ITERATIONS = 10;
+    private static final int OPERATIONS_PER_ITERATION = 200000;
+
+    /**
+     * Result of a single benchmark
+     */
+    public static class Result {
+
+        public final String name;
+        public final double opsPerSecond;
+        public final double bytesPerOp;
+
+        private Result(String name, double opsPerSecond, double bytesPerOp) {
+            this.name = name;
+            this.opsPerSecond = opsPerSecond;
+            this.bytesPerOp = bytesPerOp;
+        }
+
+        @Override
+        public String toString() {
+            return String.format(Locale.US, "%-28s %14.0f ops/s %10s B/op", name, opsPerSecond,
+                    bytesPerOp < 0 ? "n/a" : String.format(Locale.US, "%.1f", bytesPerOp));
+        }
+    }
+
+    public static void main(String[] args) {
+        String filter = args.length > 0 ? args[0] : null;
+        long blackhole = 0;
+        for (Benchmark benchmark : AlertPathBenchmarks.getBenchmarks()) {
+            if (filter == null || benchmark.getName().contains(filter)) {
+                Result result = measure(benchmark);
+                blackhole += Double.doubleToLongBits(result.opsPerSecond);
+                System.out.println(result);
+            }
+        }
+        if (blackhole == 42) {
+            System.out.println();
+        }
+    }
+
+    /**
+     * Warm up and measure a benchmark.
+     *
+     * @param benchmark
+     *         {@link Benchmark}
+     * @return {@link Result}, with the median throughput of all the measured iterations
+     */
+    public static Result measure(Benchmark benchmark) {
+        long sink = 0;
+        for (int i = 0; i < WARMUP_ITERATIONS; i++) {
+            sink += benchmark.run(OPERATIONS_PER_ITERATION);
+        }
+
+        double[] opsPerSecond = new double[MEASURED_ITERATIONS];
+        long allocated = 0;
+        for (int i = 0; i < MEASURED_ITERATIONS; i++) {
+            long allocatedBefore = getAllocatedBytes();
+            long start = System.nanoTime();
+            sink += benchmark.run(OPERATIONS_PER_ITERATION);
+            long elapsed = System.nanoTime() - start;
+            allocated += getAllocatedBytes() - allocatedBefore;
+            opsPerSecond[i] = OPERATIONS_PER_ITERATION * 1e9 / Math.max(elapsed, 1);
+        }
+        Arrays.sort(opsPerSecond);
+
+        double bytesPerOp = -1;
+        if (getAllocatedBytes() >= 0) {
+            bytesPerOp = (double) allocated / ((long) MEASURED_ITERATIONS * OPERATIONS_PER_ITERATION);
+        }
+        if (sink == 42) {
+            System.out.println();
+        }
+        return new Result(benchmark.getName(), opsPerSecond[MEASURED_ITERATIONS / 2], bytesPerOp);
+    }
+
+    /**
+     * @return {@link long} bytes allocated so far by the current thread, -1 if the JVM can't tell
+     */
+    private static long getAllocatedBytes() {
+        ThreadMXBean threadMXBean = ManagementFactory.getThreadMXBean();
+        if (threadMXBean instanceof com.sun.management.ThreadMXBean) {
+            com.sun.management.ThreadMXBean hotSpotBean = (com.sun.management.ThreadMXBean) threadMXBean;
+            if (hotSpotBean.isThreadAllocatedMemorySupported() && hotSpotBean.isThreadAllocatedMemoryEnabled()) {
+                return hotSpotBean.getThreadAllocatedBytes(Thread.currentThread().getId());
+            }
+        }
+        return -1;
+    }
+
+}
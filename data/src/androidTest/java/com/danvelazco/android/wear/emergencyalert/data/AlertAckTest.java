@@ -0,0 +1,55 @@
+package com.danvelazco.android.wear.emergencyalert.data;
+
+import junit.framework.TestCase;
+
+import java.util.Arrays;
+
+/**
+ * Round-trip and compatibility tests for {@link AlertAck}
+ */
+public class AlertAckTest extends TestCase {
+
+    public void testRoundTrip() {
+        byte[] payload = new AlertAck().set(0x0123456789abcdefL, AlertAck.STATUS_PARTIAL, 2, 3).toByteArray();
+        assertEquals(AlertAck.SIZE_V1, payload.length);
+
+        AlertAck decoded = new AlertAck();
+        assertTrue(decoded.decode(payload));
+        assertEquals(AlertAck.VERSION, decoded.getVersion());
+        assertEquals(0x0123456789abcdefL, decoded.getAlertId());
+        assertEquals(AlertAck.STATUS_PARTIAL, decoded.getStatus());
+        assertEquals(2, decoded.getSentCount());
+        assertEquals(3, decoded.getRecipientCount());
+    }
+
+    public void testRecipientCountsAreCapped() {
+        AlertAck decoded = new AlertAck();
+        assertTrue(decoded.decode(new AlertAck().set(-1L, AlertAck.STATUS_SENT, 300, 300).toByteArray()));
+        assertEquals(-1L, decoded.getAlertId());
+        assertEquals(255, decoded.getSentCount());
+        assertEquals(255, decoded.getRecipientCount());
+    }
+
+    public void testForwardCompatibility() {
+        byte[] payload = Arrays.copyOf(new AlertAck().set(99, AlertAck.STATUS_SENT, 1, 1).toByteArray(),
+                AlertAck.SIZE_V1 + 4);
+        payload[0] = 2;
+        payload[1] = (byte) payload.length;
+
+        AlertAck decoded = new AlertAck();
+        assertTrue(decoded.decode(payload));
+        assertEquals(2, decoded.getVersion());
+        assertEquals(99, decoded.getAlertId());
+    }
+
+    public void testRejectsInvalidPayloads() {
+        AlertAck decoded = new AlertAck();
+        assertFalse(decoded.decode(null));
+        assertFalse(decoded.decode(new byte[AlertAck.SIZE_V1 - 1]));
+
+        byte[] payload = new AlertAck().set(1, AlertAck.STATUS_SENT, 1, 1).toByteArray();
+        payload[1] = (byte) (AlertAck.SIZE_V1 + 1);
+        assertFalse(decoded.decode(payload));
+    }
+
+}
@@ -0,0 +1,103 @@
+package com.danvelazco.android.wear.emergencyalert.data;
+
+import junit.framework.TestCase;
+
+import java.util.Arrays;
+
+/**
+ * Round-trip and compatibility tests for {@link AlertPayload}
+ */
+public class AlertPayloadTest extends TestCase {
+
+    public void testRoundTrip() {
+        AlertPayload payload = new AlertPayload().set(0x0123456789abcdefL, 1434672000000L, 42, 87,
+                AlertPayload.FLAG_CONFIRMED_BY_BUTTON);
+        byte[] buffer = new byte[AlertPayload.MAX_SIZE];
+        int size = payload.encode(buffer, 0);
+        assertEquals(AlertPayload.SIZE_V1, size);
+
+        AlertPayload decoded = new AlertPayload();
+        assertTrue(decoded.decode(buffer, 0, size));
+        assertEquals(AlertPayload.VERSION, decoded.getVersion());
+        assertEquals(0x0123456789abcdefL, decoded.getAlertId());
+        assertEquals(1434672000000L, decoded.getTriggeredAt());
+        assertEquals(42, decoded.getSequence());
+        assertEquals(87, decoded.getBattery());
+        assertTrue(decoded.hasFlag(AlertPayload.FLAG_CONFIRMED_BY_BUTTON));
+        assertFalse(decoded.hasFlag(AlertPayload.FLAG_RETRY));
+    }
+
+    public void testRoundTripNegativeValues() {
+        AlertPayload payload = new AlertPayload().set(-1L, Long.MIN_VALUE, Integer.MIN_VALUE,
+                AlertPayload.BATTERY_UNKNOWN, 0xffff);
+        AlertPayload decoded = new AlertPayload();
+        assertTrue(decoded.decode(payload.toByteArray()));
+        assertEquals(-1L, decoded.getAlertId());
+        assertEquals(Long.MIN_VALUE, decoded.getTriggeredAt());
+        assertEquals(Integer.MIN_VALUE, decoded.getSequence());
+        assertEquals(AlertPayload.BATTERY_UNKNOWN, decoded.getBattery());
+        assertEquals(0xffff, decoded.getFlags());
+    }
+
+    public void testEncodeAtOffset() {
+        AlertPayload payload = new AlertPayload().set(7, 8, 9, 10, 0);
+        byte[] buffer = new byte[AlertPayload.SIZE_V1 + 3];
+        payload.encode(buffer, 3);
+
+        AlertPayload decoded = new AlertPayload();
+        assertTrue(decoded.decode(buffer, 3, AlertPayload.SIZE_V1));
+        assertEquals(7, decoded.getAlertId());
+        assertEquals(10, decoded.getBattery());
+    }
+
+    public void testForwardCompatibility() {
+        // A newer version with two more bytes appended, and an unknown flag set
+        byte[] buffer = Arrays.copyOf(new AlertPayload().set(99, 100, 3, 50, 1 << 15).toByteArray(),
+                AlertPayload.SIZE_V1 + 2);
+        buffer[0] = 2;
+        buffer[1] = (byte) buffer.length;
+        buffer[AlertPayload.SIZE_V1] = 0x7f;
+        buffer[AlertPayload.SIZE_V1 + 1] = 0x7f;
+
+        AlertPayload decoded = new AlertPayload();
+        assertTrue(decoded.decode(buffer));
+        assertEquals(2, decoded.getVersion());
+        assertEquals(99, decoded.getAlertId());
+        assertEquals(100, decoded.getTriggeredAt());
+        assertEquals(3, decoded.getSequence());
+        assertEquals(50, decoded.getBattery());
+        assertTrue(decoded.hasFlag(1 << 15));
+    }
+
+    public void testInvalidPayloads() {
+        AlertPayload decoded = new AlertPayload();
+        assertFalse(decoded.decode(null));
+        assertFalse(decoded.decode(new byte[0]));
+        assertFalse(decoded.decode(new byte[]{1}));
+
+        byte[] truncated = Arrays.copyOf(new AlertPayload().set(1, 2, 3, 4, 0).toByteArray(),
+                AlertPayload.SIZE_V1 - 1);
+        assertFalse(decoded.decode(truncated));
+
+        byte[] unknownVersion = new AlertPayload().set(1, 2, 3, 4, 0).toByteArray();
+        unknownVersion[0] = 0;
+        assertFalse(decoded.decode(unknownVersion));
+    }
+
+    public void testFailedDecodeKeepsFields() {
+        AlertPayload decoded = new AlertPayload();
+        assertTrue(decoded.decode(new AlertPayload().set(11, 12, 13, 14, 0).toByteArray()));
+        assertFalse(decoded.decode(new byte[]{1, 2, 3}));
+        assertEquals(11, decoded.getAlertId());
+    }
+
+    public void testEncodeIntoSmallBuffer() {
+        try {
+            new AlertPayload().encode(new byte[AlertPayload.SIZE_V1 - 1], 0);
+            fail("Expected an IllegalArgumentException");
+        } catch (IllegalArgumentException e) {
+            // Expected
+        }
+    }
+
+}
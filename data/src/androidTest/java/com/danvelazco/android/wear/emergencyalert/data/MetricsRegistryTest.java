@@ -0,0 +1,75 @@
+package com.danvelazco.android.wear.emergencyalert.data;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests for {@link MetricsRegistry} and {@link MetricsSnapshot}
+ */
+public class MetricsRegistryTest extends TestCase {
+
+    private static final long[] BUCKETS = {10, 100, 1000};
+
+    public void testSameMetricIsReturned() {
+        MetricsRegistry registry = new MetricsRegistry();
+        MetricsRegistry.Counter counter = registry.counter("alerts");
+        counter.increment();
+        registry.counter("alerts").add(2);
+        assertSame(counter, registry.counter("alerts"));
+        assertEquals(3, counter.get());
+    }
+
+    public void testTypeMismatchIsRejected() {
+        MetricsRegistry registry = new MetricsRegistry();
+        registry.counter("alerts");
+        try {
+            registry.gauge("alerts");
+            fail();
+        } catch (IllegalArgumentException e) {
+            // Expected
+        }
+    }
+
+    public void testHistogramBuckets() {
+        MetricsRegistry registry = new MetricsRegistry();
+        MetricsRegistry.Histogram histogram = registry.histogram("latency", BUCKETS);
+        for (long value : new long[]{1, 10, 11, 100, 500, 5000}) {
+            histogram.record(value);
+        }
+
+        MetricsSnapshot.Entry entry = registry.snapshot().get("latency");
+        assertEquals(6, entry.count);
+        assertEquals(5622, entry.sum);
+        assertEquals(10, entry.getPercentile(33));
+        assertEquals(100, entry.getPercentile(50));
+        assertEquals(1000, entry.getPercentile(80));
+        assertEquals(Long.MAX_VALUE, entry.getPercentile(100));
+    }
+
+    public void testSnapshotRoundTrip() {
+        MetricsRegistry registry = new MetricsRegistry();
+        registry.counter("b.counter").add(7);
+        registry.gauge("a.gauge").set(-3);
+        registry.histogram("c.histogram", BUCKETS).record(50);
+
+        MetricsSnapshot snapshot = MetricsSnapshot.fromByteArray(registry.snapshot().toByteArray());
+        assertNotNull(snapshot);
+        assertEquals(3, snapshot.getEntries().size());
+        assertEquals("a.gauge", snapshot.getEntries().get(0).name);
+        assertEquals(-3, snapshot.get("a.gauge").value);
+        assertEquals(MetricsSnapshot.TYPE_COUNTER, snapshot.get("b.counter").type);
+        assertEquals(7, snapshot.get("b.counter").value);
+        assertEquals(1, snapshot.get("c.histogram").count);
+        assertEquals(100, snapshot.get("c.histogram").getPercentile(50));
+    }
+
+    public void testTruncatedSnapshotIsRejected() {
+        MetricsRegistry registry = new MetricsRegistry();
+        registry.counter("alerts").increment();
+        byte[] payload = registry.snapshot().toByteArray();
+        byte[] truncated = new byte[payload.length - 1];
+        System.arraycopy(payload, 0, truncated, 0, truncated.length);
+        assertNull(MetricsSnapshot.fromByteArray(truncated));
+        assertNull(MetricsSnapshot.fromByteArray(null));
+    }
+
+}
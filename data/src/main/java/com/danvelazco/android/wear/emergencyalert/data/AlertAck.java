@@ -0,0 +1,133 @@
+package com.danvelazco.android.wear.emergencyalert.data;
+
+/**
+ * Binary payload of the acknowledgement the phone sends back to the watch once it knows what happened to the SMS of an
+ * alert, or once it took too long to know. In that case the status is {@link #STATUS_PENDING}, and another
+ * acknowledgement follows with the final status. Like {@link AlertPayload}, this is a mutable holder that can be
+ * reused.
+ * <p/>
+ * Layout (big-endian):
+ * <pre>
+ *  0  u8   version
+ *  1  u8   size of the encoded payload, including these two bytes
+ *  2  u8   status
+ *  3  u8   number of recipients the carrier accepted the SMS for
+ *  4  u8   number of recipients
+ *  5  i64  alert ID
+ * </pre>
+ * New fields are only ever appended, a decoder skips the ones it doesn't know about using the size byte.
+ *
+ * @since 10/18/26
+ */
+public class AlertAck {
+
+    /**
+     * Constants for the format
+     */
+    public static final int VERSION = 1;
+    public static final int SIZE_V1 = 13;
+
+    /**
+     * Status of the SMS of the alert
+     */
+    public static final int STATUS_SENT = 1;
+    public static final int STATUS_PARTIAL = 2;
+    public static final int STATUS_FAILED = 3;
+    public static final int STATUS_NOT_CONFIGURED = 4;
+    public static final int STATUS_PENDING = 5;
+
+    private static final int MAX_RECIPIENTS = 0xff;
+
+    // Members
+    private int mVersion = VERSION;
+    private int mStatus = STATUS_FAILED;
+    private int mSentCount = 0;
+    private int mRecipientCount = 0;
+    private long mAlertId = 0;
+
+    /**
+     * Set all the fields at once, the version is reset to {@link #VERSION}.
+     *
+     * @return this {@link AlertAck}
+     */
+    public AlertAck set(long alertId, int status, int sentCount, int recipientCount) {
+        mVersion = VERSION;
+        mAlertId = alertId;
+        mStatus = status;
+        mSentCount = Math.min(sentCount, MAX_RECIPIENTS);
+        mRecipientCount = Math.min(recipientCount, MAX_RECIPIENTS);
+        return this;
+    }
+
+    /**
+     * Encode the acknowledgement into a new array.
+     *
+     * @return {@link byte[]}
+     */
+    public byte[] toByteArray() {
+        byte[] buffer = new byte[SIZE_V1];
+        buffer[0] = (byte) VERSION;
+        buffer[1] = (byte) SIZE_V1;
+        buffer[2] = (byte) mStatus;
+        buffer[3] = (byte) mSentCount;
+        buffer[4] = (byte) mRecipientCount;
+        AlertPayload.putLong(buffer, 5, mAlertId);
+        return buffer;
+    }
+
+    /**
+     * Decode an acknowledgement into this instance.
+     *
+     * @param payload
+     *         {@link byte[]}, can be null
+     * @return false if the payload can't be read, in which case this instance is left untouched
+     */
+    public boolean decode(byte[] payload) {
+        if (payload == null || payload.length < SIZE_V1) {
+            return false;
+        }
+
+        int version = payload[0] & 0xff;
+        int size = payload[1] & 0xff;
+        if (version < 1 || size < SIZE_V1 || size > payload.length) {
+            return false;
+        }
+
+        mVersion = version;
+        mStatus = payload[2] & 0xff;
+        mSentCount = payload[3] & 0xff;
+        mRecipientCount = payload[4] & 0xff;
+        mAlertId = AlertPayload.getLong(payload, 5);
+        return true;
+    }
+
+    public int getVersion() {
+        return mVersion;
+    }
+
+    public long getAlertId() {
+        return mAlertId;
+    }
+
+    public int getStatus() {
+        return mStatus;
+    }
+
+    public int getSentCount() {
+        return mSentCount;
+    }
+
+    public int getRecipientCount() {
+        return mRecipientCount;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public String toString() {
+        return "AlertAck{version=" + mVersion + ", alertId=" + mAlertId + ", status=" + mStatus + ", sent="
+                + mSentCount + "/" + mRecipientCount + "}";
+    }
+
+}
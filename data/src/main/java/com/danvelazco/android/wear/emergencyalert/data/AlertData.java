@@ -0,0 +1,26 @@
+package com.danvelazco.android.wear.emergencyalert.data;
+
+import java.util.UUID;
+
+/**
+ * @since 10/18/26
+ */
+public class AlertData {
+
+    /**
+     * Constants used for Wear Message API
+     */
+    public static final String PATH = "/start/sendEmergencyAlert";
+    public static final String ACK_PATH = "/alert/ack";
+
+    /**
+     * Generate a new unique ID for an alert, sent in the {@link AlertPayload}. All the messages sent for the same alert
+     * (to multiple nodes, or when retrying) must carry the same ID.
+     *
+     * @return {@link long}
+     */
+    public static long newAlertId() {
+        return UUID.randomUUID().getMostSignificantBits();
+    }
+
+}
@@ -0,0 +1,208 @@
+package com.danvelazco.android.wear.emergencyalert.data;
+
+/**
+ * Binary payload of the alert message the watch sends to the phone. This is a mutable holder so the same instance can
+ * be reused, and both {@link #encode(byte[], int)} and {@link #decode(byte[], int, int)} work on a caller supplied
+ * buffer without allocating anything.
+ * <p/>
+ * Layout (big-endian):
+ * <pre>
+ *  0  u8   version
+ *  1  u8   size of the encoded payload, including these two bytes
+ *  2  u16  flags
+ *  4  i64  alert ID
+ * 12  i64  trigger time, in milliseconds since epoch
+ * 20  i32  sequence number
+ * 24  i8   watch battery level in percent, -1 if unknown
+ * </pre>
+ * New fields are only ever appended. A decoder reads the fields it knows about and skips the rest of the payload using
+ * the size byte, so an older phone app can still read the payload of a newer watch app.
+ *
+ * @since 10/18/26
+ */
+public class AlertPayload {
+
+    /**
+     * Constants for the format
+     */
+    public static final int VERSION = 1;
+    public static final int SIZE_V1 = 25;
+    public static final int MAX_SIZE = 255;
+    public static final int BATTERY_UNKNOWN = -1;
+
+    /**
+     * Flags
+     */
+    public static final int FLAG_CONFIRMED_BY_BUTTON = 1;
+    public static final int FLAG_RETRY = 1 << 1;
+    public static final int FLAG_QUEUED = 1 << 2; // Queued on the watch while no phone was connected
+
+    // Members
+    private int mVersion = VERSION;
+    private int mFlags = 0;
+    private long mAlertId = 0;
+    private long mTriggeredAt = 0;
+    private int mSequence = 0;
+    private int mBattery = BATTERY_UNKNOWN;
+
+    /**
+     * Set all the fields at once, the version is reset to {@link #VERSION}.
+     *
+     * @return this {@link AlertPayload}
+     */
+    public AlertPayload set(long alertId, long triggeredAt, int sequence, int battery, int flags) {
+        mVersion = VERSION;
+        mAlertId = alertId;
+        mTriggeredAt = triggeredAt;
+        mSequence = sequence;
+        mBattery = battery;
+        mFlags = flags;
+        return this;
+    }
+
+    /**
+     * Encode the payload into a buffer.
+     *
+     * @param buffer
+     *         {@link byte[]} with at least {@link #SIZE_V1} bytes available from the offset
+     * @param offset
+     *         {@link int} where to start writing
+     * @return {@link int} number of bytes written
+     */
+    public int encode(byte[] buffer, int offset) {
+        if (buffer.length - offset < SIZE_V1) {
+            throw new IllegalArgumentException("Buffer too small, " + SIZE_V1 + " bytes are needed");
+        }
+
+        buffer[offset] = (byte) VERSION;
+        buffer[offset + 1] = (byte) SIZE_V1;
+        putShort(buffer, offset + 2, mFlags);
+        putLong(buffer, offset + 4, mAlertId);
+        putLong(buffer, offset + 12, mTriggeredAt);
+        putInt(buffer, offset + 20, mSequence);
+        buffer[offset + 24] = (byte) mBattery;
+        return SIZE_V1;
+    }
+
+    /**
+     * Encode the payload into a new array, for APIs that need an array of the exact size.
+     *
+     * @return {@link byte[]}
+     */
+    public byte[] toByteArray() {
+        byte[] buffer = new byte[SIZE_V1];
+        encode(buffer, 0);
+        return buffer;
+    }
+
+    /**
+     * Decode a payload into this instance.
+     *
+     * @param buffer
+     *         {@link byte[]}, can be null
+     * @param offset
+     *         {@link int} where the payload starts
+     * @param length
+     *         {@link int} number of bytes available
+     * @return false if the payload can't be read, in which case this instance is left untouched
+     */
+    public boolean decode(byte[] buffer, int offset, int length) {
+        if (buffer == null || length < 2) {
+            return false;
+        }
+
+        int version = buffer[offset] & 0xff;
+        int size = buffer[offset + 1] & 0xff;
+        if (version < 1 || size < SIZE_V1 || size > length) {
+            return false;
+        }
+
+        // Anything after the fields of version 1 belongs to a newer version, skip it
+        mVersion = version;
+        mFlags = getShort(buffer, offset + 2);
+        mAlertId = getLong(buffer, offset + 4);
+        mTriggeredAt = getLong(buffer, offset + 12);
+        mSequence = getInt(buffer, offset + 20);
+        mBattery = buffer[offset + 24];
+        return true;
+    }
+
+    /**
+     * Decode a whole message payload into this instance.
+     *
+     * @param payload
+     *         {@link byte[]}, can be null
+     * @return false if the payload can't be read
+     */
+    public boolean decode(byte[] payload) {
+        return payload != null && decode(payload, 0, payload.length);
+    }
+
+    public int getVersion() {
+        return mVersion;
+    }
+
+    public int getFlags() {
+        return mFlags;
+    }
+
+    public boolean hasFlag(int flag) {
+        return (mFlags & flag) != 0;
+    }
+
+    public long getAlertId() {
+        return mAlertId;
+    }
+
+    public long getTriggeredAt() {
+        return mTriggeredAt;
+    }
+
+    public int getSequence() {
+        return mSequence;
+    }
+
+    public int getBattery() {
+        return mBattery;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public String toString() {
+        return "AlertPayload{version=" + mVersion + ", flags=" + mFlags + ", alertId=" + mAlertId + ", triggeredAt="
+                + mTriggeredAt + ", sequence=" + mSequence + ", battery=" + mBattery + "}";
+    }
+
+    private static void putShort(byte[] buffer, int offset, int value) {
+        buffer[offset] = (byte) (value >>> 8);
+        buffer[offset + 1] = (byte) value;
+    }
+
+    static void putInt(byte[] buffer, int offset, int value) {
+        buffer[offset] = (byte) (value >>> 24);
+        buffer[offset + 1] = (byte) (value >>> 16);
+        buffer[offset + 2] = (byte) (value >>> 8);
+        buffer[offset + 3] = (byte) value;
+    }
+
+    static void putLong(byte[] buffer, int offset, long value) {
+        putInt(buffer, offset, (int) (value >>> 32));
+        putInt(buffer, offset + 4, (int) value);
+    }
+
+    private static int getShort(byte[] buffer, int offset) {
+        return ((buffer[offset] & 0xff) << 8) | (buffer[offset + 1] & 0xff);
+    }
+
+    static int getInt(byte[] buffer, int offset) {
+        return ((buffer[offset] & 0xff) << 24) | ((buffer[offset + 1] & 0xff) << 16)
+                | ((buffer[offset + 2] & 0xff) << 8) | (buffer[offset + 3] & 0xff);
+    }
+
+    static long getLong(byte[] buffer, int offset) {
+        return ((long) getInt(buffer, offset) << 32) | (getInt(buffer, offset + 4) & 0xffffffffL);
+    }
+
+}
@@ -0,0 +1,249 @@
+package com.danvelazco.android.wear.emergencyalert.data;
+
+import android.content.SharedPreferences;
+import com.google.android.gms.wearable.DataMap;
+
+/**
+ * A typed field of the configuration synced from the phone to the watch. The field knows how to read and write its
+ * value in a {@link DataMap} and in {@link SharedPreferences}, each app maps it to its own preference key.
+ *
+ * @since 10/18/26
+ */
+public abstract class ConfigField<T> {
+
+    // Members
+    private final String mKey;
+    private final T mDefaultValue;
+
+    private ConfigField(String key, T defaultValue) {
+        mKey = key;
+        mDefaultValue = defaultValue;
+    }
+
+    /**
+     * @return {@link String} key of the field in the {@link DataMap}
+     */
+    public String getKey() {
+        return mKey;
+    }
+
+    /**
+     * @return default value of the field
+     */
+    public T getDefaultValue() {
+        return mDefaultValue;
+    }
+
+    /**
+     * Read the value of the field from a {@link DataMap}.
+     *
+     * @param dataMap
+     *         {@link DataMap}
+     * @return the value, or the default value if it is not set
+     */
+    public abstract T get(DataMap dataMap);
+
+    /**
+     * Write the value of the field to a {@link DataMap}.
+     *
+     * @param dataMap
+     *         {@link DataMap}
+     * @param value
+     *         value of the field
+     */
+    public abstract void put(DataMap dataMap, T value);
+
+    /**
+     * Read the value of the field from {@link SharedPreferences}.
+     *
+     * @param prefs
+     *         {@link SharedPreferences}
+     * @param prefKey
+     *         {@link String} key of the preference
+     * @return the value, or the default value if it is not set
+     */
+    public abstract T get(SharedPreferences prefs, String prefKey);
+
+    /**
+     * Write the value of the field to a {@link SharedPreferences.Editor}.
+     *
+     * @param editor
+     *         {@link SharedPreferences.Editor}
+     * @param prefKey
+     *         {@link String} key of the preference
+     * @param value
+     *         value of the field
+     */
+    public abstract void put(SharedPreferences.Editor editor, String prefKey, T value);
+
+    /**
+     * Copy the value of the field from a {@link DataMap} to a {@link SharedPreferences.Editor}.
+     *
+     * @param dataMap
+     *         {@link DataMap}
+     * @param editor
+     *         {@link SharedPreferences.Editor}
+     * @param prefKey
+     *         {@link String} key of the preference
+     */
+    public void copy(DataMap dataMap, SharedPreferences.Editor editor, String prefKey) {
+        put(editor, prefKey, get(dataMap));
+    }
+
+    /**
+     * Write an untyped value, as kept by the {@link ConfigSyncTracker}, to a {@link DataMap}.
+     */
+    @SuppressWarnings("unchecked")
+    void putObject(DataMap dataMap, Object value) {
+        put(dataMap, (T) value);
+    }
+
+    /**
+     * Write an untyped value, as kept by the {@link ConfigSyncTracker}, to a {@link SharedPreferences.Editor}.
+     */
+    @SuppressWarnings("unchecked")
+    void putObject(SharedPreferences.Editor editor, String prefKey, Object value) {
+        put(editor, prefKey, (T) value);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public String toString() {
+        return mKey;
+    }
+
+    /**
+     * Create a boolean field.
+     *
+     * @param key
+     *         {@link String} key of the field in the {@link DataMap}
+     * @param defaultValue
+     *         {@link boolean}
+     * @return {@link ConfigField}
+     */
+    public static ConfigField<Boolean> ofBoolean(String key, boolean defaultValue) {
+        return new ConfigField<Boolean>(key, defaultValue) {
+            @Override
+            public Boolean get(DataMap dataMap) {
+                return dataMap.getBoolean(getKey(), getDefaultValue());
+            }
+
+            @Override
+            public void put(DataMap dataMap, Boolean value) {
+                dataMap.putBoolean(getKey(), value);
+            }
+
+            @Override
+            public Boolean get(SharedPreferences prefs, String prefKey) {
+                return prefs.getBoolean(prefKey, getDefaultValue());
+            }
+
+            @Override
+            public void put(SharedPreferences.Editor editor, String prefKey, Boolean value) {
+                editor.putBoolean(prefKey, value);
+            }
+        };
+    }
+
+    /**
+     * Create an int field.
+     *
+     * @param key
+     *         {@link String} key of the field in the {@link DataMap}
+     * @param defaultValue
+     *         {@link int}
+     * @return {@link ConfigField}
+     */
+    public static ConfigField<Integer> ofInt(String key, int defaultValue) {
+        return new ConfigField<Integer>(key, defaultValue) {
+            @Override
+            public Integer get(DataMap dataMap) {
+                return dataMap.getInt(getKey(), getDefaultValue());
+            }
+
+            @Override
+            public void put(DataMap dataMap, Integer value) {
+                dataMap.putInt(getKey(), value);
+            }
+
+            @Override
+            public Integer get(SharedPreferences prefs, String prefKey) {
+                return prefs.getInt(prefKey, getDefaultValue());
+            }
+
+            @Override
+            public void put(SharedPreferences.Editor editor, String prefKey, Integer value) {
+                editor.putInt(prefKey, value);
+            }
+        };
+    }
+
+    /**
+     * Create a long field.
+     *
+     * @param key
+     *         {@link String} key of the field in the {@link DataMap}
+     * @param defaultValue
+     *         {@link long}
+     * @return {@link ConfigField}
+     */
+    public static ConfigField<Long> ofLong(String key, long defaultValue) {
+        return new ConfigField<Long>(key, defaultValue) {
+            @Override
+            public Long get(DataMap dataMap) {
+                return dataMap.getLong(getKey(), getDefaultValue());
+            }
+
+            @Override
+            public void put(DataMap dataMap, Long value) {
+                dataMap.putLong(getKey(), value);
+            }
+
+            @Override
+            public Long get(SharedPreferences prefs, String prefKey) {
+                return prefs.getLong(prefKey, getDefaultValue());
+            }
+
+            @Override
+            public void put(SharedPreferences.Editor editor, String prefKey, Long value) {
+                editor.putLong(prefKey, value);
+            }
+        };
+    }
+
+    /**
+     * Create a string field.
+     *
+     * @param key
+     *         {@link String} key of the field in the {@link DataMap}
+     * @param defaultValue
+     *         {@link String}
+     * @return {@link ConfigField}
+     */
+    public static ConfigField<String> ofString(String key, String defaultValue) {
+        return new ConfigField<String>(key, defaultValue) {
+            @Override
+            public String get(DataMap dataMap) {
+                return dataMap.getString(getKey(), getDefaultValue());
+            }
+
+            @Override
+            public void put(DataMap dataMap, String value) {
+                dataMap.putString(getKey(), value);
+            }
+
+            @Override
+            public String get(SharedPreferences prefs, String prefKey) {
+                return prefs.getString(prefKey, getDefaultValue());
+            }
+
+            @Override
+            public void put(SharedPreferences.Editor editor, String prefKey, String value) {
+                editor.putString(prefKey, value);
+            }
+        };
+    }
+
+}
@@ -0,0 +1,108 @@
+package com.danvelazco.android.wear.emergencyalert.data;
+
+import android.content.SharedPreferences;
+import android.util.Log;
+import com.google.android.gms.common.api.GoogleApiClient;
+import com.google.android.gms.wearable.DataApi;
+import com.google.android.gms.wearable.PutDataRequest;
+import com.google.android.gms.wearable.Wearable;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Keeps track of the last version of the configuration that was put, so a new data item is only put when a field
+ * actually changed. The values and the version that were put are kept in their own {@link SharedPreferences}.
+ * <p/>
+ * The first version is based on the clock, so a reinstalled phone app never reuses a version the watch has already
+ * seen.
+ *
+ * @since 10/18/26
+ */
+public class ConfigSyncTracker {
+
+    // Constants
+    private static final String TAG = "ConfigSyncTracker";
+    private static final String KEY_VERSION = "_config_version";
+
+    // Members
+    private final SharedPreferences mState;
+
+    /**
+     * Constructor.
+     *
+     * @param state
+     *         {@link SharedPreferences} only used to keep the state of the sync
+     */
+    public ConfigSyncTracker(SharedPreferences state) {
+        mState = state;
+    }
+
+    /**
+     * @return {@link long} version of the configuration that was last put
+     */
+    public long getVersion() {
+        return mState.getLong(KEY_VERSION, PreferencesData.VERSION_UNKNOWN);
+    }
+
+    /**
+     * Get the fields whose value differs from the one that was last put.
+     *
+     * @param values
+     *         {@link Map} with the current value of every field
+     * @return {@link List} of {@linkplain ConfigField fields}, empty if nothing changed
+     */
+    public List<ConfigField<?>> getChangedFields(Map<ConfigField<?>, Object> values) {
+        List<ConfigField<?>> changed = new ArrayList<>();
+        for (ConfigField<?> field : PreferencesData.FIELDS) {
+            Object value = values.get(field);
+            if (value == null) {
+                value = field.getDefaultValue();
+            }
+            if (!mState.contains(field.getKey()) || !value.equals(field.get(mState, field.getKey()))) {
+                changed.add(field);
+            }
+        }
+        return changed;
+    }
+
+    /**
+     * Put a new version of the configuration, only if any of the fields changed. Blocks until the data item is put,
+     * so it must be called on a background thread.
+     *
+     * @param googleApiClient
+     *         connected {@link GoogleApiClient}
+     * @param values
+     *         {@link Map} with the current value of every field
+     * @return true if the configuration is in sync, either because it was put or because nothing changed
+     */
+    public synchronized boolean sync(GoogleApiClient googleApiClient, Map<ConfigField<?>, Object> values) {
+        List<ConfigField<?>> changed = getChangedFields(values);
+        if (changed.isEmpty()) {
+            Log.d(TAG, "Configuration version " + getVersion() + " is unchanged, not putting it");
+            return true;
+        }
+
+        long version = getVersion();
+        version = version == PreferencesData.VERSION_UNKNOWN ? System.currentTimeMillis() : version + 1;
+        PutDataRequest request = PreferencesData.toDataMap(version, values, changed).asPutDataRequest();
+        DataApi.DataItemResult result = Wearable.DataApi.putDataItem(googleApiClient, request).await();
+        if (!result.getStatus().isSuccess()) {
+            Log.e(TAG, "ERROR: failed to put configuration version " + version + ": " + result.getStatus());
+            return false;
+        }
+
+        // Remember what was put, in a single transaction
+        SharedPreferences.Editor editor = mState.edit();
+        for (ConfigField<?> field : changed) {
+            Object value = values.get(field);
+            field.putObject(editor, field.getKey(), value != null ? value : field.getDefaultValue());
+        }
+        editor.putLong(KEY_VERSION, version);
+        editor.apply();
+        Log.d(TAG, "Put configuration version " + version + ", changed fields: " + changed);
+        return true;
+    }
+
+}
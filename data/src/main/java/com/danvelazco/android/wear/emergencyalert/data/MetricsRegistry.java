@@ -0,0 +1,223 @@
+package com.danvelazco.android.wear.emergencyalert.data;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Process-wide registry of {@linkplain Counter counters}, {@linkplain Gauge gauges} and fixed-bucket {@linkplain
+ * Histogram histograms}. Metrics are meant to be looked up once, typically into a static field, and then updated from
+ * any thread. Updating a metric only goes through atomic variables, so it never locks and never allocates.
+ * <p/>
+ * A {@link MetricsSnapshot} of every metric can be taken at any time, and serialized so the watch can send its metrics
+ * to the phone.
+ *
+ * @since 10/18/26
+ */
+public class MetricsRegistry {
+
+    /**
+     * Bucket upper bounds for latencies in milliseconds, anything above the last bound goes in an overflow bucket
+     */
+    public static final long[] LATENCY_BUCKETS_MS = {10, 25, 50, 100, 250, 500, 1000, 2500, 5000, 10000, 30000,
+            60000};
+
+    private static final MetricsRegistry sDefault = new MetricsRegistry();
+
+    /**
+     * Base class of every metric
+     */
+    public abstract static class Metric {
+
+        // Members
+        private final String mmName;
+
+        private Metric(String name) {
+            mmName = name;
+        }
+
+        public String getName() {
+            return mmName;
+        }
+
+        abstract MetricsSnapshot.Entry snapshot();
+    }
+
+    /**
+     * A value that only ever goes up
+     */
+    public static class Counter extends Metric {
+
+        // Members
+        private final AtomicLong mmValue = new AtomicLong();
+
+        private Counter(String name) {
+            super(name);
+        }
+
+        public void increment() {
+            mmValue.incrementAndGet();
+        }
+
+        public void add(long delta) {
+            mmValue.addAndGet(delta);
+        }
+
+        public long get() {
+            return mmValue.get();
+        }
+
+        @Override
+        MetricsSnapshot.Entry snapshot() {
+            return MetricsSnapshot.Entry.counter(getName(), mmValue.get());
+        }
+    }
+
+    /**
+     * The last value of something
+     */
+    public static class Gauge extends Metric {
+
+        // Members
+        private final AtomicLong mmValue = new AtomicLong();
+
+        private Gauge(String name) {
+            super(name);
+        }
+
+        public void set(long value) {
+            mmValue.set(value);
+        }
+
+        public long get() {
+            return mmValue.get();
+        }
+
+        @Override
+        MetricsSnapshot.Entry snapshot() {
+            return MetricsSnapshot.Entry.gauge(getName(), mmValue.get());
+        }
+    }
+
+    /**
+     * Distribution of values over fixed buckets, each bucket counts the values up to its bound
+     */
+    public static class Histogram extends Metric {
+
+        // Members
+        private final long[] mmBounds;
+        private final AtomicLongArray mmBuckets;
+        private final AtomicLong mmCount = new AtomicLong();
+        private final AtomicLong mmSum = new AtomicLong();
+
+        private Histogram(String name, long[] bounds) {
+            super(name);
+            mmBounds = bounds.clone();
+            mmBuckets = new AtomicLongArray(bounds.length + 1);
+        }
+
+        /**
+         * Record a value.
+         *
+         * @param value
+         *         {@link long}
+         */
+        public void record(long value) {
+            int bucket = Arrays.binarySearch(mmBounds, value);
+            if (bucket < 0) {
+                bucket = -bucket - 1;
+            }
+            mmBuckets.incrementAndGet(bucket);
+            mmCount.incrementAndGet();
+            mmSum.addAndGet(value);
+        }
+
+        public long getCount() {
+            return mmCount.get();
+        }
+
+        @Override
+        MetricsSnapshot.Entry snapshot() {
+            long[] buckets = new long[mmBuckets.length()];
+            for (int i = 0; i < buckets.length; i++) {
+                buckets[i] = mmBuckets.get(i);
+            }
+            return MetricsSnapshot.Entry.histogram(getName(), mmCount.get(), mmSum.get(), mmBounds, buckets);
+        }
+    }
+
+    // Members
+    private final ConcurrentMap<String, Metric> mMetrics = new ConcurrentHashMap<>();
+
+    /**
+     * @return the {@link MetricsRegistry} of the process
+     */
+    public static MetricsRegistry getDefault() {
+        return sDefault;
+    }
+
+    /**
+     * Get a counter, it is created the first time.
+     *
+     * @param name
+     *         {@link String}
+     * @return {@link Counter}
+     */
+    public Counter counter(String name) {
+        return register(new Counter(name), Counter.class);
+    }
+
+    /**
+     * Get a gauge, it is created the first time.
+     *
+     * @param name
+     *         {@link String}
+     * @return {@link Gauge}
+     */
+    public Gauge gauge(String name) {
+        return register(new Gauge(name), Gauge.class);
+    }
+
+    /**
+     * Get a histogram, it is created the first time with the given buckets.
+     *
+     * @param name
+     *         {@link String}
+     * @param bounds
+     *         {@link long[]} sorted upper bounds of the buckets, such as {@link #LATENCY_BUCKETS_MS}
+     * @return {@link Histogram}
+     */
+    public Histogram histogram(String name, long[] bounds) {
+        return register(new Histogram(name, bounds), Histogram.class);
+    }
+
+    private <T extends Metric> T register(T metric, Class<T> type) {
+        Metric existing = mMetrics.putIfAbsent(metric.getName(), metric);
+        if (existing == null) {
+            return metric;
+        }
+        if (!type.isInstance(existing)) {
+            throw new IllegalArgumentException(metric.getName() + " is already registered as another type");
+        }
+        return type.cast(existing);
+    }
+
+    /**
+     * Take a snapshot of every metric. Nothing is locked, so metrics that are updated while the snapshot is taken may
+     * be slightly off from one another.
+     *
+     * @return {@link MetricsSnapshot}
+     */
+    public MetricsSnapshot snapshot() {
+        List<MetricsSnapshot.Entry> entries = new ArrayList<>(mMetrics.size());
+        for (Metric metric : mMetrics.values()) {
+            entries.add(metric.snapshot());
+        }
+        return new MetricsSnapshot(System.currentTimeMillis(), entries);
+    }
+
+}
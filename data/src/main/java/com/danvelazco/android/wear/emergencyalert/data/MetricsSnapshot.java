@@ -0,0 +1,256 @@
+package com.danvelazco.android.wear.emergencyalert.data;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Values of every metric of a {@link MetricsRegistry} at some point in time, sorted by name. A snapshot can be turned
+ * into bytes and back, this is how the watch sends its metrics to the phone through the data item at {@link
+ * #WATCH_URI_PATH}.
+ * <p/>
+ * Format (big-endian): a u8 version, the i64 time the snapshot was taken and a u16 number of entries. Each entry is
+ * its name (modified UTF-8) and a u8 type, followed by an i64 value for counters and gauges. Histograms have their
+ * i64 count, i64 sum, a u8 number of bounds, the i64 bounds and one i64 count per bucket, the overflow bucket included.
+ *
+ * @since 10/18/26
+ */
+public class MetricsSnapshot {
+
+    /**
+     * Constants for the format
+     */
+    public static final int VERSION = 1;
+    public static final String WATCH_URI_PATH = "/metrics/watch";
+    public static final String FIELD_SNAPSHOT = "snapshot";
+
+    public static final int TYPE_COUNTER = 1;
+    public static final int TYPE_GAUGE = 2;
+    public static final int TYPE_HISTOGRAM = 3;
+
+    /**
+     * Value of a single metric
+     */
+    public static class Entry {
+
+        // Members
+        public final String name;
+        public final int type;
+        public final long value;
+        public final long count;
+        public final long sum;
+        private final long[] mmBounds;
+        private final long[] mmBuckets;
+
+        private Entry(String name, int type, long value, long count, long sum, long[] bounds, long[] buckets) {
+            this.name = name;
+            this.type = type;
+            this.value = value;
+            this.count = count;
+            this.sum = sum;
+            mmBounds = bounds;
+            mmBuckets = buckets;
+        }
+
+        static Entry counter(String name, long value) {
+            return new Entry(name, TYPE_COUNTER, value, 0, 0, null, null);
+        }
+
+        static Entry gauge(String name, long value) {
+            return new Entry(name, TYPE_GAUGE, value, 0, 0, null, null);
+        }
+
+        static Entry histogram(String name, long count, long sum, long[] bounds, long[] buckets) {
+            return new Entry(name, TYPE_HISTOGRAM, 0, count, sum, bounds, buckets);
+        }
+
+        /**
+         * Estimate a percentile of a histogram, as the bound of the bucket it falls in.
+         *
+         * @param percentile
+         *         {@link double} between 0 and 100
+         * @return {@link long} bound of the bucket, {@link Long#MAX_VALUE} for the overflow bucket, or -1 if the
+         * histogram is empty
+         */
+        public long getPercentile(double percentile) {
+            if (type != TYPE_HISTOGRAM || count == 0) {
+                return -1;
+            }
+
+            long rank = (long) Math.ceil(count * percentile / 100);
+            long seen = 0;
+            for (int i = 0; i < mmBuckets.length; i++) {
+                seen += mmBuckets[i];
+                if (seen >= rank && seen > 0) {
+                    return i < mmBounds.length ? mmBounds[i] : Long.MAX_VALUE;
+                }
+            }
+            return Long.MAX_VALUE;
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public String toString() {
+            switch (type) {
+                case TYPE_HISTOGRAM:
+                    return name + ": count=" + count + (count > 0 ? ", mean=" + sum / count + ", p50<="
+                            + formatBound(getPercentile(50)) + ", p90<=" + formatBound(getPercentile(90))
+                            + ", p99<=" + formatBound(getPercentile(99)) : "");
+                default:
+                    return name + ": " + value;
+            }
+        }
+
+        private static String formatBound(long bound) {
+            return bound == Long.MAX_VALUE ? "inf" : Long.toString(bound);
+        }
+    }
+
+    // Members
+    private final long mTakenAt;
+    private final List<Entry> mEntries;
+
+    MetricsSnapshot(long takenAt, List<Entry> entries) {
+        mTakenAt = takenAt;
+        List<Entry> sorted = new ArrayList<>(entries);
+        Collections.sort(sorted, new Comparator<Entry>() {
+            @Override
+            public int compare(Entry lhs, Entry rhs) {
+                return lhs.name.compareTo(rhs.name);
+            }
+        });
+        mEntries = Collections.unmodifiableList(sorted);
+    }
+
+    /**
+     * @return {@link long} time the snapshot was taken, in milliseconds since epoch
+     */
+    public long getTakenAt() {
+        return mTakenAt;
+    }
+
+    /**
+     * @return {@link List} of {@linkplain Entry entries}, sorted by name
+     */
+    public List<Entry> getEntries() {
+        return mEntries;
+    }
+
+    /**
+     * @param name
+     *         {@link String}
+     * @return {@link Entry} of the metric, or null
+     */
+    public Entry get(String name) {
+        for (Entry entry : mEntries) {
+            if (entry.name.equals(name)) {
+                return entry;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Print every entry, one per line.
+     *
+     * @param writer
+     *         {@link PrintWriter}
+     * @param prefix
+     *         {@link String} written at the start of every line
+     */
+    public void dump(PrintWriter writer, String prefix) {
+        for (Entry entry : mEntries) {
+            writer.print(prefix);
+            writer.println(entry);
+        }
+    }
+
+    /**
+     * @return {@link byte[]} the snapshot in its serialized form
+     */
+    public byte[] toByteArray() {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(64 * mEntries.size() + 16);
+        DataOutputStream out = new DataOutputStream(bytes);
+        try {
+            out.writeByte(VERSION);
+            out.writeLong(mTakenAt);
+            out.writeShort(mEntries.size());
+            for (Entry entry : mEntries) {
+                out.writeUTF(entry.name);
+                out.writeByte(entry.type);
+                if (entry.type == TYPE_HISTOGRAM) {
+                    out.writeLong(entry.count);
+                    out.writeLong(entry.sum);
+                    out.writeByte(entry.mmBounds.length);
+                    for (long bound : entry.mmBounds) {
+                        out.writeLong(bound);
+                    }
+                    for (long bucket : entry.mmBuckets) {
+                        out.writeLong(bucket);
+                    }
+                } else {
+                    out.writeLong(entry.value);
+                }
+            }
+        } catch (IOException e) {
+            // Can't happen when writing to memory
+            throw new IllegalStateException(e);
+        }
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Read a serialized snapshot.
+     *
+     * @param payload
+     *         {@link byte[]}, can be null
+     * @return {@link MetricsSnapshot}, or null if it can't be read
+     */
+    public static MetricsSnapshot fromByteArray(byte[] payload) {
+        if (payload == null) {
+            return null;
+        }
+
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(payload));
+        try {
+            if (in.readUnsignedByte() != VERSION) {
+                return null;
+            }
+            long takenAt = in.readLong();
+            int count = in.readUnsignedShort();
+            List<Entry> entries = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                String name = in.readUTF();
+                int type = in.readUnsignedByte();
+                if (type == TYPE_HISTOGRAM) {
+                    long histogramCount = in.readLong();
+                    long sum = in.readLong();
+                    long[] bounds = new long[in.readUnsignedByte()];
+                    for (int j = 0; j < bounds.length; j++) {
+                        bounds[j] = in.readLong();
+                    }
+                    long[] buckets = new long[bounds.length + 1];
+                    for (int j = 0; j < buckets.length; j++) {
+                        buckets[j] = in.readLong();
+                    }
+                    entries.add(Entry.histogram(name, histogramCount, sum, bounds, buckets));
+                } else {
+                    entries.add(new Entry(name, type, in.readLong(), 0, 0, null, null));
+                }
+            }
+            return new MetricsSnapshot(takenAt, entries);
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+}
@@ -6,7 +6,18 @@ import com.google.android.gms.wearable.Node;
 import com.google.android.gms.wearable.PutDataMapRequest;
 import com.google.android.gms.wearable.PutDataRequest;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
 /**
+ * Schema of the configuration synced from the phone to the watch. The data item always holds every field, since a put
+ * replaces the whole item, but it also carries a version and the keys of the fields that changed in that version, so
+ * the watch only has to apply those.
+ *
  * @since 6/7/15
  */
 public class PreferencesData {
@@ -16,6 +27,22 @@ public class PreferencesData {
      */
     public static final String URI_PATH = "/preferencesdata";
     public static final String FIELD_USE_BUTTON_CONFIRMATION = "use_button_confirmation";
+    public static final String FIELD_VERSION = "version";
+    public static final String FIELD_CHANGED_FIELDS = "changed_fields";
+
+    /**
+     * Version of data items put by phone apps that didn't track versions yet
+     */
+    public static final long VERSION_UNKNOWN = 0;
+
+    /**
+     * Fields of the configuration
+     */
+    public static final ConfigField<Boolean> USE_BUTTON_CONFIRMATION =
+            ConfigField.ofBoolean(FIELD_USE_BUTTON_CONFIRMATION, false);
+
+    public static final List<ConfigField<?>> FIELDS = Collections.unmodifiableList(
+            Arrays.<ConfigField<?>>asList(USE_BUTTON_CONFIRMATION));
 
     /**
      * Get the full URI for the specific {@link Node}
@@ -32,13 +59,81 @@ public class PreferencesData {
                 .build();
     }
 
-    public static boolean getUseButtonConfirmation(DataMap dataMap) {
-        return dataMap.getBoolean(FIELD_USE_BUTTON_CONFIRMATION);
+    /**
+     * Find a field by its key.
+     *
+     * @param key
+     *         {@link String}
+     * @return {@link ConfigField}, or null if the key is not part of the schema
+     */
+    public static ConfigField<?> getField(String key) {
+        for (ConfigField<?> field : FIELDS) {
+            if (field.getKey().equals(key)) {
+                return field;
+            }
+        }
+        return null;
     }
 
-    public static PutDataMapRequest toDataMap(boolean useButtonConfirmation) {
+    /**
+     * @param dataMap
+     *         {@link DataMap}
+     * @return {@link long} version of the configuration, {@link #VERSION_UNKNOWN} if it was not set
+     */
+    public static long getVersion(DataMap dataMap) {
+        return dataMap.getLong(FIELD_VERSION, VERSION_UNKNOWN);
+    }
+
+    /**
+     * Get the fields that changed in the version of the configuration held by the {@link DataMap}.
+     *
+     * @param dataMap
+     *         {@link DataMap}
+     * @return {@link List} of {@linkplain ConfigField fields}, every field if they are not known
+     */
+    public static List<ConfigField<?>> getChangedFields(DataMap dataMap) {
+        String[] keys = dataMap.getStringArray(FIELD_CHANGED_FIELDS);
+        if (keys == null) {
+            return FIELDS;
+        }
+
+        List<ConfigField<?>> fields = new ArrayList<>(keys.length);
+        for (String key : keys) {
+            ConfigField<?> field = getField(key);
+            if (field != null) {
+                fields.add(field);
+            }
+        }
+        return fields;
+    }
+
+    /**
+     * Build the request to put a version of the configuration.
+     *
+     * @param version
+     *         {@link long} version of the configuration
+     * @param values
+     *         {@link Map} with the value of every field
+     * @param changedFields
+     *         {@link Collection} of the fields that changed since the previous version
+     * @return {@link PutDataMapRequest}
+     */
+    public static PutDataMapRequest toDataMap(long version, Map<ConfigField<?>, Object> values,
+            Collection<ConfigField<?>> changedFields) {
         PutDataMapRequest dataMapRequest = PutDataMapRequest.create(URI_PATH);
-        dataMapRequest.getDataMap().putBoolean(FIELD_USE_BUTTON_CONFIRMATION, useButtonConfirmation);
+        DataMap dataMap = dataMapRequest.getDataMap();
+        for (ConfigField<?> field : FIELDS) {
+            Object value = values.get(field);
+            field.putObject(dataMap, value != null ? value : field.getDefaultValue());
+        }
+
+        String[] changedKeys = new String[changedFields.size()];
+        int i = 0;
+        for (ConfigField<?> field : changedFields) {
+            changedKeys[i++] = field.getKey();
+        }
+        dataMap.putLong(FIELD_VERSION, version);
+        dataMap.putStringArray(FIELD_CHANGED_FIELDS, changedKeys);
         return dataMapRequest;
     }
 
@@ -0,0 +1,138 @@
+/*
+ * Copyright (C) 2014 Daniel Velazco
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.danvelazco.android.wear.emergencyalert.history;
+
+import junit.framework.TestCase;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * Persistence, rollover and time range tests for {@link AlertJournal}, with a clock the tests control
+ */
+public class AlertJournalTest extends TestCase {
+
+    private File mDirectory;
+    private long mNow = 1000000;
+
+    private final AlertJournal.Clock mClock = new AlertJournal.Clock() {
+        @Override
+        public long currentTimeMillis() {
+            return mNow;
+        }
+    };
+
+    @Override
+    protected void setUp() throws IOException {
+        mDirectory = File.createTempFile("alert_journal", "");
+        assertTrue(mDirectory.delete());
+    }
+
+    @Override
+    protected void tearDown() {
+        File[] files = mDirectory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        mDirectory.delete();
+    }
+
+    public void testRecordsSurviveReopening() {
+        AlertJournal journal = new AlertJournal(mDirectory);
+        journal.recordAlertReceived(42, 1000, 80);
+        journal.recordSmsSubmitted(42, 7, "+1 (555) 010-9999", 2, 1);
+        journal.recordLocationFix(42, 37.422, -122.084, 12.4f, 2000);
+
+        AlertJournal.Range range = new AlertJournal(mDirectory).query(0, Long.MAX_VALUE);
+        assertEquals(3, range.getCount());
+
+        AlertJournal.Record record = range.read(0, new AlertJournal.Record());
+        assertEquals(AlertJournal.TYPE_ALERT_RECEIVED, record.getType());
+        assertEquals(42, record.getAlertId());
+        assertEquals(1000, record.getTriggeredAt());
+        assertEquals(80, record.getBattery());
+
+        range.read(1, record);
+        assertEquals(AlertJournal.TYPE_SMS_SUBMITTED, record.getType());
+        assertEquals(7, record.getEntryId());
+        assertEquals("Only the last digits are stored", "***99", record.getNumber());
+        assertEquals(2, record.getParts());
+        assertEquals(1, record.getAttempts());
+
+        range.read(2, record);
+        assertEquals(AlertJournal.TYPE_LOCATION_FIX, record.getType());
+        assertEquals(37.422, record.getLatitude(), 1e-6);
+        assertEquals(-122.084, record.getLongitude(), 1e-6);
+        assertEquals(12, record.getAccuracy());
+        assertEquals(2000, record.getFixTime());
+    }
+
+    public void testRollsOverAndKeepsTheLatestSegments() {
+        AlertJournal journal = new AlertJournal(mDirectory);
+        int total = AlertJournal.RECORDS_PER_SEGMENT * (AlertJournal.MAX_SEGMENTS + 1) + 10;
+        for (int i = 0; i < total; i++) {
+            journal.recordAlertHandled(i, 0, 1);
+        }
+
+        assertEquals(AlertJournal.MAX_SEGMENTS, mDirectory.listFiles().length);
+        AlertJournal.Range range = journal.query(0, Long.MAX_VALUE);
+        int kept = AlertJournal.RECORDS_PER_SEGMENT * (AlertJournal.MAX_SEGMENTS - 1) + 10;
+        assertEquals(kept, range.getCount());
+
+        AlertJournal.Record record = new AlertJournal.Record();
+        assertEquals(total - kept, range.read(0, record).getAlertId());
+        assertEquals(total - 1, range.read(kept - 1, record).getAlertId());
+    }
+
+    public void testQueryByTime() {
+        AlertJournal journal = new AlertJournal(mDirectory, mClock);
+        journal.recordAlertReceived(1, 0, -1);
+        mNow += 5;
+        journal.recordAlertReceived(2, 0, -1);
+        mNow += 5;
+        journal.recordAlertReceived(3, 0, -1);
+
+        AlertJournal.Range range = journal.query(1000005, 1000006);
+        assertEquals(1, range.getCount());
+        assertEquals(2, range.read(0, new AlertJournal.Record()).getAlertId());
+        assertEquals(0, journal.query(1010000, Long.MAX_VALUE).getCount());
+    }
+
+    public void testClockSetBackKeepsRecordsInOrder() {
+        AlertJournal journal = new AlertJournal(mDirectory, mClock);
+        journal.recordAlertReceived(1, 0, -1);
+        mNow -= 60000;
+        journal.recordAlertReceived(2, 0, -1);
+
+        // Reopening doesn't forget the latest time either
+        journal = new AlertJournal(mDirectory, mClock);
+        journal.recordAlertReceived(3, 0, -1);
+        mNow += 120000;
+        journal.recordAlertReceived(4, 0, -1);
+
+        AlertJournal.Record record = new AlertJournal.Record();
+        AlertJournal.Range range = journal.query(1000000, 1000001);
+        assertEquals(3, range.getCount());
+        assertEquals(1, range.read(0, record).getAlertId());
+        assertEquals(3, range.read(2, record).getAlertId());
+        assertEquals(1, journal.query(1000001, Long.MAX_VALUE).getCount());
+        assertEquals(4, journal.query(1000001, Long.MAX_VALUE).read(0, record).getAlertId());
+    }
+
+}
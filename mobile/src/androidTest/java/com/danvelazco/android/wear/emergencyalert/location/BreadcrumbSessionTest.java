@@ -0,0 +1,138 @@
+package com.danvelazco.android.wear.emergencyalert.location;
+
+import android.location.Location;
+import android.os.Looper;
+import junit.framework.TestCase;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Adaptive sampling tests for {@link BreadcrumbSession}, driven with fixes instead of real providers
+ */
+public class BreadcrumbSessionTest extends TestCase {
+
+    private static final double LATITUDE = 37.422;
+    private static final double LONGITUDE = -122.084;
+
+    private final List<Location> mBreadcrumbs = new ArrayList<>();
+    private int mFinishedCount = 0;
+    private int mRequestCount = 0;
+    private TestSession mSession = null;
+
+    private class TestSession extends BreadcrumbSession {
+
+        TestSession(long minIntervalMs, long maxIntervalMs, int maxBreadcrumbs) {
+            super(null, new Callback() {
+                @Override
+                public void onBreadcrumb(Location location) {
+                    mBreadcrumbs.add(location);
+                }
+
+                @Override
+                public void onBreadcrumbSessionFinished() {
+                    mFinishedCount++;
+                }
+            }, minIntervalMs, maxIntervalMs, 100f, 3600000, maxBreadcrumbs);
+        }
+
+        @Override
+        boolean requestUpdates() {
+            mRequestCount++;
+            return true;
+        }
+
+        @Override
+        void removeUpdates() {
+            // No providers to remove the updates from
+        }
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        if (mSession != null) {
+            mSession.cancel();
+        }
+        super.tearDown();
+    }
+
+    private static Location fix(double northDegrees) {
+        return fix(northDegrees, 10f);
+    }
+
+    private static Location fix(double northDegrees, float accuracy) {
+        Location location = new Location("test");
+        location.setLatitude(LATITUDE + northDegrees);
+        location.setLongitude(LONGITUDE);
+        location.setAccuracy(accuracy);
+        return location;
+    }
+
+    public void testStationaryFixesBackOff() {
+        mSession = new TestSession(1000, 8000, 10);
+        assertTrue(mSession.start(Looper.getMainLooper(), fix(0)));
+        assertEquals(1, mRequestCount);
+
+        // About 11 meters away each time, the phone isn't going anywhere
+        long[] expected = {2000, 4000, 8000, 8000};
+        for (int i = 0; i < expected.length; i++) {
+            mSession.onLocationChanged(fix(0.0001 * (i % 2)));
+            assertEquals(expected[i], mSession.getIntervalMs());
+        }
+        assertEquals("Only an actual change re-requests the updates", 4, mRequestCount);
+        assertTrue(mBreadcrumbs.isEmpty());
+
+        // About a kilometer away, back to the minimum interval right away
+        mSession.onLocationChanged(fix(0.01));
+        assertEquals(1000, mSession.getIntervalMs());
+        assertEquals(5, mRequestCount);
+    }
+
+    public void testMovingFixesAreReported() {
+        mSession = new TestSession(0, 0, 2);
+        assertTrue(mSession.start(Looper.getMainLooper(), fix(0)));
+
+        mSession.onLocationChanged(fix(0.0001));
+        assertTrue(mBreadcrumbs.isEmpty());
+
+        Location moved = fix(0.01);
+        mSession.onLocationChanged(moved);
+        assertEquals(1, mBreadcrumbs.size());
+        assertSame(moved, mBreadcrumbs.get(0));
+
+        // Too close to the last breadcrumb, not to the start
+        mSession.onLocationChanged(fix(0.0101));
+        assertEquals(1, mBreadcrumbs.size());
+
+        mSession.onLocationChanged(fix(0.02));
+        assertEquals(2, mBreadcrumbs.size());
+        assertEquals("The breadcrumb budget ends the session", 1, mFinishedCount);
+        assertEquals(2, mSession.getBreadcrumbCount());
+
+        mSession.onLocationChanged(fix(0.03));
+        assertEquals(2, mBreadcrumbs.size());
+    }
+
+    public void testCoarseJitterIsNotMovement() {
+        mSession = new TestSession(0, 0, 10);
+        assertTrue(mSession.start(Looper.getMainLooper(), fix(0)));
+
+        // Network fixes drifting up to about 330 meters around a phone that sits still indoors
+        double[] jitter = {0.003, -0.002, 0.0025, -0.003, 0.001};
+        for (double north : jitter) {
+            mSession.onLocationChanged(fix(north, 400f));
+        }
+        assertTrue(mBreadcrumbs.isEmpty());
+
+        // Further than any of the fixes is off by, that is a move
+        Location moved = fix(0.01, 400f);
+        mSession.onLocationChanged(moved);
+        assertEquals(1, mBreadcrumbs.size());
+        assertSame(moved, mBreadcrumbs.get(0));
+
+        // A precise fix close to a coarse breadcrumb is still within its accuracy
+        mSession.onLocationChanged(fix(0.0125));
+        assertEquals(1, mBreadcrumbs.size());
+    }
+
+}
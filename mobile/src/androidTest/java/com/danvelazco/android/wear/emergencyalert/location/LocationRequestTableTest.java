@@ -0,0 +1,53 @@
+package com.danvelazco.android.wear.emergencyalert.location;
+
+import junit.framework.TestCase;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Coalescing and start ID tests for {@link LocationRequestTable}
+ */
+public class LocationRequestTableTest extends TestCase {
+
+    private final LocationRequestTable mTable = new LocationRequestTable();
+
+    public void testSameRecipientIsCoalesced() {
+        mTable.add(1, Arrays.asList("5551234", "5555678"), 10, 0, false);
+        mTable.add(2, Collections.singletonList("5551234"), 11, 0, true);
+
+        List<LocationRequestTable.Request> requests = mTable.drain();
+        assertEquals(2, requests.size());
+        assertEquals(Arrays.asList(1, 2), Arrays.asList(requests.get(0).startIds.toArray()));
+        assertEquals(11, requests.get(0).alertId);
+        assertTrue(requests.get(0).sendBreadcrumbs);
+        assertTrue(mTable.isEmpty());
+    }
+
+    public void testCommandFinishesWithItsLastRequest() {
+        mTable.add(1, Arrays.asList("5551234", "5555678"), 10, 0, false);
+        mTable.add(2, Collections.singletonList("5559999"), 11, 0, false);
+        List<LocationRequestTable.Request> requests = mTable.drain();
+
+        // Draining doesn't finish anything, the messages still have to go out
+        assertTrue(mTable.hasOpenCommands());
+
+        mTable.finish(requests.get(2));
+        assertEquals(2, mTable.getLastFinishedStartId());
+        assertTrue("Command 1 still has both of its recipients", mTable.hasOpenCommands());
+
+        mTable.finish(requests.get(0));
+        assertTrue(mTable.hasOpenCommands());
+        mTable.finish(requests.get(1));
+        assertFalse(mTable.hasOpenCommands());
+        assertEquals(2, mTable.getLastFinishedStartId());
+    }
+
+    public void testCommandWithoutRecipientsIsFinished() {
+        mTable.add(3, Collections.<String>emptyList(), 10, 0, false);
+        assertFalse(mTable.hasOpenCommands());
+        assertEquals(3, mTable.getLastFinishedStartId());
+    }
+
+}
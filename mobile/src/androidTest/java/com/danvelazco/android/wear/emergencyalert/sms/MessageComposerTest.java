@@ -0,0 +1,42 @@
+package com.danvelazco.android.wear.emergencyalert.sms;
+
+import junit.framework.TestCase;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+/**
+ * Merging tests for {@link MessageComposer}
+ */
+public class MessageComposerTest extends TestCase {
+
+    private static final String ALERT = "Automatic emergency message: Something happened!";
+    private static final String LOCATION = "Last known location: http://maps.google.com/maps?q=37.422000,-122.084058"
+            + " on Oct 18, 2026 10:42 AM";
+
+    public void testMergedWhenItFits() {
+        assertEquals(Collections.singletonList(ALERT + MessageComposer.SEPARATOR + LOCATION),
+                MessageComposer.compose(ALERT, LOCATION, false));
+    }
+
+    public void testNoLocation() {
+        assertEquals(Collections.singletonList(ALERT), MessageComposer.compose(ALERT, null, false));
+    }
+
+    public void testSeparateWhenMergingCostsMore() {
+        // The quote makes the merged message go out as UCS-2, which takes three segments instead of two
+        String alert = "I’m in trouble, call me!";
+        String location = LOCATION + ", accurate to 12 meters";
+        assertEquals(1, SmsSegments.countSegments(alert));
+        assertEquals(1, SmsSegments.countSegments(location));
+        assertEquals(Arrays.asList(alert, location), MessageComposer.compose(alert, location, false));
+    }
+
+    public void testTransliterationIsTakenIntoAccount() {
+        String alert = "I’m in trouble, call me!";
+        String location = LOCATION + ", accurate to 12 meters";
+        assertEquals(Collections.singletonList(alert + MessageComposer.SEPARATOR + location),
+                MessageComposer.compose(alert, location, true));
+    }
+
+}
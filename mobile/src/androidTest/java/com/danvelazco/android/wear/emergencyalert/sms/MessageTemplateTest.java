@@ -0,0 +1,50 @@
+package com.danvelazco.android.wear.emergencyalert.sms;
+
+import junit.framework.TestCase;
+
+/**
+ * Compilation and rendering tests for {@link MessageTemplate}
+ */
+public class MessageTemplateTest extends TestCase {
+
+    public void testRenderEveryPlaceholder() {
+        MessageTemplate template = MessageTemplate.compile(
+                "{lat},{lon} ({accuracy}m) {maps_url} on {time}, battery {battery}");
+        MessageTemplate.Values values = new MessageTemplate.Values()
+                .setLocation(37.4219999, -122.0840575, 12.6f)
+                .setTime("Oct 18, 2026")
+                .setBattery(55);
+        assertEquals("Current location: 37.422000,-122.084058 (13m) "
+                + "http://maps.google.com/maps?q=37.422000,-122.084058 on Oct 18, 2026, battery 55%",
+                template.render("Current location:", values));
+    }
+
+    public void testUnknownPlaceholdersAreKept() {
+        MessageTemplate template = MessageTemplate.compile("{ {name} {time}} {");
+        MessageTemplate.Values values = new MessageTemplate.Values().setTime("now");
+        assertEquals("{ {name} now} {", template.render(null, values));
+    }
+
+    public void testMissingValuesRenderEmpty() {
+        MessageTemplate template = MessageTemplate.compile("at {maps_url}{accuracy} {battery}.");
+        assertEquals("at  .", template.render(null, new MessageTemplate.Values()));
+    }
+
+    public void testCoordinatesArePadded() {
+        StringBuilder out = new StringBuilder();
+        MessageTemplate.appendCoordinate(out, -0.0000004);
+        out.append(' ');
+        MessageTemplate.appendCoordinate(out, -33.000123);
+        out.append(' ');
+        MessageTemplate.appendCoordinate(out, 151.5);
+        assertEquals("0.000000 -33.000123 151.500000", out.toString());
+    }
+
+    public void testUses() {
+        MessageTemplate template = MessageTemplate.compile("{maps_url} on {time}");
+        assertTrue(template.uses(MessageTemplate.PLACEHOLDER_TIME));
+        assertTrue(template.uses(MessageTemplate.PLACEHOLDER_MAPS_URL));
+        assertFalse(template.uses(MessageTemplate.PLACEHOLDER_BATTERY));
+    }
+
+}
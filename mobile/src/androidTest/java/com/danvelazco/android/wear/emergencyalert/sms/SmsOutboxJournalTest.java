@@ -0,0 +1,84 @@
+/*
+ * Copyright (C) 2014 Daniel Velazco
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.danvelazco.android.wear.emergencyalert.sms;
+
+import junit.framework.TestCase;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Map;
+
+/**
+ * Replay tests for {@link SmsOutboxJournal}
+ */
+public class SmsOutboxJournalTest extends TestCase {
+
+    private File mFile;
+
+    @Override
+    protected void setUp() throws IOException {
+        mFile = File.createTempFile("sms_outbox", ".journal");
+        assertTrue(mFile.delete());
+    }
+
+    @Override
+    protected void tearDown() {
+        mFile.delete();
+    }
+
+    private static SmsOutbox.Entry entry(long id) {
+        return new SmsOutbox.Entry(id, "5550100", "Help", 1000, 42, 900);
+    }
+
+    public void testReplayKeepsOnlyPendingEntries() throws IOException {
+        SmsOutboxJournal journal = new SmsOutboxJournal(mFile);
+        SmsOutbox.Entry sent = entry(1);
+        SmsOutbox.Entry pending = entry(2);
+        journal.appendEnqueued(sent);
+        journal.appendEnqueued(pending);
+        journal.appendSent(sent);
+
+        Map<Long, SmsOutbox.Entry> entries = new SmsOutboxJournal(mFile).replay();
+        assertEquals(1, entries.size());
+        SmsOutbox.Entry replayed = entries.get(2L);
+        assertEquals("5550100", replayed.number);
+        assertEquals(42, replayed.alertId);
+        assertEquals(0, replayed.retryAt);
+    }
+
+    public void testReplayKeepsTheScheduledRetry() throws IOException {
+        SmsOutboxJournal journal = new SmsOutboxJournal(mFile);
+        SmsOutbox.Entry entry = entry(1);
+        journal.appendEnqueued(entry);
+        entry.attempts = 1;
+        journal.appendAttempt(entry);
+        entry.retryAt = 5000;
+        journal.appendRetryScheduled(entry);
+
+        SmsOutbox.Entry replayed = new SmsOutboxJournal(mFile).replay().get(1L);
+        assertEquals(1, replayed.attempts);
+        assertEquals(5000, replayed.retryAt);
+
+        // The next attempt is the retry, so there is no retry left to wait for
+        entry.attempts = 2;
+        journal.appendAttempt(entry);
+        replayed = new SmsOutboxJournal(mFile).replay().get(1L);
+        assertEquals(2, replayed.attempts);
+        assertEquals(0, replayed.retryAt);
+    }
+
+}
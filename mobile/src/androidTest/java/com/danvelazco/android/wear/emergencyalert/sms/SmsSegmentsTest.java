@@ -0,0 +1,75 @@
+package com.danvelazco.android.wear.emergencyalert.sms;
+
+import junit.framework.TestCase;
+
+/**
+ * Segment counting and transliteration tests for {@link SmsSegments}
+ */
+public class SmsSegmentsTest extends TestCase {
+
+    private static String repeat(char c, int count) {
+        StringBuilder builder = new StringBuilder(count);
+        for (int i = 0; i < count; i++) {
+            builder.append(c);
+        }
+        return builder.toString();
+    }
+
+    public void testGsm7Segments() {
+        assertEquals(1, SmsSegments.countSegments(""));
+        assertEquals(1, SmsSegments.countSegments(repeat('a', 160)));
+        assertEquals(2, SmsSegments.countSegments(repeat('a', 161)));
+        assertEquals(2, SmsSegments.countSegments(repeat('a', 306)));
+        assertEquals(3, SmsSegments.countSegments(repeat('a', 307)));
+    }
+
+    public void testExtensionCharactersTakeTwoSeptets() {
+        assertTrue(SmsSegments.isGsm7("{}[]€"));
+        assertEquals(10, SmsSegments.getEncodedLength("{}[]€"));
+        assertEquals(1, SmsSegments.countSegments(repeat('€', 80)));
+        assertEquals(2, SmsSegments.countSegments(repeat('€', 81)));
+
+        // An escape sequence is never split, so 76 of them fill a segment and leave one septet unused
+        assertEquals(2, SmsSegments.countSegments(repeat('€', 76) + repeat('a', 153)));
+        assertEquals(3, SmsSegments.countSegments(repeat('€', 76) + "a" + repeat('€', 77)));
+    }
+
+    public void testUcs2Segments() {
+        String quote = "’";
+        assertFalse(SmsSegments.isGsm7(quote));
+        assertEquals(1, SmsSegments.countSegments(quote + repeat('a', 69)));
+        assertEquals(2, SmsSegments.countSegments(quote + repeat('a', 70)));
+        assertEquals(3, SmsSegments.countSegments(quote + repeat('a', 134)));
+    }
+
+    public void testCost() {
+        SmsSegments.Cost cost = SmsSegments.calculate("Help!");
+        assertTrue(cost.gsm7);
+        assertEquals(1, cost.segments);
+        assertEquals(155, cost.remaining);
+
+        cost = SmsSegments.calculate("Help — now");
+        assertFalse(cost.gsm7);
+        assertEquals(60, cost.remaining);
+        assertEquals("—", SmsSegments.getNonGsm7Characters("Help — now —"));
+    }
+
+    public void testTransliterate() {
+        assertEquals("\"Don't\" - cafe... a", SmsSegments.transliterate("“Don’t” – cafê… á"));
+        // Letters that are already part of the alphabet are kept
+        assertEquals("café", SmsSegments.transliterate("café"));
+    }
+
+    public void testOptimize() {
+        String message = "I’m in trouble " + repeat('a', 60);
+        assertEquals(2, SmsSegments.countSegments(message));
+        String optimized = SmsSegments.optimize(message);
+        assertTrue(SmsSegments.isGsm7(optimized));
+        assertEquals(1, SmsSegments.countSegments(optimized));
+
+        // Nothing to gain when the emoji has to stay
+        String emoji = "Help 🚑 ’";
+        assertSame(emoji, SmsSegments.optimize(emoji));
+    }
+
+}
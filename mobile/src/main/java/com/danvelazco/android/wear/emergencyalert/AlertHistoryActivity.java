@@ -0,0 +1,167 @@
+/*
+ * Copyright (C) 2014 Daniel Velazco
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.danvelazco.android.wear.emergencyalert;
+
+import android.os.AsyncTask;
+import android.os.Bundle;
+import android.support.v7.app.AppCompatActivity;
+import android.text.format.DateUtils;
+import android.view.LayoutInflater;
+import android.view.View;
+import android.view.ViewGroup;
+import android.widget.BaseAdapter;
+import android.widget.ListView;
+import android.widget.TextView;
+import com.danvelazco.android.wear.emergencyalert.history.AlertJournal;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Shows what happened to the recent alerts, newest first, straight from the {@link AlertJournal}. Only the records of
+ * the rows on screen are ever read.
+ *
+ * @since 10/18/26
+ */
+public class AlertHistoryActivity extends AppCompatActivity {
+
+    // Constants
+    private static final int HISTORY_DAYS = 30;
+
+    // Members
+    private ListView mListView = null;
+
+    /**
+     * Adapter that reads each row from the journal when it is shown
+     */
+    private class HistoryAdapter extends BaseAdapter {
+
+        // Members
+        private final AlertJournal.Range mmRange;
+        private final AlertJournal.Record mmRecord = new AlertJournal.Record();
+        private final LayoutInflater mmInflater;
+
+        private HistoryAdapter(AlertJournal.Range range) {
+            mmRange = range;
+            mmInflater = LayoutInflater.from(AlertHistoryActivity.this);
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public int getCount() {
+            return mmRange.getCount();
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public Object getItem(int position) {
+            return mmRange.read(mmRange.getCount() - 1 - position, new AlertJournal.Record());
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public long getItemId(int position) {
+            return position;
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public View getView(int position, View convertView, ViewGroup parent) {
+            View view = convertView;
+            if (view == null) {
+                view = mmInflater.inflate(android.R.layout.simple_list_item_2, parent, false);
+            }
+
+            AlertJournal.Record record = mmRange.read(mmRange.getCount() - 1 - position, mmRecord);
+            ((TextView) view.findViewById(android.R.id.text1)).setText(describe(record));
+            CharSequence time = DateUtils.formatDateTime(AlertHistoryActivity.this, record.getTime(),
+                    DateUtils.FORMAT_SHOW_DATE | DateUtils.FORMAT_SHOW_TIME);
+            ((TextView) view.findViewById(android.R.id.text2)).setText(
+                    getString(R.string.history_details, time, record.getAlertId()));
+            return view;
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    protected void onCreate(Bundle savedInstanceState) {
+        super.onCreate(savedInstanceState);
+        setContentView(R.layout.activity_alert_history);
+        if (getSupportActionBar() != null) {
+            getSupportActionBar().setDisplayHomeAsUpEnabled(true);
+        }
+
+        mListView = (ListView) findViewById(android.R.id.list);
+        TextView emptyView = (TextView) findViewById(android.R.id.empty);
+        emptyView.setText(getString(R.string.history_empty, HISTORY_DAYS));
+        mListView.setEmptyView(emptyView);
+
+        // Opening the journal maps its files, keep that off the main thread
+        new AsyncTask<Void, Void, AlertJournal.Range>() {
+            @Override
+            protected AlertJournal.Range doInBackground(Void... params) {
+                long now = System.currentTimeMillis();
+                return AlertJournal.getInstance(AlertHistoryActivity.this)
+                        .query(now - TimeUnit.DAYS.toMillis(HISTORY_DAYS), Long.MAX_VALUE);
+            }
+
+            @Override
+            protected void onPostExecute(AlertJournal.Range range) {
+                mListView.setAdapter(new HistoryAdapter(range));
+            }
+        }.execute();
+    }
+
+    private String describe(AlertJournal.Record record) {
+        switch (record.getType()) {
+            case AlertJournal.TYPE_ALERT_RECEIVED:
+                return record.getBattery() >= 0
+                        ? getString(R.string.history_alert_received_battery, record.getBattery())
+                        : getString(R.string.history_alert_received);
+            case AlertJournal.TYPE_ALERT_HANDLED:
+                return getString(R.string.history_alert_handled,
+                        TimeUnit.MICROSECONDS.toMillis(record.getHandlingTimeUs()), record.getMessageCount());
+            case AlertJournal.TYPE_SMS_SUBMITTED:
+                return getString(R.string.history_sms_submitted, record.getNumber(), record.getParts(),
+                        record.getAttempts());
+            case AlertJournal.TYPE_SMS_SENT:
+                return getString(R.string.history_sms_sent, record.getLatencyMs());
+            case AlertJournal.TYPE_SMS_DELIVERED:
+                return getString(R.string.history_sms_delivered, record.getLatencyMs());
+            case AlertJournal.TYPE_SMS_FAILED:
+                return getString(R.string.history_sms_failed, record.getAttempts());
+            case AlertJournal.TYPE_LOCATION_FIX:
+                return record.getAccuracy() >= 0
+                        ? getString(R.string.history_location_fix, record.getLatitude(), record.getLongitude(),
+                        record.getAccuracy())
+                        : getString(R.string.history_location_fix_no_accuracy, record.getLatitude(),
+                        record.getLongitude());
+            default:
+                return getString(R.string.history_unknown, record.getType());
+        }
+    }
+
+}
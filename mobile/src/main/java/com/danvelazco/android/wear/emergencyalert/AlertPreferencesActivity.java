@@ -16,21 +16,34 @@
 
 package com.danvelazco.android.wear.emergencyalert;
 
+import android.content.Context;
+import android.content.Intent;
+import android.content.SharedPreferences;
 import android.os.AsyncTask;
 import android.os.Bundle;
 import android.preference.CheckBoxPreference;
 import android.preference.EditTextPreference;
 import android.preference.Preference;
 import android.preference.PreferenceFragment;
+import android.preference.PreferenceManager;
 import android.support.v7.app.AppCompatActivity;
 import android.text.TextUtils;
+import android.view.Menu;
+import android.view.MenuItem;
+import com.danvelazco.android.wear.emergencyalert.data.ConfigField;
+import com.danvelazco.android.wear.emergencyalert.data.ConfigSyncTracker;
 import com.danvelazco.android.wear.emergencyalert.data.PreferencesData;
+import com.danvelazco.android.wear.emergencyalert.location.LocationCache;
+import com.danvelazco.android.wear.emergencyalert.sms.SmsSegments;
+import com.danvelazco.android.wear.emergencyalert.util.AlertConfig;
 import com.google.android.gms.common.ConnectionResult;
 import com.google.android.gms.common.api.GoogleApiClient;
-import com.google.android.gms.wearable.PutDataMapRequest;
-import com.google.android.gms.wearable.PutDataRequest;
 import com.google.android.gms.wearable.Wearable;
 
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
 /**
  * @author Daniel Velazco <velazcod@gmail.com>
  * @since 7/2/14
@@ -40,15 +53,36 @@ public class AlertPreferencesActivity extends AppCompatActivity {
     // Preference Keys
     public static final String PREF_KEY_SMS_NUMBER = "_contact_phone_number";
     public static final String PREF_KEY_SMS_MESSAGE = "_sms_emergency_message";
+    public static final String PREF_KEY_SMS_TRANSLITERATE = "_sms_transliterate";
     public static final String PREF_KEY_SMS_MESSAGE_LOCATION = "_sms_send_location";
+    public static final String PREF_KEY_SMS_LOCATION_TEMPLATE = "_sms_location_template";
+    public static final String PREF_KEY_SMS_BREADCRUMBS = "_sms_send_breadcrumbs";
     public static final String PREF_KEY_SHOW_NOTIFICATION = "_show_notification";
     public static final String PREF_KEY_USE_CONFIRMATION_BTN = "_use_confirmation_button";
 
+    // Name of the preferences file that keeps the state of the configuration sync with the watch
+    private static final String CONFIG_SYNC_PREFS_NAME = "config_sync";
+
+    // Key of the preference each field of the configuration synced to the watch is stored in
+    private static final Map<ConfigField<?>, String> CONFIG_PREF_KEYS;
+    static {
+        Map<ConfigField<?>, String> prefKeys = new HashMap<>();
+        prefKeys.put(PreferencesData.USE_BUTTON_CONFIRMATION, PREF_KEY_USE_CONFIRMATION_BTN);
+        CONFIG_PREF_KEYS = Collections.unmodifiableMap(prefKeys);
+    }
+
     @Override
     protected void onCreate(Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
         setContentView(R.layout.activity_alert_preferences);
 
+        // Start listening for location fixes early if they are sent, so there is a recent one when an alert comes in
+        LocationCache.getInstance().start(this);
+
+        // Keep the alert configuration current while the preferences are edited, so the message templates are
+        // compiled when they are saved rather than when an alert comes in
+        AlertConfig.preload(this);
+
         if (savedInstanceState == null) {
             getFragmentManager().beginTransaction()
                     .add(R.id.container, AlertsPreferenceFragment.newInstance())
@@ -56,6 +90,27 @@ public class AlertPreferencesActivity extends AppCompatActivity {
         }
     }
 
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean onCreateOptionsMenu(Menu menu) {
+        getMenuInflater().inflate(R.menu.menu_alert_preferences, menu);
+        return true;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean onOptionsItemSelected(MenuItem item) {
+        if (item.getItemId() == R.id.action_alert_history) {
+            startActivity(new Intent(this, AlertHistoryActivity.class));
+            return true;
+        }
+        return super.onOptionsItemSelected(item);
+    }
+
     /**
      * A placeholder fragment containing a simple view.
      */
@@ -64,11 +119,13 @@ public class AlertPreferencesActivity extends AppCompatActivity {
 
         // Members
         private GoogleApiClient mGoogleApiClient = null;
+        private ConfigSyncTracker mmConfigSyncTracker = null;
 
         // Preferences
         private CheckBoxPreference mmPrefUseConfirmationBtn = null;
         private EditTextPreference mmPrefSmsNumber = null;
         private EditTextPreference mmPrefSmsMessage = null;
+        private CheckBoxPreference mmPrefSmsTransliterate = null;
 
         /**
          * Create a new instance of this fragment
@@ -86,13 +143,15 @@ public class AlertPreferencesActivity extends AppCompatActivity {
         public void onCreate(Bundle savedInstanceState) {
             super.onCreate(savedInstanceState);
             addPreferencesFromResource(R.xml.prefs_alert_config);
+            mmConfigSyncTracker = new ConfigSyncTracker(getActivity().getSharedPreferences(CONFIG_SYNC_PREFS_NAME,
+                    Context.MODE_PRIVATE));
 
             mmPrefUseConfirmationBtn = (CheckBoxPreference) findPreference(
                     PREF_KEY_USE_CONFIRMATION_BTN);
             mmPrefUseConfirmationBtn.setOnPreferenceChangeListener(new Preference.OnPreferenceChangeListener() {
                 @Override
                 public boolean onPreferenceChange(Preference preference, Object newValue) {
-                    setUseConfirmationButtonPreference((Boolean) newValue);
+                    syncConfig(PreferencesData.USE_BUTTON_CONFIRMATION, newValue);
                     return true;
                 }
             });
@@ -112,16 +171,37 @@ public class AlertPreferencesActivity extends AppCompatActivity {
                 });
             }
 
+            mmPrefSmsTransliterate = (CheckBoxPreference) findPreference(PREF_KEY_SMS_TRANSLITERATE);
             mmPrefSmsMessage = (EditTextPreference) findPreference(PREF_KEY_SMS_MESSAGE);
             if (mmPrefSmsMessage != null) {
-                if (!TextUtils.isEmpty(mmPrefSmsMessage.getText())) {
-                    mmPrefSmsMessage.setSummary(mmPrefSmsMessage.getText());
-                }
+                updateSmsMessageSummary(mmPrefSmsMessage.getText(), isTransliterateEnabled());
                 mmPrefSmsMessage.setOnPreferenceChangeListener(new Preference.OnPreferenceChangeListener() {
                     @Override
                     public boolean onPreferenceChange(Preference preference, Object newValue) {
-                        String newProxyPortValue = (String) newValue;
-                        mmPrefSmsMessage.setSummary(newProxyPortValue);
+                        updateSmsMessageSummary((String) newValue, isTransliterateEnabled());
+                        return true;
+                    }
+                });
+            }
+            if (mmPrefSmsTransliterate != null) {
+                mmPrefSmsTransliterate.setOnPreferenceChangeListener(new Preference.OnPreferenceChangeListener() {
+                    @Override
+                    public boolean onPreferenceChange(Preference preference, Object newValue) {
+                        if (mmPrefSmsMessage != null) {
+                            updateSmsMessageSummary(mmPrefSmsMessage.getText(), (Boolean) newValue);
+                        }
+                        return true;
+                    }
+                });
+            }
+
+            // Only listen for the passive location fixes while they can end up in an alert
+            Preference prefSendLocation = findPreference(PREF_KEY_SMS_MESSAGE_LOCATION);
+            if (prefSendLocation != null) {
+                prefSendLocation.setOnPreferenceChangeListener(new Preference.OnPreferenceChangeListener() {
+                    @Override
+                    public boolean onPreferenceChange(Preference preference, Object newValue) {
+                        LocationCache.getInstance().setEnabled(getActivity(), (Boolean) newValue);
                         return true;
                     }
                 });
@@ -149,9 +229,40 @@ public class AlertPreferencesActivity extends AppCompatActivity {
                 }
             }
             if (mmPrefSmsMessage != null) {
-                if (!TextUtils.isEmpty(mmPrefSmsMessage.getText())) {
-                    mmPrefSmsMessage.setSummary(mmPrefSmsMessage.getText());
-                }
+                updateSmsMessageSummary(mmPrefSmsMessage.getText(), isTransliterateEnabled());
+            }
+        }
+
+        /**
+         * @return true if messages may be transliterated to fit in fewer segments
+         */
+        private boolean isTransliterateEnabled() {
+            return mmPrefSmsTransliterate == null || mmPrefSmsTransliterate.isChecked();
+        }
+
+        /**
+         * Show the emergency message along with how many SMS it takes, and which characters make it go out as
+         * Unicode, so the user can see what the message costs while editing it.
+         *
+         * @param message
+         *         {@link String}
+         * @param transliterate
+         *         {@link boolean} whether the message will be transliterated when that saves segments
+         */
+        private void updateSmsMessageSummary(String message, boolean transliterate) {
+            if (TextUtils.isEmpty(message)) {
+                mmPrefSmsMessage.setSummary(R.string.pref_sms_emergency_message_summary);
+                return;
+            }
+
+            String encoded = transliterate ? SmsSegments.optimize(message) : message;
+            SmsSegments.Cost cost = SmsSegments.calculate(encoded);
+            if (cost.gsm7) {
+                mmPrefSmsMessage.setSummary(getString(R.string.pref_sms_segment_cost, message, cost.segments,
+                        cost.remaining));
+            } else {
+                mmPrefSmsMessage.setSummary(getString(R.string.pref_sms_segment_cost_unicode, message,
+                        cost.segments, cost.remaining, SmsSegments.getNonGsm7Characters(encoded)));
             }
         }
 
@@ -171,9 +282,8 @@ public class AlertPreferencesActivity extends AppCompatActivity {
          */
         @Override
         public void onConnected(Bundle bundle) {
-            if (mmPrefUseConfirmationBtn != null) {
-                setUseConfirmationButtonPreference(mmPrefUseConfirmationBtn.isChecked());
-            }
+            // Only put if something changed since the last time we synced with the watch
+            syncConfig(null, null);
         }
 
         /**
@@ -193,31 +303,48 @@ public class AlertPreferencesActivity extends AppCompatActivity {
         }
 
         /**
-         * Set the new value for the preference for using a confirmation button on the watch app
+         * Sync the configuration with the watch, only the fields that changed since the last sync are applied there.
+         * This is called from a preference change listener, before the new value is stored, so it is passed along.
          *
+         * @param changedField
+         *         {@link ConfigField} being changed, or null
          * @param newValue
-         *         {@link boolean}
+         *         new value of the changed field
          */
-        private void setUseConfirmationButtonPreference(boolean newValue) {
-            (new SetPreferenceTask()).executeOnExecutor(AsyncTask.THREAD_POOL_EXECUTOR, newValue);
+        private void syncConfig(ConfigField<?> changedField, Object newValue) {
+            SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(getActivity());
+            Map<ConfigField<?>, Object> values = new HashMap<>();
+            for (Map.Entry<ConfigField<?>, String> entry : CONFIG_PREF_KEYS.entrySet()) {
+                values.put(entry.getKey(), entry.getKey().get(prefs, entry.getValue()));
+            }
+            if (changedField != null) {
+                values.put(changedField, newValue);
+            }
+            (new SyncConfigTask(values)).executeOnExecutor(AsyncTask.THREAD_POOL_EXECUTOR);
         }
 
-        private class SetPreferenceTask extends AsyncTask<Boolean, Void, Boolean> {
+        private class SyncConfigTask extends AsyncTask<Void, Void, Boolean> {
+
+            // Members
+            private final Map<ConfigField<?>, Object> mmValues;
+
+            /**
+             * Constructor.
+             *
+             * @param values
+             *         {@link Map} with the value of every field of the configuration
+             */
+            private SyncConfigTask(Map<ConfigField<?>, Object> values) {
+                mmValues = values;
+            }
 
             /**
              * {@inheritDoc}
              */
             @Override
-            protected Boolean doInBackground(Boolean... params) {
-                if (params.length != 1) {
-                    throw new IllegalArgumentException("At least one boolean value must be set, but only one.");
-                }
-
+            protected Boolean doInBackground(Void... params) {
                 if ((mGoogleApiClient != null) && mGoogleApiClient.isConnected()) {
-                    PutDataMapRequest dataMap = PreferencesData.toDataMap(params[0]);
-                    PutDataRequest request = dataMap.asPutDataRequest();
-                    Wearable.DataApi.putDataItem(mGoogleApiClient, request);
-                    return true;
+                    return mmConfigSyncTracker.sync(mGoogleApiClient, mmValues);
                 }
                 return false;
             }
@@ -0,0 +1,710 @@
+/*
+ * Copyright (C) 2014 Daniel Velazco
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.danvelazco.android.wear.emergencyalert.history;
+
+import android.content.Context;
+import android.os.AsyncTask;
+import android.util.Log;
+import com.danvelazco.android.wear.emergencyalert.util.SMSUtil;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Append-only journal of everything that happens to an alert on the phone: when it was received, every SMS submitted,
+ * sent, delivered or given up on, and the location fixes that were sent. Records have a fixed size and are written to
+ * memory-mapped segment files, so appending one is a few writes to memory that survive the process dying. Once a
+ * segment is full the journal rolls over to a new one, and only the latest {@link #MAX_SEGMENTS} are kept.
+ * <p/>
+ * Since records have a fixed size, a {@link Range} returned by {@link #query(long, long)} can read any record by its
+ * position without loading the rest of the journal. Ranges are found by binary search on the record times, so a record
+ * is never stamped earlier than the one before it, even if the wall clock is set back.
+ * <p/>
+ * The segments are only mapped on first use, {@link #preload(Context)} does that in the background.
+ *
+ * @since 10/18/26
+ */
+public class AlertJournal {
+
+    // Constants
+    private static final String TAG = "AlertJournal";
+    private static final String DIRECTORY_NAME = "alert_journal";
+    private static final String SEGMENT_SUFFIX = ".seg";
+    private static final int MAGIC = 0x414c524a; // "ALRJ"
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 16;
+    public static final int RECORD_SIZE = 40;
+    public static final int RECORDS_PER_SEGMENT = 1024;
+    private static final int SEGMENT_SIZE = HEADER_SIZE + RECORD_SIZE * RECORDS_PER_SEGMENT;
+    public static final int MAX_SEGMENTS = 4;
+
+    // Record layout, the type is written last so a record that was only partly written is never read
+    private static final int OFFSET_TYPE = 0;
+    private static final int OFFSET_INT = 4;
+    private static final int OFFSET_TIME = 8;
+    private static final int OFFSET_ALERT_ID = 16;
+    private static final int OFFSET_LONG_0 = 24;
+    private static final int OFFSET_LONG_1 = 32;
+
+    // Record types
+    public static final int TYPE_ALERT_RECEIVED = 1;
+    public static final int TYPE_ALERT_HANDLED = 2;
+    public static final int TYPE_SMS_SUBMITTED = 3;
+    public static final int TYPE_SMS_SENT = 4;
+    public static final int TYPE_SMS_DELIVERED = 5;
+    public static final int TYPE_SMS_FAILED = 6;
+    public static final int TYPE_LOCATION_FIX = 7;
+
+    private static final int KEPT_NUMBER_DIGITS = 2; // Like everything diagnostic, the numbers are redacted
+    private static final double MICRODEGREES = 1e6;
+
+    private static AlertJournal sInstance = null;
+
+    /**
+     * Source of the time records are stamped with
+     */
+    interface Clock {
+
+        /**
+         * @return {@link long} current time, in milliseconds since epoch
+         */
+        long currentTimeMillis();
+    }
+
+    private static final Clock SYSTEM_CLOCK = new Clock() {
+        @Override
+        public long currentTimeMillis() {
+            return System.currentTimeMillis();
+        }
+    };
+
+    /**
+     * A single record, meant to be reused while reading
+     */
+    public static class Record {
+
+        // Members
+        private int mmType;
+        private long mmTime;
+        private long mmAlertId;
+        private int mmInt;
+        private long mmLong0;
+        private long mmLong1;
+
+        /**
+         * @return {@link int} one of the {@code TYPE_*} constants
+         */
+        public int getType() {
+            return mmType;
+        }
+
+        /**
+         * @return {@link long} time of the event, in milliseconds since epoch, never earlier than the record before
+         */
+        public long getTime() {
+            return mmTime;
+        }
+
+        /**
+         * @return {@link long} ID of the alert the event belongs to, 0 if unknown
+         */
+        public long getAlertId() {
+            return mmAlertId;
+        }
+
+        /**
+         * @return {@link long} time the alert was triggered on the watch for {@link #TYPE_ALERT_RECEIVED}, 0 if
+         * unknown
+         */
+        public long getTriggeredAt() {
+            return mmLong0;
+        }
+
+        /**
+         * @return {@link int} battery level of the watch for {@link #TYPE_ALERT_RECEIVED}, negative if unknown
+         */
+        public int getBattery() {
+            return mmInt;
+        }
+
+        /**
+         * @return {@link long} time it took to handle the alert for {@link #TYPE_ALERT_HANDLED}, in microseconds
+         */
+        public long getHandlingTimeUs() {
+            return mmLong0;
+        }
+
+        /**
+         * @return {@link int} number of messages sent for {@link #TYPE_ALERT_HANDLED}
+         */
+        public int getMessageCount() {
+            return mmInt;
+        }
+
+        /**
+         * @return {@link long} ID of the outbox entry for the {@code TYPE_SMS_*} records
+         */
+        public long getEntryId() {
+            return mmLong0;
+        }
+
+        /**
+         * @return {@link String} redacted phone number for {@link #TYPE_SMS_SUBMITTED}, only its last digits are stored
+         */
+        public String getNumber() {
+            return SMSUtil.redactNumber(decodeNumber(mmLong1, mmInt & 0xff));
+        }
+
+        /**
+         * @return {@link int} number of parts for {@link #TYPE_SMS_SUBMITTED} and {@link #TYPE_SMS_SENT}
+         */
+        public int getParts() {
+            return mmType == TYPE_SMS_SUBMITTED ? (mmInt >>> 16) & 0xff : mmInt;
+        }
+
+        /**
+         * @return {@link int} attempt number for {@link #TYPE_SMS_SUBMITTED}, or the attempts made for {@link
+         * #TYPE_SMS_FAILED}
+         */
+        public int getAttempts() {
+            return mmType == TYPE_SMS_SUBMITTED ? mmInt >>> 24 : mmInt;
+        }
+
+        /**
+         * @return {@link long} time since the alert was received for {@link #TYPE_SMS_SENT}, or since the message
+         * was sent for {@link #TYPE_SMS_DELIVERED}, in milliseconds
+         */
+        public long getLatencyMs() {
+            return mmLong1;
+        }
+
+        /**
+         * @return {@link double} latitude for {@link #TYPE_LOCATION_FIX}
+         */
+        public double getLatitude() {
+            return (int) (mmLong0 >> 32) / MICRODEGREES;
+        }
+
+        /**
+         * @return {@link double} longitude for {@link #TYPE_LOCATION_FIX}
+         */
+        public double getLongitude() {
+            return (int) mmLong0 / MICRODEGREES;
+        }
+
+        /**
+         * @return {@link int} accuracy in meters for {@link #TYPE_LOCATION_FIX}, negative if unknown
+         */
+        public int getAccuracy() {
+            return mmInt;
+        }
+
+        /**
+         * @return {@link long} time of the fix for {@link #TYPE_LOCATION_FIX}, in milliseconds since epoch
+         */
+        public long getFixTime() {
+            return mmLong1;
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public String toString() {
+            return "Record{type=" + mmType + ", time=" + mmTime + ", alertId=" + mmAlertId + ", int=" + mmInt
+                    + ", long0=" + mmLong0 + ", long1=" + mmLong1 + "}";
+        }
+    }
+
+    /**
+     * The records within a time range, at the time it was queried
+     */
+    public static class Range {
+
+        // Members
+        private final AlertJournal mmJournal;
+        private final Segment[] mmSegments;
+        private final int[] mmStarts;
+        private final int[] mmEnds;
+        private final int mmCount;
+
+        private Range(AlertJournal journal, Segment[] segments, int[] starts, int[] ends) {
+            mmJournal = journal;
+            mmSegments = segments;
+            mmStarts = starts;
+            mmEnds = ends;
+            int count = 0;
+            for (int i = 0; i < segments.length; i++) {
+                count += ends[i] - starts[i];
+            }
+            mmCount = count;
+        }
+
+        /**
+         * @return {@link int} number of records in the range
+         */
+        public int getCount() {
+            return mmCount;
+        }
+
+        /**
+         * Read a record of the range, the oldest one is at position 0.
+         *
+         * @param position
+         *         {@link int}
+         * @param out
+         *         {@link Record} to read into
+         * @return {@link Record} out
+         */
+        public Record read(int position, Record out) {
+            if (position < 0 || position >= mmCount) {
+                throw new IndexOutOfBoundsException("position " + position + " of " + mmCount);
+            }
+            for (int i = 0; i < mmSegments.length; i++) {
+                int size = mmEnds[i] - mmStarts[i];
+                if (position < size) {
+                    synchronized (mmJournal) {
+                        mmSegments[i].read(mmStarts[i] + position, out);
+                    }
+                    return out;
+                }
+                position -= size;
+            }
+            throw new IllegalStateException();
+        }
+    }
+
+    /**
+     * A memory-mapped segment file
+     */
+    private static class Segment {
+
+        // Members
+        final long index;
+        final File file;
+        final MappedByteBuffer buffer;
+        int count;
+
+        Segment(long index, File file) throws IOException {
+            this.index = index;
+            this.file = file;
+            RandomAccessFile randomAccessFile = new RandomAccessFile(file, "rw");
+            try {
+                randomAccessFile.setLength(SEGMENT_SIZE);
+                // The mapping stays valid once the file is closed
+                buffer = randomAccessFile.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, SEGMENT_SIZE);
+            } finally {
+                randomAccessFile.close();
+            }
+
+            if (buffer.getInt(0) != MAGIC || buffer.getShort(4) != VERSION || buffer.getShort(6) != RECORD_SIZE) {
+                // New or unreadable, start it over
+                for (int i = 0; i < RECORDS_PER_SEGMENT; i++) {
+                    buffer.put(HEADER_SIZE + i * RECORD_SIZE + OFFSET_TYPE, (byte) 0);
+                }
+                buffer.putShort(4, (short) VERSION);
+                buffer.putShort(6, (short) RECORD_SIZE);
+                buffer.putInt(8, RECORDS_PER_SEGMENT);
+                buffer.putInt(0, MAGIC);
+                count = 0;
+            } else {
+                count = findCount();
+            }
+        }
+
+        /**
+         * Records are only ever appended, so the written ones are a prefix of the segment
+         */
+        private int findCount() {
+            int low = 0;
+            int high = RECORDS_PER_SEGMENT;
+            while (low < high) {
+                int mid = (low + high) >>> 1;
+                if (getType(mid) != 0) {
+                    low = mid + 1;
+                } else {
+                    high = mid;
+                }
+            }
+            return low;
+        }
+
+        private int getType(int slot) {
+            return buffer.get(HEADER_SIZE + slot * RECORD_SIZE + OFFSET_TYPE);
+        }
+
+        long getTime(int slot) {
+            return buffer.getLong(HEADER_SIZE + slot * RECORD_SIZE + OFFSET_TIME);
+        }
+
+        boolean isFull() {
+            return count >= RECORDS_PER_SEGMENT;
+        }
+
+        void append(int type, long time, long alertId, int intValue, long long0, long long1) {
+            int offset = HEADER_SIZE + count * RECORD_SIZE;
+            buffer.putInt(offset + OFFSET_INT, intValue);
+            buffer.putLong(offset + OFFSET_TIME, time);
+            buffer.putLong(offset + OFFSET_ALERT_ID, alertId);
+            buffer.putLong(offset + OFFSET_LONG_0, long0);
+            buffer.putLong(offset + OFFSET_LONG_1, long1);
+            buffer.put(offset + OFFSET_TYPE, (byte) type);
+            count++;
+        }
+
+        void read(int slot, Record out) {
+            int offset = HEADER_SIZE + slot * RECORD_SIZE;
+            out.mmType = buffer.get(offset + OFFSET_TYPE);
+            out.mmInt = buffer.getInt(offset + OFFSET_INT);
+            out.mmTime = buffer.getLong(offset + OFFSET_TIME);
+            out.mmAlertId = buffer.getLong(offset + OFFSET_ALERT_ID);
+            out.mmLong0 = buffer.getLong(offset + OFFSET_LONG_0);
+            out.mmLong1 = buffer.getLong(offset + OFFSET_LONG_1);
+        }
+
+        /**
+         * @return {@link int} first slot whose time is at least the given time, {@link #count} if there is none
+         */
+        int lowerBound(long time) {
+            int low = 0;
+            int high = count;
+            while (low < high) {
+                int mid = (low + high) >>> 1;
+                if (getTime(mid) < time) {
+                    low = mid + 1;
+                } else {
+                    high = mid;
+                }
+            }
+            return low;
+        }
+    }
+
+    // Members
+    private final File mDirectory;
+    private final Clock mClock;
+    private final List<Segment> mSegments = new ArrayList<>();
+    private boolean mOpened = false;
+    private long mLastTime = 0;
+
+    /**
+     * Map the segments in the background, so the first record written doesn't have to. Meant to be called as soon as
+     * a component that writes to the journal is created.
+     *
+     * @param context
+     *         {@link Context}
+     */
+    public static void preload(Context context) {
+        final Context appContext = context.getApplicationContext();
+        AsyncTask.THREAD_POOL_EXECUTOR.execute(new Runnable() {
+            @Override
+            public void run() {
+                getInstance(appContext).ensureOpen();
+            }
+        });
+    }
+
+    /**
+     * Get the journal, this doesn't touch the segments until it is used.
+     *
+     * @param context
+     *         {@link Context}
+     * @return {@link AlertJournal}
+     */
+    public static synchronized AlertJournal getInstance(Context context) {
+        if (sInstance == null) {
+            sInstance = new AlertJournal(new File(context.getFilesDir(), DIRECTORY_NAME));
+        }
+        return sInstance;
+    }
+
+    AlertJournal(File directory) {
+        this(directory, SYSTEM_CLOCK);
+    }
+
+    AlertJournal(File directory, Clock clock) {
+        mDirectory = directory;
+        mClock = clock;
+    }
+
+    private synchronized void ensureOpen() {
+        if (mOpened) {
+            return;
+        }
+        mOpened = true;
+
+        if (!mDirectory.isDirectory() && !mDirectory.mkdirs()) {
+            Log.e(TAG, "ERROR: failed to create " + mDirectory);
+            return;
+        }
+
+        File[] files = mDirectory.listFiles();
+        long[] indexes = new long[files != null ? files.length : 0];
+        int found = 0;
+        for (int i = 0; i < indexes.length; i++) {
+            String name = files[i].getName();
+            if (name.endsWith(SEGMENT_SUFFIX)) {
+                try {
+                    indexes[found++] = Long.parseLong(name.substring(0, name.length() - SEGMENT_SUFFIX.length()));
+                } catch (NumberFormatException e) {
+                    Log.e(TAG, "ERROR: unexpected file in the journal: " + name);
+                }
+            }
+        }
+        indexes = Arrays.copyOf(indexes, found);
+        Arrays.sort(indexes);
+
+        for (long index : indexes) {
+            try {
+                mSegments.add(new Segment(index, getSegmentFile(index)));
+            } catch (IOException e) {
+                Log.e(TAG, "ERROR: failed to open journal segment " + index, e);
+            }
+        }
+        if (mSegments.isEmpty()) {
+            rollOver();
+        }
+
+        // Keep the times going forward from where the previous process left off
+        for (Segment segment : mSegments) {
+            if (segment.count > 0) {
+                mLastTime = Math.max(mLastTime, segment.getTime(segment.count - 1));
+            }
+        }
+    }
+
+    private File getSegmentFile(long index) {
+        return new File(mDirectory, String.format(Locale.US, "%08d%s", index, SEGMENT_SUFFIX));
+    }
+
+    /**
+     * Start a new segment, and delete the oldest ones beyond {@link #MAX_SEGMENTS}.
+     */
+    private void rollOver() {
+        long index = mSegments.isEmpty() ? 1 : mSegments.get(mSegments.size() - 1).index + 1;
+        try {
+            mSegments.add(new Segment(index, getSegmentFile(index)));
+        } catch (IOException e) {
+            Log.e(TAG, "ERROR: failed to create journal segment " + index, e);
+            return;
+        }
+
+        while (mSegments.size() > MAX_SEGMENTS) {
+            Segment oldest = mSegments.remove(0);
+            if (!oldest.file.delete()) {
+                Log.e(TAG, "ERROR: failed to delete journal segment " + oldest.index);
+            }
+        }
+    }
+
+    private synchronized void append(int type, long alertId, int intValue, long long0, long long1) {
+        ensureOpen();
+        if (mSegments.isEmpty()) {
+            return;
+        }
+        Segment segment = mSegments.get(mSegments.size() - 1);
+        if (segment.isFull()) {
+            rollOver();
+            segment = mSegments.get(mSegments.size() - 1);
+            if (segment.isFull()) {
+                return;
+            }
+        }
+        // The wall clock may have been set back, but the records have to stay in order
+        mLastTime = Math.max(mLastTime, mClock.currentTimeMillis());
+        segment.append(type, mLastTime, alertId, intValue, long0, long1);
+    }
+
+    /**
+     * Record that an alert was received from the watch.
+     *
+     * @param alertId
+     *         {@link long}
+     * @param triggeredAt
+     *         {@link long} time the alert was triggered on the watch, 0 if unknown
+     * @param battery
+     *         {@link int} battery level of the watch, negative if unknown
+     */
+    public void recordAlertReceived(long alertId, long triggeredAt, int battery) {
+        append(TYPE_ALERT_RECEIVED, alertId, battery, triggeredAt, 0);
+    }
+
+    /**
+     * Record that every step of handling an alert is done.
+     *
+     * @param alertId
+     *         {@link long}
+     * @param handlingTimeUs
+     *         {@link long} time it took, in microseconds
+     * @param messages
+     *         {@link int} number of messages sent to each recipient
+     */
+    public void recordAlertHandled(long alertId, long handlingTimeUs, int messages) {
+        append(TYPE_ALERT_HANDLED, alertId, messages, handlingTimeUs, 0);
+    }
+
+    /**
+     * Record that a message was handed to the carrier. Only the last digits of the phone number are stored.
+     *
+     * @param alertId
+     *         {@link long}
+     * @param entryId
+     *         {@link long} ID of the outbox entry
+     * @param number
+     *         {@link String} phone number
+     * @param parts
+     *         {@link int} number of parts of the message
+     * @param attempt
+     *         {@link int} attempt number, starting at 1
+     */
+    public void recordSmsSubmitted(long alertId, long entryId, String number, int parts, int attempt) {
+        int digits = 0;
+        long value = 0;
+        for (int i = number.length() - 1; i >= 0 && digits < KEPT_NUMBER_DIGITS; i--) {
+            char c = number.charAt(i);
+            if (c >= '0' && c <= '9') {
+                value += (c - '0') * pow10(digits++);
+            }
+        }
+        append(TYPE_SMS_SUBMITTED, alertId, digits | Math.min(parts, 0xff) << 16 | Math.min(attempt, 0xff) << 24,
+                entryId, value);
+    }
+
+    /**
+     * Record that every part of a message was accepted by the carrier.
+     *
+     * @param alertId
+     *         {@link long}
+     * @param entryId
+     *         {@link long} ID of the outbox entry
+     * @param parts
+     *         {@link int} number of parts of the message
+     * @param latencyMs
+     *         {@link long} time since the alert was received
+     */
+    public void recordSmsSent(long alertId, long entryId, int parts, long latencyMs) {
+        append(TYPE_SMS_SENT, alertId, parts, entryId, latencyMs);
+    }
+
+    /**
+     * Record that every part of a message was delivered.
+     *
+     * @param alertId
+     *         {@link long}
+     * @param entryId
+     *         {@link long} ID of the outbox entry
+     * @param latencyMs
+     *         {@link long} time since the message was sent
+     */
+    public void recordSmsDelivered(long alertId, long entryId, long latencyMs) {
+        append(TYPE_SMS_DELIVERED, alertId, 0, entryId, latencyMs);
+    }
+
+    /**
+     * Record that a message was given up on.
+     *
+     * @param alertId
+     *         {@link long}
+     * @param entryId
+     *         {@link long} ID of the outbox entry
+     * @param attempts
+     *         {@link int} number of attempts that were made
+     */
+    public void recordSmsFailed(long alertId, long entryId, int attempts) {
+        append(TYPE_SMS_FAILED, alertId, attempts, entryId, 0);
+    }
+
+    /**
+     * Record a location fix that was sent.
+     *
+     * @param alertId
+     *         {@link long}
+     * @param latitude
+     *         {@link double}
+     * @param longitude
+     *         {@link double}
+     * @param accuracy
+     *         {@link float} in meters, {@link Float#NaN} if unknown
+     * @param fixTime
+     *         {@link long} time of the fix, in milliseconds since epoch
+     */
+    public void recordLocationFix(long alertId, double latitude, double longitude, float accuracy, long fixTime) {
+        long position = (long) (int) Math.round(latitude * MICRODEGREES) << 32
+                | ((int) Math.round(longitude * MICRODEGREES) & 0xffffffffL);
+        append(TYPE_LOCATION_FIX, alertId, Float.isNaN(accuracy) ? -1 : Math.round(accuracy), position, fixTime);
+    }
+
+    /**
+     * Get the records within a time range. Nothing is read until a record of the {@link Range} is, but the segments
+     * are mapped if they weren't yet, so this belongs on a background thread.
+     *
+     * @param from
+     *         {@link long} inclusive, in milliseconds since epoch
+     * @param to
+     *         {@link long} exclusive, in milliseconds since epoch
+     * @return {@link Range}
+     */
+    public synchronized Range query(long from, long to) {
+        ensureOpen();
+        List<Segment> segments = new ArrayList<>();
+        List<int[]> bounds = new ArrayList<>();
+        for (Segment segment : mSegments) {
+            if (segment.count == 0 || segment.getTime(segment.count - 1) < from || segment.getTime(0) >= to) {
+                continue;
+            }
+            int start = segment.lowerBound(from);
+            int end = segment.lowerBound(to);
+            if (start < end) {
+                segments.add(segment);
+                bounds.add(new int[]{start, end});
+            }
+        }
+
+        int[] starts = new int[segments.size()];
+        int[] ends = new int[segments.size()];
+        for (int i = 0; i < starts.length; i++) {
+            starts[i] = bounds.get(i)[0];
+            ends[i] = bounds.get(i)[1];
+        }
+        return new Range(this, segments.toArray(new Segment[segments.size()]), starts, ends);
+    }
+
+    private static long pow10(int exponent) {
+        long value = 1;
+        for (int i = 0; i < exponent; i++) {
+            value *= 10;
+        }
+        return value;
+    }
+
+    static String decodeNumber(long value, int digits) {
+        char[] chars = new char[digits];
+        for (int i = digits - 1; i >= 0; i--) {
+            chars[i] = (char) ('0' + value % 10);
+            value /= 10;
+        }
+        return new String(chars);
+    }
+
+}
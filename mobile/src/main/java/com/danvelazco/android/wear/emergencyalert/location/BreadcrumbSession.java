@@ -0,0 +1,287 @@
+/*
+ * Copyright (C) 2014 Daniel Velazco
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.danvelazco.android.wear.emergencyalert.location;
+
+import android.location.Location;
+import android.location.LocationListener;
+import android.location.LocationManager;
+import android.os.Bundle;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+import android.util.Log;
+
+import java.util.List;
+
+/**
+ * Keeps following the phone's location for a bounded session after the alert, reporting a new breadcrumb only once the
+ * phone moved at least the minimum distance and the minimum time passed since the last one. The distance also has to
+ * be larger than the accuracy of both fixes, so a coarse fix drifting around a phone that sits still (or a network fix
+ * compared with a GPS one) isn't taken for movement. While the phone stays still the sampling interval is doubled (up
+ * to a maximum) so we don't keep the location providers busy, and it goes back to the minimum as soon as it moves
+ * again. The updates are requested without a minimum distance, otherwise the providers would drop the fixes that tell
+ * us the phone is still. The session ends on its own after a time or breadcrumb budget.
+ *
+ * @since 10/18/26
+ */
+public class BreadcrumbSession implements LocationListener {
+
+    // Constants
+    private static final String TAG = "BreadcrumbSession";
+    public static final long DEFAULT_MIN_INTERVAL_MS = 120000; // 2 minutes
+    public static final long DEFAULT_MAX_INTERVAL_MS = 600000; // 10 minutes
+    public static final float DEFAULT_MIN_DISTANCE_M = 100f;
+    public static final long DEFAULT_MAX_DURATION_MS = 1800000; // 30 minutes
+    public static final int DEFAULT_MAX_BREADCRUMBS = 10;
+
+    /**
+     * Callback for the session, called on the {@link Looper} the session was started on
+     */
+    public interface Callback {
+
+        /**
+         * @param location
+         *         new {@link Location} to report
+         */
+        void onBreadcrumb(Location location);
+
+        void onBreadcrumbSessionFinished();
+    }
+
+    // Members
+    private final LocationManager mLocationManager;
+    private final Callback mCallback;
+    private final long mMinIntervalMs;
+    private final long mMaxIntervalMs;
+    private final float mMinDistanceM;
+    private final long mMaxDurationMs;
+    private final int mMaxBreadcrumbs;
+    private Handler mHandler = null;
+    private Looper mLooper = null;
+    private Location mLastReported = null;
+    private long mLastReportedAt = 0;
+    private long mIntervalMs;
+    private int mBreadcrumbCount = 0;
+    private boolean mRunning = false;
+
+    private final Runnable mTimeoutRunnable = new Runnable() {
+        @Override
+        public void run() {
+            Log.d(TAG, "Session time budget used up");
+            finish();
+        }
+    };
+
+    /**
+     * Constructor with the default thresholds and budgets.
+     *
+     * @param locationManager
+     *         {@link LocationManager}
+     * @param callback
+     *         {@link Callback}
+     */
+    public BreadcrumbSession(LocationManager locationManager, Callback callback) {
+        this(locationManager, callback, DEFAULT_MIN_INTERVAL_MS, DEFAULT_MAX_INTERVAL_MS, DEFAULT_MIN_DISTANCE_M,
+                DEFAULT_MAX_DURATION_MS, DEFAULT_MAX_BREADCRUMBS);
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param locationManager
+     *         {@link LocationManager}
+     * @param callback
+     *         {@link Callback}
+     * @param minIntervalMs
+     *         {@link long} minimum time between breadcrumbs
+     * @param maxIntervalMs
+     *         {@link long} maximum sampling interval while the phone isn't moving
+     * @param minDistanceM
+     *         {@link float} minimum distance from the last breadcrumb
+     * @param maxDurationMs
+     *         {@link long} how long the session lasts
+     * @param maxBreadcrumbs
+     *         {@link int} maximum number of breadcrumbs to report
+     */
+    public BreadcrumbSession(LocationManager locationManager, Callback callback, long minIntervalMs,
+            long maxIntervalMs, float minDistanceM, long maxDurationMs, int maxBreadcrumbs) {
+        mLocationManager = locationManager;
+        mCallback = callback;
+        mMinIntervalMs = minIntervalMs;
+        mMaxIntervalMs = maxIntervalMs;
+        mMinDistanceM = minDistanceM;
+        mMaxDurationMs = maxDurationMs;
+        mMaxBreadcrumbs = maxBreadcrumbs;
+        mIntervalMs = minIntervalMs;
+    }
+
+    /**
+     * Start following the location.
+     *
+     * @param looper
+     *         {@link Looper} to receive the updates and the callbacks on
+     * @param lastReported
+     *         last {@link Location} that was already reported, can be null
+     * @return false if there are no enabled providers
+     */
+    public boolean start(Looper looper, Location lastReported) {
+        mLooper = looper;
+        mHandler = new Handler(looper);
+        mLastReported = lastReported;
+        mLastReportedAt = SystemClock.elapsedRealtime();
+        mRunning = requestUpdates();
+        if (mRunning) {
+            mHandler.postDelayed(mTimeoutRunnable, mMaxDurationMs);
+        }
+        return mRunning;
+    }
+
+    /**
+     * Stop the session without calling the {@link Callback}.
+     */
+    public void cancel() {
+        mRunning = false;
+        if (mHandler != null) {
+            mHandler.removeCallbacks(mTimeoutRunnable);
+        }
+        removeUpdates();
+    }
+
+    /**
+     * @return {@link int} number of breadcrumbs reported so far
+     */
+    public int getBreadcrumbCount() {
+        return mBreadcrumbCount;
+    }
+
+    /**
+     * @return {@link long} current sampling interval in milliseconds
+     */
+    long getIntervalMs() {
+        return mIntervalMs;
+    }
+
+    /**
+     * (Re-)request updates from every enabled provider at the current sampling interval.
+     *
+     * @return false if there are no enabled providers
+     */
+    boolean requestUpdates() {
+        removeUpdates();
+        List<String> providers = mLocationManager.getProviders(true);
+        providers.remove(LocationManager.PASSIVE_PROVIDER);
+        for (String provider : providers) {
+            // The distance is checked in onLocationChanged(), so every fix reaches us
+            mLocationManager.requestLocationUpdates(provider, mIntervalMs, 0, this, mLooper);
+        }
+        return !providers.isEmpty();
+    }
+
+    void removeUpdates() {
+        mLocationManager.removeUpdates(this);
+    }
+
+    private void finish() {
+        if (mRunning) {
+            cancel();
+            mCallback.onBreadcrumbSessionFinished();
+        }
+    }
+
+    /**
+     * Change the sampling interval, only re-requesting updates when it actually changes.
+     */
+    private void setInterval(long intervalMs) {
+        if (intervalMs != mIntervalMs) {
+            Log.d(TAG, "Sampling interval " + mIntervalMs + "ms -> " + intervalMs + "ms");
+            mIntervalMs = intervalMs;
+            requestUpdates();
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void onLocationChanged(Location location) {
+        if (!mRunning || location == null) {
+            return;
+        }
+
+        boolean moved = mLastReported == null || location.distanceTo(mLastReported) >= getMinDistanceM(location);
+        if (!moved) {
+            // Stationary, sample less often until the phone moves again
+            setInterval(Math.min(mIntervalMs * 2, mMaxIntervalMs));
+            return;
+        }
+        setInterval(mMinIntervalMs);
+
+        if (SystemClock.elapsedRealtime() - mLastReportedAt < mMinIntervalMs) {
+            return;
+        }
+
+        mLastReported = location;
+        mLastReportedAt = SystemClock.elapsedRealtime();
+        mBreadcrumbCount++;
+        mCallback.onBreadcrumb(location);
+
+        if (mBreadcrumbCount >= mMaxBreadcrumbs) {
+            Log.d(TAG, "Session breadcrumb budget used up");
+            finish();
+        }
+    }
+
+    /**
+     * @return {@link float} distance from the last breadcrumb the fix has to be at to count as a move, that is the
+     * minimum distance unless either fix is less accurate than that
+     */
+    private float getMinDistanceM(Location location) {
+        float minDistanceM = mMinDistanceM;
+        if (location.hasAccuracy()) {
+            minDistanceM = Math.max(minDistanceM, location.getAccuracy());
+        }
+        if (mLastReported.hasAccuracy()) {
+            minDistanceM = Math.max(minDistanceM, mLastReported.getAccuracy());
+        }
+        return minDistanceM;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void onStatusChanged(String provider, int status, Bundle extras) {
+        // No implementation
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void onProviderEnabled(String provider) {
+        // No implementation
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void onProviderDisabled(String provider) {
+        // No implementation
+    }
+
+}
@@ -0,0 +1,216 @@
+/*
+ * Copyright (C) 2014 Daniel Velazco
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.danvelazco.android.wear.emergencyalert.location;
+
+import android.app.PendingIntent;
+import android.content.Context;
+import android.content.Intent;
+import android.location.Location;
+import android.location.LocationManager;
+import android.os.AsyncTask;
+import android.os.SystemClock;
+import android.util.Log;
+import com.danvelazco.android.wear.emergencyalert.util.AlertConfig;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Warm cache of the best recent {@link Location} of every provider. It is fed by the {@link
+ * LocationManager#PASSIVE_PROVIDER} through the {@link PassiveLocationReceiver}, so it picks up any fix the system or
+ * other apps get without turning on a provider ourselves, and reading it on the alert path needs no system call.
+ * <p/>
+ * The passive updates are delivered to a receiver, so they outlive the process and wake it up for every fix any app
+ * on the phone gets. That is only worth it while the location is sent with the alerts, so they are only requested
+ * while that option is enabled, and removed as soon as it's turned off.
+ *
+ * @since 10/18/26
+ */
+public class LocationCache {
+
+    // Constants
+    private static final String TAG = "LocationCache";
+    public static final long MAX_AGE_MS = 30 * 60 * 1000; // 30 minutes
+
+    private static final LocationCache sInstance = new LocationCache();
+
+    // Members
+    private final Map<String, Location> mLatestByProvider = new HashMap<>();
+    private volatile Location mBestLocation = null;
+    private boolean mListening = false;
+
+    /**
+     * @return {@link LocationCache}
+     */
+    public static LocationCache getInstance() {
+        return sInstance;
+    }
+
+    private LocationCache() {
+    }
+
+    /**
+     * Start or stop listening to the passive provider in the background, following the option to send the location.
+     * Only the first start in the process seeds the cache, so this is cheap to call from every entry point.
+     *
+     * @param context
+     *         {@link Context}
+     */
+    public void start(Context context) {
+        final Context appContext = context.getApplicationContext();
+        AsyncTask.SERIAL_EXECUTOR.execute(new Runnable() {
+            @Override
+            public void run() {
+                setListening(appContext, AlertConfig.get(appContext).sendLocation);
+            }
+        });
+    }
+
+    /**
+     * Start or stop listening to the passive provider in the background, when the option to send the location is
+     * changed.
+     *
+     * @param context
+     *         {@link Context}
+     * @param enabled
+     *         {@link boolean} new value of the option
+     */
+    public void setEnabled(Context context, final boolean enabled) {
+        final Context appContext = context.getApplicationContext();
+        AsyncTask.SERIAL_EXECUTOR.execute(new Runnable() {
+            @Override
+            public void run() {
+                setListening(appContext, enabled);
+            }
+        });
+    }
+
+    /**
+     * Seed the cache with the last known location of every provider and request the passive updates, or remove them.
+     */
+    private synchronized void setListening(Context context, boolean listening) {
+        LocationManager locationManager = (LocationManager) context.getSystemService(Context.LOCATION_SERVICE);
+        Intent intent = new Intent(context, PassiveLocationReceiver.class);
+        if (!listening) {
+            // The updates may have been requested by a previous process, so look for them even if we didn't
+            mListening = false;
+            PendingIntent pendingIntent = PendingIntent.getBroadcast(context, 0, intent,
+                    PendingIntent.FLAG_NO_CREATE);
+            if (pendingIntent != null) {
+                Log.d(TAG, "Removing the passive location updates");
+                locationManager.removeUpdates(pendingIntent);
+                pendingIntent.cancel();
+            }
+            return;
+        }
+        if (mListening) {
+            return;
+        }
+        mListening = true;
+
+        for (String provider : locationManager.getProviders(true)) {
+            update(locationManager.getLastKnownLocation(provider));
+        }
+
+        // Delivered to a receiver, so the cache keeps getting fixes after the process is restarted
+        PendingIntent pendingIntent = PendingIntent.getBroadcast(context, 0, intent,
+                PendingIntent.FLAG_UPDATE_CURRENT);
+        try {
+            locationManager.requestLocationUpdates(LocationManager.PASSIVE_PROVIDER, 0, 0, pendingIntent);
+        } catch (IllegalArgumentException e) {
+            Log.e(TAG, "ERROR: passive provider not available", e);
+        }
+    }
+
+    /**
+     * Add a location fix. It is kept as the latest fix of its provider if it's newer, and as the best fix if it's
+     * better than the one we have.
+     *
+     * @param location
+     *         {@link Location}, ignored if null
+     */
+    public synchronized void update(Location location) {
+        if (location == null || location.getProvider() == null) {
+            return;
+        }
+
+        Location latest = mLatestByProvider.get(location.getProvider());
+        if (latest == null || location.getElapsedRealtimeNanos() >= latest.getElapsedRealtimeNanos()) {
+            mLatestByProvider.put(location.getProvider(), location);
+        }
+        if (mBestLocation == null || isBetter(location, mBestLocation)) {
+            mBestLocation = location;
+        }
+    }
+
+    /**
+     * Get the best cached location, this never makes a system call. A fix that never beat the best one can still be
+     * recent enough once the best one is too old, so in that case the best of the latest fixes of every provider is
+     * used instead.
+     *
+     * @return {@link Location}, null if there is none younger than {@link #MAX_AGE_MS}
+     */
+    public Location getBestLocation() {
+        Location location = mBestLocation;
+        if (location != null && getAgeMs(location) <= MAX_AGE_MS) {
+            return location;
+        }
+        return getBestRecentLocation();
+    }
+
+    /**
+     * Look for the best of the latest fixes that are younger than {@link #MAX_AGE_MS}, and keep it as the best one.
+     */
+    private synchronized Location getBestRecentLocation() {
+        Location best = null;
+        for (Location location : mLatestByProvider.values()) {
+            if (getAgeMs(location) <= MAX_AGE_MS && (best == null || isBetter(location, best))) {
+                best = location;
+            }
+        }
+        if (best != null) {
+            // Every fix that comes in from now on is newer, so comparing against this one is enough again
+            mBestLocation = best;
+        }
+        return best;
+    }
+
+    /**
+     * Get the latest cached location of a provider.
+     *
+     * @param provider
+     *         {@link String}
+     * @return {@link Location}, can be null
+     */
+    public synchronized Location getLatestLocation(String provider) {
+        return mLatestByProvider.get(provider);
+    }
+
+    /**
+     * Check if a location is better than another one, using the same score as {@link LocationRace#score(Location)}.
+     * Since the age penalty grows at the same rate for every fix, the order of two fixes never changes over time, so
+     * the best one can be kept on every update instead of being looked for on every read.
+     */
+    private static boolean isBetter(Location location, Location other) {
+        return LocationRace.score(location) < LocationRace.score(other);
+    }
+
+    private static long getAgeMs(Location location) {
+        return (SystemClock.elapsedRealtimeNanos() - location.getElapsedRealtimeNanos()) / 1000000;
+    }
+
+}
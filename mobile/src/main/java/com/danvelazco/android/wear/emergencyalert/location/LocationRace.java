@@ -0,0 +1,208 @@
+/*
+ * Copyright (C) 2014 Daniel Velazco
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.danvelazco.android.wear.emergencyalert.location;
+
+import android.location.Location;
+import android.location.LocationListener;
+import android.location.LocationManager;
+import android.os.Bundle;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+import android.util.Log;
+
+import java.util.List;
+
+/**
+ * Asks every enabled {@link LocationManager} provider for a location at the same time and keeps the best fix any of
+ * them reported, scored by accuracy and age. The race finishes as soon as a fix meets the accuracy target, or when the
+ * deadline expires, whichever comes first, and the best fix seen is passed to the {@link Callback}.
+ *
+ * @since 10/18/26
+ */
+public class LocationRace implements LocationListener {
+
+    // Constants
+    private static final String TAG = "LocationRace";
+    private static final float UNKNOWN_ACCURACY_M = 1000f;
+    private static final float AGE_PENALTY_M_PER_S = 1f;
+
+    /**
+     * Callback for the result of the race, called on the {@link Looper} the race was started on
+     */
+    public interface Callback {
+
+        /**
+         * @param location
+         *         the best {@link Location} found, null if no provider reported a fix before the deadline
+         */
+        void onLocationRaceFinished(Location location);
+    }
+
+    // Members
+    private final LocationManager mLocationManager;
+    private final float mAccuracyTargetM;
+    private final long mDeadlineMs;
+    private final Callback mCallback;
+    private Handler mHandler = null;
+    private Location mBestLocation = null;
+    private boolean mRunning = false;
+
+    private final Runnable mDeadlineRunnable = new Runnable() {
+        @Override
+        public void run() {
+            Log.d(TAG, "Deadline expired, best location: " + mBestLocation);
+            finish();
+        }
+    };
+
+    /**
+     * Constructor.
+     *
+     * @param locationManager
+     *         {@link LocationManager}
+     * @param accuracyTargetM
+     *         {@link float} accuracy in meters that is good enough to finish right away
+     * @param deadlineMs
+     *         {@link long} how long to wait for a fix that meets the accuracy target
+     * @param callback
+     *         {@link Callback}
+     */
+    public LocationRace(LocationManager locationManager, float accuracyTargetM, long deadlineMs,
+            Callback callback) {
+        mLocationManager = locationManager;
+        mAccuracyTargetM = accuracyTargetM;
+        mDeadlineMs = deadlineMs;
+        mCallback = callback;
+    }
+
+    /**
+     * Request location updates from every enabled provider.
+     *
+     * @param looper
+     *         {@link Looper} to receive the updates and the result on
+     * @return false if there are no enabled providers
+     */
+    public boolean start(Looper looper) {
+        List<String> providers = mLocationManager.getProviders(true);
+        providers.remove(LocationManager.PASSIVE_PROVIDER);
+        if (providers.isEmpty()) {
+            return false;
+        }
+
+        mRunning = true;
+        mHandler = new Handler(looper);
+        mHandler.postDelayed(mDeadlineRunnable, mDeadlineMs);
+        for (String provider : providers) {
+            Log.d(TAG, "Requesting location updates from " + provider);
+            mLocationManager.requestLocationUpdates(provider, 0, 0, this, looper);
+        }
+        return true;
+    }
+
+    /**
+     * Stop the race without calling the {@link Callback}.
+     */
+    public void cancel() {
+        mRunning = false;
+        if (mHandler != null) {
+            mHandler.removeCallbacks(mDeadlineRunnable);
+        }
+        mLocationManager.removeUpdates(this);
+    }
+
+    /**
+     * @return true if the race was started and hasn't finished yet
+     */
+    public boolean isRunning() {
+        return mRunning;
+    }
+
+    /**
+     * @return the best {@link Location} reported so far, can be null
+     */
+    public Location getBestLocation() {
+        return mBestLocation;
+    }
+
+    /**
+     * Finish the race right away, passing the best fix seen so far (if any) to the {@link Callback}.
+     */
+    public void finish() {
+        if (mRunning) {
+            cancel();
+            mCallback.onLocationRaceFinished(mBestLocation);
+        }
+    }
+
+    /**
+     * Score a location fix, the lower the better. The score is the accuracy radius in meters, plus a penalty for every
+     * second since the fix was taken.
+     *
+     * @param location
+     *         {@link Location}
+     * @return {@link float}
+     */
+    public static float score(Location location) {
+        float accuracy = location.hasAccuracy() ? location.getAccuracy() : UNKNOWN_ACCURACY_M;
+        long ageMs = (SystemClock.elapsedRealtimeNanos() - location.getElapsedRealtimeNanos()) / 1000000;
+        return accuracy + Math.max(0, ageMs) / 1000f * AGE_PENALTY_M_PER_S;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void onLocationChanged(Location location) {
+        if (!mRunning || location == null) {
+            return;
+        }
+
+        if (mBestLocation == null || score(location) < score(mBestLocation)) {
+            mBestLocation = location;
+        }
+        if (location.hasAccuracy() && location.getAccuracy() <= mAccuracyTargetM) {
+            Log.d(TAG, "Accuracy target met by " + location.getProvider());
+            finish();
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void onStatusChanged(String provider, int status, Bundle extras) {
+        // No implementation
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void onProviderEnabled(String provider) {
+        // No implementation
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void onProviderDisabled(String provider) {
+        // No implementation
+    }
+
+}
@@ -0,0 +1,184 @@
+/*
+ * Copyright (C) 2014 Daniel Velazco
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.danvelazco.android.wear.emergencyalert.location;
+
+import com.danvelazco.android.wear.emergencyalert.util.SMSUtil;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+/**
+ * Table of the recipients waiting for a location, so a single location fetch can serve every request that comes in
+ * while it's in flight. Requests are keyed by recipient, and each one remembers the start IDs of the service commands
+ * that asked for it, so the same recipient asked for twice still gets a single message.
+ * <p/>
+ * A command stays open until every request it is part of is {@linkplain #finish(Request) finished}, even after the
+ * request was drained from the table. The service may only stop once no command is open, with the start ID from
+ * {@link #getLastFinishedStartId()}.
+ *
+ * @since 10/18/26
+ */
+public class LocationRequestTable {
+
+    /**
+     * A recipient waiting for a location
+     */
+    public static class Request {
+
+        public final String number;
+        public final TreeSet<Integer> startIds = new TreeSet<>();
+        public long alertId;
+        public long receivedAt;
+        public boolean sendBreadcrumbs;
+
+        private Request(String number) {
+            this.number = number;
+        }
+
+        @Override
+        public String toString() {
+            return "Request{number=" + SMSUtil.redactNumber(number) + ", startIds=" + startIds + ", alertId=" + alertId
+                    + ", sendBreadcrumbs=" + sendBreadcrumbs + "}";
+        }
+    }
+
+    // Members
+    private final Map<String, Request> mRequests = new LinkedHashMap<>();
+    private final TreeMap<Integer, Integer> mOpenRequestsPerStartId = new TreeMap<>();
+    private int mLastFinishedStartId = 0;
+
+    /**
+     * Add the recipients of a service command to the table.
+     *
+     * @param startId
+     *         {@link int} start ID of the service command
+     * @param recipients
+     *         {@link Collection} of phone numbers
+     * @param alertId
+     *         {@link long} ID of the alert
+     * @param receivedAt
+     *         {@link long} time the alert was received, in milliseconds since epoch
+     * @param sendBreadcrumbs
+     *         {@link boolean} true if the recipients also want breadcrumbs
+     */
+    public void add(int startId, Collection<String> recipients, long alertId, long receivedAt,
+            boolean sendBreadcrumbs) {
+        if (recipients.isEmpty()) {
+            // Nothing to wait for, the command is done already
+            mLastFinishedStartId = Math.max(mLastFinishedStartId, startId);
+            return;
+        }
+
+        for (String number : recipients) {
+            Request request = mRequests.get(number);
+            if (request == null) {
+                request = new Request(number);
+                mRequests.put(number, request);
+            }
+            // The latest alert for a recipient wins, it will get a single message either way
+            if (request.startIds.add(startId)) {
+                Integer open = mOpenRequestsPerStartId.get(startId);
+                mOpenRequestsPerStartId.put(startId, open != null ? open + 1 : 1);
+            }
+            request.alertId = alertId;
+            request.receivedAt = receivedAt;
+            request.sendBreadcrumbs |= sendBreadcrumbs;
+        }
+    }
+
+    /**
+     * Remove and return every request in the table.
+     *
+     * @return {@link List} of {@linkplain Request requests}, in the order they were added
+     */
+    public List<Request> drain() {
+        List<Request> requests = new ArrayList<>(mRequests.values());
+        mRequests.clear();
+        return requests;
+    }
+
+    /**
+     * Mark a request as done, once every message it needs was sent. The commands it was the last open request of are
+     * finished along with it.
+     *
+     * @param request
+     *         {@link Request}, drained from this table
+     */
+    public void finish(Request request) {
+        for (int startId : request.startIds) {
+            Integer open = mOpenRequestsPerStartId.get(startId);
+            if (open == null) {
+                continue;
+            }
+            if (open > 1) {
+                mOpenRequestsPerStartId.put(startId, open - 1);
+            } else {
+                mOpenRequestsPerStartId.remove(startId);
+                mLastFinishedStartId = Math.max(mLastFinishedStartId, startId);
+            }
+        }
+    }
+
+    /**
+     * @return true if any command still has a request that isn't finished
+     */
+    public boolean hasOpenCommands() {
+        return !mOpenRequestsPerStartId.isEmpty();
+    }
+
+    /**
+     * @return {@link Set} of the start IDs of the commands that aren't finished, in order
+     */
+    public Set<Integer> getOpenStartIds() {
+        return mOpenRequestsPerStartId.keySet();
+    }
+
+    /**
+     * @return {@link int} highest start ID of the finished commands, 0 if none finished yet
+     */
+    public int getLastFinishedStartId() {
+        return mLastFinishedStartId;
+    }
+
+    /**
+     * @return {@link Collection} of the pending {@linkplain Request requests}
+     */
+    public Collection<Request> getRequests() {
+        return mRequests.values();
+    }
+
+    /**
+     * @return true if no recipient is waiting for a location
+     */
+    public boolean isEmpty() {
+        return mRequests.isEmpty();
+    }
+
+    /**
+     * @return {@link int} number of recipients waiting for a location
+     */
+    public int size() {
+        return mRequests.size();
+    }
+
+}
@@ -0,0 +1,85 @@
+/*
+ * Copyright (C) 2014 Daniel Velazco
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.danvelazco.android.wear.emergencyalert.service;
+
+import android.content.Context;
+import android.os.SystemClock;
+import android.util.Log;
+import com.danvelazco.android.wear.emergencyalert.data.AlertAck;
+import com.danvelazco.android.wear.emergencyalert.data.AlertData;
+import com.google.android.gms.common.api.GoogleApiClient;
+import com.google.android.gms.wearable.MessageApi;
+import com.google.android.gms.wearable.Wearable;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Sends the {@link AlertAck} of an alert back to the watch it came from, so the watch can show what actually happened
+ * to the SMS instead of only knowing the message reached the phone.
+ *
+ * @since 10/18/26
+ */
+class AlertAcknowledger {
+
+    // Constants
+    private static final String TAG = "AlertAcknowledger";
+    private static final long CONNECT_TIMEOUT_MS = 5000;
+    private static final long SEND_TIMEOUT_MS = 5000;
+
+    // Members
+    private final GoogleApiClient mGoogleApiClient;
+
+    /**
+     * Constructor.
+     *
+     * @param context
+     *         {@link Context}
+     */
+    AlertAcknowledger(Context context) {
+        mGoogleApiClient = new GoogleApiClient.Builder(context)
+                .addApi(Wearable.API)
+                .build();
+    }
+
+    /**
+     * Send an acknowledgement, connecting first if needed. Blocks, so it must be called on a background thread.
+     *
+     * @param nodeId
+     *         {@link String} node the alert came from
+     * @param ack
+     *         {@link byte[]} encoded {@link AlertAck}
+     * @return true if the watch got the acknowledgement
+     */
+    synchronized boolean send(String nodeId, byte[] ack) {
+        if (!mGoogleApiClient.isConnected()
+                && !mGoogleApiClient.blockingConnect(CONNECT_TIMEOUT_MS, TimeUnit.MILLISECONDS).isSuccess()) {
+            Log.e(TAG, "ERROR: failed to connect, not sending the acknowledgement");
+            return false;
+        }
+
+        long start = SystemClock.elapsedRealtime();
+        MessageApi.SendMessageResult result = Wearable.MessageApi.sendMessage(mGoogleApiClient, nodeId,
+                AlertData.ACK_PATH, ack).await(SEND_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+        if (!result.getStatus().isSuccess()) {
+            Log.e(TAG, "ERROR: failed to send the acknowledgement to " + nodeId + ": " + result.getStatus());
+            return false;
+        }
+        Log.d(TAG, "Acknowledgement sent to " + nodeId + " in " + (SystemClock.elapsedRealtime() - start) + "ms");
+        return true;
+    }
+
+}
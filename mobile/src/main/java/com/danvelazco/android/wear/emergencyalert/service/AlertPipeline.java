@@ -0,0 +1,691 @@
+/*
+ * Copyright (C) 2014 Daniel Velazco
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.danvelazco.android.wear.emergencyalert.service;
+
+import android.app.Notification;
+import android.app.NotificationManager;
+import android.app.PendingIntent;
+import android.content.Context;
+import android.content.Intent;
+import android.location.Location;
+import android.os.SystemClock;
+import android.support.v4.app.NotificationCompat;
+import android.text.TextUtils;
+import android.util.Log;
+import com.danvelazco.android.wear.emergencyalert.AlertPreferencesActivity;
+import com.danvelazco.android.wear.emergencyalert.R;
+import com.danvelazco.android.wear.emergencyalert.data.AlertAck;
+import com.danvelazco.android.wear.emergencyalert.history.AlertJournal;
+import com.danvelazco.android.wear.emergencyalert.location.LocationCache;
+import com.danvelazco.android.wear.emergencyalert.sms.MessageComposer;
+import com.danvelazco.android.wear.emergencyalert.sms.MessageTemplate;
+import com.danvelazco.android.wear.emergencyalert.sms.SmsDispatcher;
+import com.danvelazco.android.wear.emergencyalert.sms.SmsOutbox;
+import com.danvelazco.android.wear.emergencyalert.util.AlertConfig;
+import com.danvelazco.android.wear.emergencyalert.util.SMSUtil;
+import com.danvelazco.android.wear.emergencyalert.util.SeenAlertCache;
+
+import java.io.PrintWriter;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Handles the alerts received from the watch off the main thread, as a sequence of {@linkplain Stage stages}. The
+ * alerts go through the sequential stages one at a time on a single coordinator thread, so duplicates are always
+ * dropped in order. Once the configuration is resolved, the {@link Notification} and the SMS don't depend on each
+ * other, so they run concurrently on a small pool while the coordinator starts the {@link
+ * FineLocationSMSIntentService}. The SMS stage looks up the last known location and composes it into the alert message
+ * when it fits, see {@link MessageComposer}. The time spent in every stage is recorded in the {@link AlertRun}, and
+ * every alert that isn't a duplicate is recorded in the {@link AlertJournal}. The coordinator never waits for the
+ * concurrent stages, whichever stage finishes last reports the run.
+ * <p/>
+ * Once the carrier accepted the alert message for every recipient (or the {@link SmsOutbox} gave up on it), an {@link
+ * AlertAck} is sent back to the watch. If that takes longer than {@link #ACK_DEADLINE_MS}, the watch is told the SMS
+ * is still pending before it gives up on waiting, and gets the final acknowledgement later. An alert that fails in the
+ * pipeline itself is acknowledged as failed. The acknowledgement is kept for a while, so a watch that retries because
+ * it missed it gets it again.
+ *
+ * @since 10/18/26
+ */
+public class AlertPipeline {
+
+    // Constants
+    private static final String TAG = "AlertPipeline";
+    private static final int ALERT_NOTIFICATION_ID = 0x6001;
+    private static final long LEGACY_DEBOUNCE_MS = 500;
+    private static final int SEEN_ALERTS_CAPACITY = 16;
+    private static final long SEEN_ALERTS_TTL_MS = 10 * 60 * 1000; // 10 minutes
+    private static final int CONCURRENT_STAGES = 3;
+    private static final int RECENT_RUNS_CAPACITY = 8;
+    private static final long ACK_DEADLINE_MS = 7000; // The watch waits 10 seconds for each attempt
+
+    private static AlertPipeline sInstance = null;
+
+    /**
+     * Stages an alert goes through, in order
+     */
+    public enum Stage {
+        RECEIVE,
+        DEDUPE,
+        RESOLVE_CONFIG,
+        NOTIFY,
+        SEND_SMS,
+        LAST_KNOWN_LOCATION,
+        COMPOSE,
+        START_LOCATION
+    }
+
+    /**
+     * A single alert going through the pipeline, with the time spent in each stage
+     */
+    public static class AlertRun {
+
+        // Members
+        public final long alertId;
+        public final long receivedAt;
+        public final long triggeredAt;
+        public final int battery;
+        public final String sourceNodeId;
+        private final long[] mStageNs = new long[Stage.values().length];
+        private final AtomicInteger mPendingStages = new AtomicInteger();
+        private int mMessageCount = 0;
+
+        /**
+         * Constructor.
+         *
+         * @param alertId
+         *         {@link long} ID of the alert, 0 if the watch didn't send one
+         * @param receivedAt
+         *         {@link long} time the message was received, in milliseconds since epoch
+         * @param triggeredAt
+         *         {@link long} time the alert was triggered on the watch, 0 if unknown
+         * @param battery
+         *         {@link int} battery level of the watch, negative if unknown
+         * @param sourceNodeId
+         *         {@link String} node the alert came from, the acknowledgement is sent back to it
+         */
+        public AlertRun(long alertId, long receivedAt, long triggeredAt, int battery, String sourceNodeId) {
+            this.alertId = alertId;
+            this.receivedAt = receivedAt;
+            this.triggeredAt = triggeredAt;
+            this.battery = battery;
+            this.sourceNodeId = sourceNodeId;
+        }
+
+        /**
+         * Record the end of a stage.
+         *
+         * @param stage
+         *         {@link Stage}
+         * @param startNs
+         *         {@link long} {@link System#nanoTime()} when the stage started
+         */
+        public void endStage(Stage stage, long startNs) {
+            mStageNs[stage.ordinal()] = System.nanoTime() - startNs;
+        }
+
+        /**
+         * @param stage
+         *         {@link Stage}
+         * @return {@link long} time spent in the stage in nanoseconds, 0 if it didn't run
+         */
+        public long getStageNs(Stage stage) {
+            return mStageNs[stage.ordinal()];
+        }
+
+        /**
+         * @return {@link long} time spent in every stage in nanoseconds
+         */
+        public long getTotalNs() {
+            long total = 0;
+            for (long stageNs : mStageNs) {
+                total += stageNs;
+            }
+            return total;
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public String toString() {
+            StringBuilder builder = new StringBuilder("AlertRun{alertId=").append(alertId);
+            for (Stage stage : Stage.values()) {
+                builder.append(", ").append(stage).append('=')
+                        .append(TimeUnit.NANOSECONDS.toMicros(mStageNs[stage.ordinal()])).append("us");
+            }
+            return builder.append('}').toString();
+        }
+    }
+
+    /**
+     * A stage that runs concurrently with the others, it records its own time and reports the run if it is the last
+     * one to finish
+     */
+    private abstract class StageTask implements Runnable {
+
+        // Members
+        private final AlertRun mmRun;
+        private final Stage mmStage;
+
+        private StageTask(AlertRun run, Stage stage) {
+            mmRun = run;
+            mmStage = stage;
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public void run() {
+            long start = System.nanoTime();
+            try {
+                runStage();
+            } catch (RuntimeException e) {
+                Log.e(TAG, "ERROR: stage " + mmStage + " failed for alert " + mmRun.alertId, e);
+                onStageFailed();
+            } finally {
+                mmRun.endStage(mmStage, start);
+                onStageDone(mmRun);
+            }
+        }
+
+        abstract void runStage();
+
+        /**
+         * Called when {@link #runStage()} threw, before the stage is recorded as done
+         */
+        void onStageFailed() {
+        }
+    }
+
+    // Members
+    private final Context mContext;
+    private final ScheduledThreadPoolExecutor mCoordinator = new ScheduledThreadPoolExecutor(1);
+    private final ThreadPoolExecutor mStageExecutor = new ThreadPoolExecutor(CONCURRENT_STAGES, CONCURRENT_STAGES, 0,
+            TimeUnit.MILLISECONDS, new LinkedBlockingQueue<Runnable>());
+    private final SeenAlertCache mSeenAlerts = new SeenAlertCache(SEEN_ALERTS_CAPACITY, SEEN_ALERTS_TTL_MS);
+    private final AlertJournal mAlertJournal;
+    private final AlertAcknowledger mAcknowledger;
+    private final Map<Long, byte[]> mAcks = new LinkedHashMap<Long, byte[]>() {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Long, byte[]> eldest) {
+            return size() > SEEN_ALERTS_CAPACITY;
+        }
+    };
+    private volatile ScheduledFuture<?> mPendingLegacyAlert = null;
+    private final ArrayDeque<AlertRun> mRecentRuns = new ArrayDeque<>(RECENT_RUNS_CAPACITY);
+
+    /**
+     * Get the pipeline, it outlives each instance of the service since the same alert reaches us once per node and on
+     * every retry.
+     *
+     * @param context
+     *         {@link Context}
+     * @return {@link AlertPipeline}
+     */
+    public static synchronized AlertPipeline getInstance(Context context) {
+        if (sInstance == null) {
+            sInstance = new AlertPipeline(context.getApplicationContext());
+        }
+        return sInstance;
+    }
+
+    private AlertPipeline(Context context) {
+        mContext = context;
+        mAlertJournal = AlertJournal.getInstance(context);
+        mAcknowledger = new AlertAcknowledger(context);
+    }
+
+    /**
+     * @return the last {@link AlertRun} that went through every stage, or null
+     */
+    public AlertRun getLastRun() {
+        synchronized (mRecentRuns) {
+            return mRecentRuns.peekLast();
+        }
+    }
+
+    /**
+     * @return {@link List} of the latest {@link AlertRun}s that went through every stage, oldest first
+     */
+    public List<AlertRun> getRecentRuns() {
+        synchronized (mRecentRuns) {
+            return new ArrayList<>(mRecentRuns);
+        }
+    }
+
+    /**
+     * Print the state of the pipeline and the stage timings of the latest alerts, for {@code dumpsys}.
+     *
+     * @param writer
+     *         {@link PrintWriter}
+     * @param prefix
+     *         {@link String} to indent every line with
+     */
+    public void dump(PrintWriter writer, String prefix) {
+        writer.println(prefix + "coordinator: active=" + mCoordinator.getActiveCount() + " queued="
+                + mCoordinator.getQueue().size() + " completed=" + mCoordinator.getCompletedTaskCount());
+        writer.println(prefix + "stages: active=" + mStageExecutor.getActiveCount() + " queued="
+                + mStageExecutor.getQueue().size() + " completed=" + mStageExecutor.getCompletedTaskCount());
+        writer.println(prefix + "pendingLegacyAlert=" + (mPendingLegacyAlert != null));
+        synchronized (mAcks) {
+            writer.println(prefix + "acks kept for " + mAcks.size() + " alerts: " + mAcks.keySet());
+        }
+
+        List<AlertRun> runs = getRecentRuns();
+        writer.println(prefix + "recent alerts (" + runs.size() + "):");
+        for (int i = runs.size() - 1; i >= 0; i--) {
+            AlertRun run = runs.get(i);
+            writer.println(prefix + "  alert " + run.alertId + ": receivedAt=" + run.receivedAt + " triggeredAt="
+                    + run.triggeredAt + " battery=" + run.battery + " messages=" + run.mMessageCount + " total="
+                    + TimeUnit.NANOSECONDS.toMicros(run.getTotalNs()) + "us");
+            writer.print(prefix + "   ");
+            for (Stage stage : Stage.values()) {
+                writer.print(" " + stage + "=" + TimeUnit.NANOSECONDS.toMicros(run.getStageNs(stage)) + "us");
+            }
+            writer.println();
+        }
+    }
+
+    /**
+     * Hand a received alert to the pipeline, this returns immediately. The {@link Stage#RECEIVE} stage must already
+     * be recorded.
+     *
+     * @param run
+     *         {@link AlertRun}
+     */
+    public void submit(final AlertRun run) {
+        mCoordinator.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    dedupe(run);
+                } catch (RuntimeException e) {
+                    onAlertFailed(run, e);
+                }
+            }
+        });
+    }
+
+    /**
+     * Called when the pipeline itself failed to handle an alert, the watch is told right away instead of waiting for
+     * an acknowledgement that never comes.
+     */
+    private void onAlertFailed(AlertRun run, RuntimeException e) {
+        Log.e(TAG, "ERROR: failed to handle alert " + run.alertId, e);
+        acknowledge(run, new AlertAck().set(run.alertId, AlertAck.STATUS_FAILED, 0, 0));
+    }
+
+    /**
+     * Fire the first message for an alert right away, any other message with the same ID is a duplicate. Older watch
+     * apps don't send an alert ID, so multiple consecutive messages right next to another are only fired once they
+     * stop coming.
+     */
+    private void dedupe(final AlertRun run) {
+        long start = System.nanoTime();
+        if (run.alertId != 0) {
+            boolean first = mSeenAlerts.markSeen(run.alertId, SystemClock.elapsedRealtime());
+            run.endStage(Stage.DEDUPE, start);
+            if (first) {
+                execute(run);
+            } else {
+                Log.d(TAG, "Dropping duplicate message for alert " + run.alertId);
+                resendAck(run);
+            }
+            return;
+        }
+
+        if (mPendingLegacyAlert != null) {
+            mPendingLegacyAlert.cancel(false);
+        }
+        run.endStage(Stage.DEDUPE, start);
+        mPendingLegacyAlert = mCoordinator.schedule(new Runnable() {
+            @Override
+            public void run() {
+                mPendingLegacyAlert = null;
+                try {
+                    execute(run);
+                } catch (RuntimeException e) {
+                    onAlertFailed(run, e);
+                }
+            }
+        }, LEGACY_DEBOUNCE_MS, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Trigger the alert by sending an SMS with a pre-configured message to the pre-configured phone numbers. Here we
+     * also take user's preferences into consideration. A {@link Notification} is posted, only if the user has that
+     * option enabled, and the last known location is sent immediately, only if the user has that option enabled. The
+     * location goes in the same message as the alert whenever that doesn't take more segments.
+     * <p/>
+     * Finally, if the option to send the location is enabled, the {@link FineLocationSMSIntentService} will be started
+     * and the phone numbers will be passed as an {@link Intent} extra. The {@link FineLocationSMSIntentService} will
+     * make sure to fetch a more accurate and current location point, then send it to the phone numbers passed when the
+     * service was started, and then it will kill it self.
+     */
+    private void execute(final AlertRun run) {
+        mAlertJournal.recordAlertReceived(run.alertId, run.triggeredAt, run.battery);
+
+        long start = System.nanoTime();
+        final AlertConfig config = AlertConfig.get(mContext);
+        run.endStage(Stage.RESOLVE_CONFIG, start);
+
+        // Only keep going if we have a valid message and at least one phone number
+        if (config.recipients.isEmpty() || TextUtils.isEmpty(config.smsMessage)) {
+            Log.e(TAG, "ERROR: no phone number or message set, not sending alert " + run.alertId);
+            acknowledge(run, new AlertAck().set(run.alertId, AlertAck.STATUS_NOT_CONFIGURED, 0, 0));
+            return;
+        }
+
+        // The coordinator holds on to the run until it is done with its own stages
+        run.mPendingStages.set(1);
+        if (config.showNotification) {
+            run.mPendingStages.incrementAndGet();
+            mStageExecutor.execute(new StageTask(run, Stage.NOTIFY) {
+                @Override
+                void runStage() {
+                    showNotification();
+                }
+            });
+        }
+        final AckCallback ackCallback = new AckCallback(run, config.recipients.size());
+        run.mPendingStages.incrementAndGet();
+        mStageExecutor.execute(new StageTask(run, Stage.SEND_SMS) {
+            @Override
+            void runStage() {
+                sendAlertMessages(config, run, ackCallback);
+            }
+
+            @Override
+            void onStageFailed() {
+                ackCallback.onFailed();
+            }
+        });
+
+        // Only send the phone's location if the option is enabled
+        if (config.sendLocation) {
+            start = System.nanoTime();
+            try {
+                startLocationService(config, run);
+            } catch (RuntimeException e) {
+                // The SMS is already on its way, so this doesn't fail the alert
+                Log.e(TAG, "ERROR: failed to start the location service for alert " + run.alertId, e);
+            }
+            run.endStage(Stage.START_LOCATION, start);
+        }
+
+        // Don't wait for the concurrent stages, the next alert may already be waiting
+        onStageDone(run);
+    }
+
+    /**
+     * Called when a stage of the run finished, the last one records the run as handled.
+     */
+    private void onStageDone(AlertRun run) {
+        if (run.mPendingStages.decrementAndGet() > 0) {
+            return;
+        }
+
+        synchronized (mRecentRuns) {
+            if (mRecentRuns.size() == RECENT_RUNS_CAPACITY) {
+                mRecentRuns.removeFirst();
+            }
+            mRecentRuns.addLast(run);
+        }
+        mAlertJournal.recordAlertHandled(run.alertId, TimeUnit.NANOSECONDS.toMicros(run.getTotalNs()),
+                run.mMessageCount);
+        Log.d(TAG, "Alert handled: " + run);
+    }
+
+    /**
+     * Send the alert message to all the phone numbers, along with the best cached location if the option to send the
+     * location is enabled and there is one. Both go in a single message when it fits.
+     */
+    private void sendAlertMessages(AlertConfig config, AlertRun run, AckCallback ackCallback) {
+        long start = System.nanoTime();
+        Location location = config.sendLocation ? LocationCache.getInstance().getBestLocation() : null;
+        run.endStage(Stage.LAST_KNOWN_LOCATION, start);
+
+        start = System.nanoTime();
+        MessageTemplate.Values values = new MessageTemplate.Values();
+        // The emergency message may use the location placeholders as well, they are filled with the cached location
+        String alertMessage = SMSUtil.renderMessage(mContext, config.messageTemplate, null, location, run.receivedAt,
+                values);
+        String locationMessage = null;
+        if (location != null) {
+            mAlertJournal.recordLocationFix(run.alertId, location.getLatitude(), location.getLongitude(),
+                    location.hasAccuracy() ? location.getAccuracy() : Float.NaN, location.getTime());
+
+            // Render the location message with specific coordinates
+            locationMessage = SMSUtil.renderMessage(mContext, config.locationTemplate,
+                    mContext.getString(R.string.message_last_location), location, location.getTime(), values);
+        }
+        List<String> messages = MessageComposer.compose(alertMessage, locationMessage, config.transliterateSms);
+        run.endStage(Stage.COMPOSE, start);
+        run.mMessageCount = messages.size();
+
+        // The messages to each recipient are queued in order, so the alert always goes out first
+        ackCallback.start(messages.size());
+        SmsDispatcher.dispatch(mContext, config.recipients, messages, run.alertId, run.receivedAt, ackCallback);
+    }
+
+    /**
+     * Collects the outcome of every message to every recipient, and acknowledges the alert once they are all known.
+     * If they aren't by {@link #ACK_DEADLINE_MS}, the alert is acknowledged as pending in the meantime.
+     */
+    private class AckCallback implements SmsDispatcher.Callback, Runnable {
+
+        // Members
+        private final AlertRun mmRun;
+        private final int mmRecipientCount;
+        private final Map<String, Integer> mmSentMessages = new HashMap<>();
+        private final Set<String> mmFailedRecipients = new HashSet<>();
+        private int mmMessageCount = 0;
+        private int mmPendingResults = 0;
+        private ScheduledFuture<?> mmDeadline = null;
+        private boolean mmDone = false;
+
+        private AckCallback(AlertRun run, int recipientCount) {
+            mmRun = run;
+            mmRecipientCount = recipientCount;
+        }
+
+        /**
+         * Start waiting for the outcome of the messages, before they are dispatched.
+         *
+         * @param messageCount
+         *         {@link int} number of messages to each recipient
+         */
+        synchronized void start(int messageCount) {
+            mmMessageCount = messageCount;
+            mmPendingResults = mmRecipientCount * messageCount;
+            mmDeadline = mCoordinator.schedule(this, ACK_DEADLINE_MS, TimeUnit.MILLISECONDS);
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public synchronized void onResult(SmsDispatcher.Result result) {
+            if (mmDone) {
+                return;
+            }
+
+            if (result.success) {
+                Integer sent = mmSentMessages.get(result.number);
+                mmSentMessages.put(result.number, sent == null ? 1 : sent + 1);
+            } else {
+                mmFailedRecipients.add(result.number);
+            }
+            if (--mmPendingResults > 0) {
+                return;
+            }
+
+            finish();
+            int sent = getSentCount();
+            int status;
+            if (sent == mmRecipientCount) {
+                status = AlertAck.STATUS_SENT;
+            } else if (sent > 0) {
+                status = AlertAck.STATUS_PARTIAL;
+            } else {
+                status = AlertAck.STATUS_FAILED;
+            }
+            acknowledge(mmRun, new AlertAck().set(mmRun.alertId, status, sent, mmRecipientCount));
+        }
+
+        /**
+         * Called when the deadline is over and some of the messages are still being sent or waiting for a retry.
+         */
+        @Override
+        public synchronized void run() {
+            if (mmDone) {
+                return;
+            }
+
+            Log.d(TAG, "Still waiting for " + mmPendingResults + " SMS results of alert " + mmRun.alertId);
+            acknowledge(mmRun, new AlertAck().set(mmRun.alertId, AlertAck.STATUS_PENDING, getSentCount(),
+                    mmRecipientCount));
+        }
+
+        /**
+         * Called when the messages couldn't be dispatched at all.
+         */
+        synchronized void onFailed() {
+            if (mmDone) {
+                return;
+            }
+
+            finish();
+            acknowledge(mmRun, new AlertAck().set(mmRun.alertId, AlertAck.STATUS_FAILED, 0, mmRecipientCount));
+        }
+
+        private void finish() {
+            mmDone = true;
+            if (mmDeadline != null) {
+                mmDeadline.cancel(false);
+            }
+        }
+
+        /**
+         * @return {@link int} number of recipients the carrier accepted every message for
+         */
+        private int getSentCount() {
+            int sent = 0;
+            for (Map.Entry<String, Integer> entry : mmSentMessages.entrySet()) {
+                if (entry.getValue() >= mmMessageCount && !mmFailedRecipients.contains(entry.getKey())) {
+                    sent++;
+                }
+            }
+            return sent;
+        }
+    }
+
+    /**
+     * Remember the acknowledgement of an alert and send it to the watch. Older watch apps don't send an alert ID, and
+     * don't expect an acknowledgement either.
+     */
+    private void acknowledge(final AlertRun run, AlertAck ack) {
+        if (run.alertId == 0 || run.sourceNodeId == null) {
+            return;
+        }
+
+        Log.d(TAG, "Acknowledging alert " + run.alertId + ": " + ack);
+        final byte[] payload = ack.toByteArray();
+        synchronized (mAcks) {
+            mAcks.put(run.alertId, payload);
+        }
+        mStageExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                mAcknowledger.send(run.sourceNodeId, payload);
+            }
+        });
+    }
+
+    /**
+     * Send the acknowledgement of an alert again, if it is already known. Otherwise it is sent once the alert is
+     * handled.
+     */
+    private void resendAck(final AlertRun run) {
+        final byte[] payload;
+        synchronized (mAcks) {
+            payload = mAcks.get(run.alertId);
+        }
+        if (payload == null || run.sourceNodeId == null) {
+            return;
+        }
+
+        mStageExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                mAcknowledger.send(run.sourceNodeId, payload);
+            }
+        });
+    }
+
+    /**
+     * Start the location service and pass the phone numbers as an extra.
+     */
+    private void startLocationService(AlertConfig config, AlertRun run) {
+        Intent locationService = new Intent(mContext, FineLocationSMSIntentService.class);
+        locationService.putExtra(FineLocationSMSIntentService.KEY_SMS_PHONE_NUMBER, config.smsNumber);
+        locationService.putExtra(FineLocationSMSIntentService.KEY_ALERT_ID, run.alertId);
+        locationService.putExtra(FineLocationSMSIntentService.KEY_ALERT_RECEIVED_AT, run.receivedAt);
+        locationService.putExtra(FineLocationSMSIntentService.KEY_SEND_BREADCRUMBS, config.sendBreadcrumbs);
+        mContext.startService(locationService);
+    }
+
+    /**
+     * Post the notification to the {@link NotificationManager}
+     */
+    private void showNotification() {
+        NotificationCompat.Builder builder =
+                new NotificationCompat.Builder(mContext)
+                        .setSmallIcon(R.drawable.ic_launcher)
+                        .setContentTitle(mContext.getString(R.string.notification_title))
+                        .setContentText(mContext.getString(R.string.notification_content))
+                        .setAutoCancel(true)
+                        .setVisibility(NotificationCompat.VISIBILITY_SECRET)
+                        .setLocalOnly(false);
+
+        Intent notificationIntent = new Intent(mContext, AlertPreferencesActivity.class);
+        PendingIntent contentIntent = PendingIntent.getActivity(mContext, 0, notificationIntent,
+                PendingIntent.FLAG_UPDATE_CURRENT);
+        builder.setContentIntent(contentIntent);
+
+        NotificationManager notificationManager =
+                (NotificationManager) mContext.getSystemService(Context.NOTIFICATION_SERVICE);
+        if (notificationManager != null) {
+            notificationManager.notify(ALERT_NOTIFICATION_ID, builder.build());
+        }
+    }
+
+}
@@ -19,37 +19,87 @@ package com.danvelazco.android.wear.emergencyalert.service;
 import android.app.Service;
 import android.content.Context;
 import android.content.Intent;
-import android.location.Criteria;
 import android.location.Location;
-import android.location.LocationListener;
 import android.location.LocationManager;
-import android.os.Bundle;
+import android.os.AsyncTask;
+import android.os.Handler;
 import android.os.IBinder;
+import android.os.Looper;
 import android.os.PowerManager;
-import android.text.TextUtils;
+import android.os.SystemClock;
 import android.util.Log;
 import com.danvelazco.android.wear.emergencyalert.BuildConfig;
 import com.danvelazco.android.wear.emergencyalert.R;
+import com.danvelazco.android.wear.emergencyalert.data.MetricsRegistry;
+import com.danvelazco.android.wear.emergencyalert.data.MetricsSnapshot;
+import com.danvelazco.android.wear.emergencyalert.history.AlertJournal;
+import com.danvelazco.android.wear.emergencyalert.location.BreadcrumbSession;
+import com.danvelazco.android.wear.emergencyalert.location.LocationCache;
+import com.danvelazco.android.wear.emergencyalert.location.LocationRace;
+import com.danvelazco.android.wear.emergencyalert.location.LocationRequestTable;
+import com.danvelazco.android.wear.emergencyalert.sms.MessageTemplate;
+import com.danvelazco.android.wear.emergencyalert.sms.SmsDispatcher;
+import com.danvelazco.android.wear.emergencyalert.sms.SmsOutbox;
+import com.danvelazco.android.wear.emergencyalert.util.AlertConfig;
 import com.danvelazco.android.wear.emergencyalert.util.SMSUtil;
+import com.danvelazco.android.wear.emergencyalert.util.WakeLockScheduler;
+
+import java.io.FileDescriptor;
+import java.io.PrintWriter;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
 /**
  * This service is only responsible for finding an accurate and current {@link Location} and send it as a SMS message to
- * the specified phone number passed as an {@link Intent} extra on {@link #onStartCommand(Intent, int, int)}
+ * the specified phone numbers passed as an {@link Intent} extra on {@link #onStartCommand(Intent, int, int)}. Every
+ * enabled location provider is asked at once through a {@link LocationRace}, and the best fix is sent as soon as it's
+ * accurate enough, or when the deadline expires. If breadcrumbs were requested, the service then keeps sending location
+ * updates through a {@link BreadcrumbSession} until its budget is used up.
+ * <p/>
+ * The wake lock is only held for the location deadline (plus a grace period), through a {@link WakeLockScheduler}. If
+ * it expires, the best fix seen so far is sent, or a notice that the location is unavailable if there was none.
  *
  * @author Daniel Velazco <velazcod@gmail.com>
  * @since 9/18/14
  */
-public class FineLocationSMSIntentService extends Service implements LocationListener {
+public class FineLocationSMSIntentService extends Service implements LocationRace.Callback,
+        BreadcrumbSession.Callback {
 
     // Constants
     public static final String LOG_TAG = "FineLocationSMSService";
-    private static final int WAKELOCK_TIMEOUT_MS = 600000; // 10 minutes
+    private static final long WAKELOCK_GRACE_MS = 15000; // 15 seconds
     public static final String KEY_SMS_PHONE_NUMBER = "_key_phone_number";
+    public static final String KEY_ALERT_ID = "_key_alert_id";
+    public static final String KEY_ALERT_RECEIVED_AT = "_key_alert_received_at";
+    public static final String KEY_ACCURACY_TARGET_M = "_key_accuracy_target_m";
+    public static final String KEY_LOCATION_DEADLINE_MS = "_key_location_deadline_ms";
+    public static final String KEY_SEND_BREADCRUMBS = "_key_send_breadcrumbs";
+    private static final float DEFAULT_ACCURACY_TARGET_M = 50f;
+    private static final long DEFAULT_LOCATION_DEADLINE_MS = 60000; // 1 minute
+
+    private static final MetricsRegistry.Histogram sLocationFixMs = MetricsRegistry.getDefault()
+            .histogram("phone.location.fix_ms", MetricsRegistry.LATENCY_BUCKETS_MS);
+    private static final MetricsRegistry.Gauge sLocationAccuracyM = MetricsRegistry.getDefault()
+            .gauge("phone.location.accuracy_m");
+    private static final MetricsRegistry.Counter sLocationUnavailable = MetricsRegistry.getDefault()
+            .counter("phone.location.unavailable");
+    private static final MetricsRegistry.Counter sBreadcrumbsSent = MetricsRegistry.getDefault()
+            .counter("phone.location.breadcrumbs");
 
     // Members
-    private PowerManager.WakeLock mWakeLock = null;
+    private WakeLockScheduler mWakeLockScheduler = null;
     private LocationManager mLocationManager;
-    private String mTempSmsNumberToSendLocationTo = null;
+    private LocationRace mLocationRace = null;
+    private final LocationRequestTable mLocationRequests = new LocationRequestTable();
+    private BreadcrumbSession mBreadcrumbSession = null;
+    private long mLocationRaceStartedAt = 0;
+    private final Map<String, LocationRequestTable.Request> mBreadcrumbRequests = new LinkedHashMap<>();
+    private final MessageTemplate.Values mTemplateValues = new MessageTemplate.Values();
 
     /**
      * {@inheritDoc}
@@ -69,7 +119,13 @@ public class FineLocationSMSIntentService extends Service implements LocationLis
         mLocationManager = (LocationManager) getSystemService(Context.LOCATION_SERVICE);
 
         PowerManager powerManager = (PowerManager) getSystemService(Context.POWER_SERVICE);
-        mWakeLock = powerManager.newWakeLock(PowerManager.PARTIAL_WAKE_LOCK, LOG_TAG);
+        mWakeLockScheduler = new WakeLockScheduler(
+                powerManager.newWakeLock(PowerManager.PARTIAL_WAKE_LOCK, LOG_TAG), new Handler());
+
+        AlertJournal.preload(this);
+
+        // Send anything that was left pending if the process died before it went out
+        SmsOutbox.resendPending(this);
     }
 
     /**
@@ -77,14 +133,15 @@ public class FineLocationSMSIntentService extends Service implements LocationLis
      */
     @Override
     public void onDestroy() {
-        if (mLocationManager != null) {
-            mLocationManager.removeUpdates(this);
+        if (mLocationRace != null) {
+            mLocationRace.cancel();
         }
-
-        if (mWakeLock.isHeld()) {
-            mWakeLock.release();
+        if (mBreadcrumbSession != null) {
+            mBreadcrumbSession.cancel();
         }
 
+        mWakeLockScheduler.release();
+
         super.onDestroy();
     }
 
@@ -110,34 +167,45 @@ public class FineLocationSMSIntentService extends Service implements LocationLis
             return START_FLAG_RETRY;
         }
 
-        String smsNumber = intent.getStringExtra(KEY_SMS_PHONE_NUMBER);
+        List<String> recipients = SMSUtil.parseRecipients(intent.getStringExtra(KEY_SMS_PHONE_NUMBER));
+        long alertId = intent.getLongExtra(KEY_ALERT_ID, 0);
+        long receivedAt = intent.getLongExtra(KEY_ALERT_RECEIVED_AT, System.currentTimeMillis());
+        boolean sendBreadcrumbs = intent.getBooleanExtra(KEY_SEND_BREADCRUMBS, false);
 
-        if (!TextUtils.isEmpty(smsNumber)) {
-            if (mTempSmsNumberToSendLocationTo == null) {
+        // Every recipient waits in the table, a single location fetch serves all of them
+        mLocationRequests.add(startId, recipients, alertId, receivedAt, sendBreadcrumbs);
+        if (!recipients.isEmpty()) {
+            if (mLocationRace == null) {
                 // Need to fetch a new fine location
 
-                // Acquire a wake lock to make sure we don't die while we wait for a location
-                mWakeLock.acquire(WAKELOCK_TIMEOUT_MS);
-
-                // Build a criteria that will be used to find the best location provider
-                Criteria criteria = new Criteria();
-                criteria.setAccuracy(Criteria.ACCURACY_FINE);
-                criteria.setPowerRequirement(Criteria.POWER_HIGH);
-
-                // Get the name of the best location provider based on the criteria above
-                String locationProvider = mLocationManager.getBestProvider(criteria, true);
-
-                if (locationProvider != null) {
-                    // If our provider is valid, request a single location update using this provider, then wait
-                    mTempSmsNumberToSendLocationTo = smsNumber;
-                    mLocationManager.requestSingleUpdate(locationProvider,
-                            FineLocationSMSIntentService.this, null);
+                // Ask every enabled provider at once, the best fix wins
+                float accuracyTarget = intent.getFloatExtra(KEY_ACCURACY_TARGET_M, DEFAULT_ACCURACY_TARGET_M);
+                long deadline = intent.getLongExtra(KEY_LOCATION_DEADLINE_MS, DEFAULT_LOCATION_DEADLINE_MS);
+                mLocationRace = new LocationRace(mLocationManager, accuracyTarget, deadline, this);
+                mLocationRaceStartedAt = SystemClock.elapsedRealtime();
+
+                // Acquire a wake lock to make sure we don't die while we wait for a location, but only for as long
+                // as the race may take. If the race somehow outlives it, wrap up with what we have
+                mWakeLockScheduler.hold(alertId, deadline + WAKELOCK_GRACE_MS, new Runnable() {
+                    @Override
+                    public void run() {
+                        if (mLocationRace != null) {
+                            mLocationRace.finish();
+                        }
+                    }
+                });
+
+                if (!mLocationRace.start(Looper.getMainLooper())) {
+                    // No provider is enabled, there is no location to wait for
+                    onLocationRaceFinished(null);
                 }
             } else {
-                // If a number is already set, that means we are currently waiting for the
-                // location to be found, simply make sure the phone number is updated
-                mTempSmsNumberToSendLocationTo = smsNumber;
+                // We are already waiting for a location, these recipients will get that same one
+                Log.d(LOG_TAG, "Coalesced request " + startId + " into the current location fetch, "
+                        + mLocationRequests.size() + " recipients waiting");
             }
+        } else {
+            stopSelfIfDone();
         }
 
         return START_FLAG_REDELIVERY;
@@ -147,60 +215,171 @@ public class FineLocationSMSIntentService extends Service implements LocationLis
      * {@inheritDoc}
      */
     @Override
-    public void onLocationChanged(Location location) {
-        if (mLocationManager != null && location != null) {
-            // Remove all pending location updates. we got what we needed
-            mLocationManager.removeUpdates(this);
-        }
-
-        if (location != null && mTempSmsNumberToSendLocationTo != null) {
-            // Get the location coordinates
-            double latitude = location.getLatitude();
-            double longitude = location.getLongitude();
+    public void onLocationRaceFinished(Location location) {
+        LocationCache.getInstance().update(location);
+        mLocationRace = null;
+
+        // Every recipient waiting in the table gets its own message with the same location
+        List<LocationRequestTable.Request> requests = mLocationRequests.drain();
+        String message;
+        if (location != null) {
+            sLocationFixMs.record(SystemClock.elapsedRealtime() - mLocationRaceStartedAt);
+            if (location.hasAccuracy()) {
+                sLocationAccuracyM.set(Math.round(location.getAccuracy()));
+            }
+            recordLocationFix(location, requests);
 
             // Get the coordinates in a user readable format
-            String message = String.format(getString(R.string.message_current_location),
-                    Double.toString(latitude), Double.toString(longitude),
-                    SMSUtil.getFormattedTimestamp(this, location.getTime()));
-
-            // Send the SMS to the specific number with the fine location
-            SMSUtil.sendSms(mTempSmsNumberToSendLocationTo, message);
-
-            // Clear out the phone number variable to avoid duplicates
-            mTempSmsNumberToSendLocationTo = null;
-
-            if (mWakeLock.isHeld()) {
-                // Release the wake lock
-                mWakeLock.release();
+            message = SMSUtil.renderMessage(this, AlertConfig.get(this).locationTemplate,
+                    getString(R.string.message_current_location), location, location.getTime(), mTemplateValues);
+        } else {
+            // Let the contacts know they shouldn't keep waiting for a location
+            sLocationUnavailable.increment();
+            message = getString(R.string.message_location_unavailable);
+        }
+        for (LocationRequestTable.Request request : requests) {
+            SmsDispatcher.dispatch(this, Collections.singletonList(request.number), message, request.alertId,
+                    request.receivedAt, null);
+            if (location != null && request.sendBreadcrumbs) {
+                // The recipient may already be following an earlier alert, this one takes its place
+                LocationRequestTable.Request previous = mBreadcrumbRequests.put(request.number, request);
+                if (previous != null) {
+                    mLocationRequests.finish(previous);
+                }
+            } else {
+                mLocationRequests.finish(request);
             }
+        }
 
-            // Message sent, wakelock released, we are done here, kill the service
-            stopSelf();
+        if (!mBreadcrumbRequests.isEmpty() && mBreadcrumbSession == null) {
+            // Keep following the location, the session reports only when the phone moves
+            mBreadcrumbSession = new BreadcrumbSession(mLocationManager, this);
+            if (!mBreadcrumbSession.start(Looper.getMainLooper(), location)) {
+                mBreadcrumbSession = null;
+                finishBreadcrumbRequests();
+            }
         }
+
+        // Release the wake lock
+        mWakeLockScheduler.release();
+
+        stopSelfIfDone();
     }
 
     /**
      * {@inheritDoc}
      */
     @Override
-    public void onStatusChanged(String provider, int status, Bundle extras) {
-        // No implementation
+    public void onBreadcrumb(Location location) {
+        LocationCache.getInstance().update(location);
+        recordLocationFix(location, mBreadcrumbRequests.values());
+        sBreadcrumbsSent.increment();
+
+        String message = SMSUtil.renderMessage(this, AlertConfig.get(this).locationTemplate,
+                getString(R.string.message_breadcrumb_location), location, location.getTime(), mTemplateValues);
+        for (LocationRequestTable.Request request : mBreadcrumbRequests.values()) {
+            SmsDispatcher.dispatch(this, Collections.singletonList(request.number), message, request.alertId,
+                    request.receivedAt, null);
+        }
     }
 
     /**
      * {@inheritDoc}
      */
     @Override
-    public void onProviderEnabled(String provider) {
-        // No implementation
+    public void onBreadcrumbSessionFinished() {
+        mBreadcrumbSession = null;
+        finishBreadcrumbRequests();
+
+        stopSelfIfDone();
+    }
+
+    private void finishBreadcrumbRequests() {
+        for (LocationRequestTable.Request request : mBreadcrumbRequests.values()) {
+            mLocationRequests.finish(request);
+        }
+        mBreadcrumbRequests.clear();
     }
 
     /**
-     * {@inheritDoc}
+     * Print the location fetch in progress, the recipients waiting for it, the breadcrumb session and the wake lock,
+     * through {@code adb shell dumpsys activity service FineLocationSMSIntentService}. This runs on the main thread,
+     * like every other callback of this service. Phone numbers and coordinates are redacted.
      */
     @Override
-    public void onProviderDisabled(String provider) {
-        // No implementation
+    protected void dump(FileDescriptor fd, PrintWriter writer, String[] args) {
+        long now = SystemClock.elapsedRealtime();
+        writer.println("FineLocationSMSIntentService state:");
+        writer.println("  open commands=" + mLocationRequests.getOpenStartIds() + " lastFinishedStartId="
+                + mLocationRequests.getLastFinishedStartId());
+
+        if (mLocationRace != null) {
+            writer.println("  location race: running=" + mLocationRace.isRunning() + " elapsed="
+                    + (now - mLocationRaceStartedAt) + "ms best="
+                    + SMSUtil.redactLocation(mLocationRace.getBestLocation()));
+        } else {
+            writer.println("  location race: none");
+        }
+        writer.println("  cached location: "
+                + SMSUtil.redactLocation(LocationCache.getInstance().getBestLocation()));
+
+        writer.println("  waiting recipients (" + mLocationRequests.size() + "):");
+        for (LocationRequestTable.Request request : mLocationRequests.getRequests()) {
+            writer.println("    " + request);
+        }
+
+        if (mBreadcrumbSession != null) {
+            writer.print("  breadcrumb session: sent=" + mBreadcrumbSession.getBreadcrumbCount() + " recipients=");
+            for (String number : mBreadcrumbRequests.keySet()) {
+                writer.print(SMSUtil.redactNumber(number) + " ");
+            }
+            writer.println();
+        } else {
+            writer.println("  breadcrumb session: none");
+        }
+
+        writer.println("  wake lock: held=" + mWakeLockScheduler.isHeld() + " heldFor="
+                + mWakeLockScheduler.getHeldForMs() + "ms alert=" + mWakeLockScheduler.getAlertId() + " totalHeld="
+                + WakeLockScheduler.getTotalHeldMs() + "ms perAlert=" + WakeLockScheduler.getHeldMsPerAlert());
+
+        writer.println("  location metrics:");
+        MetricsSnapshot snapshot = MetricsRegistry.getDefault().snapshot();
+        for (MetricsSnapshot.Entry entry : snapshot.getEntries()) {
+            if (entry.name.startsWith("phone.location.")) {
+                writer.println("    " + entry);
+            }
+        }
+    }
+
+    /**
+     * Record a location fix in the {@link AlertJournal}, once for each alert the recipients are waiting for. This is
+     * done in the background, in case the journal isn't mapped yet.
+     */
+    private void recordLocationFix(final Location location, Collection<LocationRequestTable.Request> requests) {
+        final AlertJournal journal = AlertJournal.getInstance(this);
+        final Set<Long> alertIds = new LinkedHashSet<>();
+        for (LocationRequestTable.Request request : requests) {
+            alertIds.add(request.alertId);
+        }
+        AsyncTask.THREAD_POOL_EXECUTOR.execute(new Runnable() {
+            @Override
+            public void run() {
+                for (long alertId : alertIds) {
+                    journal.recordLocationFix(alertId, location.getLatitude(), location.getLongitude(),
+                            location.hasAccuracy() ? location.getAccuracy() : Float.NaN, location.getTime());
+                }
+            }
+        });
+    }
+
+    /**
+     * Stop the service once every command is done, each recipient got its location and its breadcrumbs if it asked
+     * for them. The service is only stopped if no command was started after the last one that finished.
+     */
+    private void stopSelfIfDone() {
+        if (mLocationRace == null && mBreadcrumbSession == null && !mLocationRequests.hasOpenCommands()) {
+            stopSelf(mLocationRequests.getLastFinishedStartId());
+        }
     }
 
 }
@@ -16,31 +16,36 @@
 
 package com.danvelazco.android.wear.emergencyalert.service;
 
-import android.app.Notification;
-import android.app.NotificationManager;
-import android.app.PendingIntent;
-import android.content.Context;
-import android.content.Intent;
-import android.content.SharedPreferences;
 import android.location.Location;
-import android.location.LocationManager;
-import android.os.Handler;
-import android.os.Message;
-import android.preference.PreferenceManager;
-import android.support.v4.app.NotificationCompat;
-import android.text.TextUtils;
-import com.danvelazco.android.wear.emergencyalert.AlertPreferencesActivity;
-import com.danvelazco.android.wear.emergencyalert.R;
-import com.danvelazco.android.wear.emergencyalert.util.SMSUtil;
+import android.net.Uri;
+import android.util.Log;
+import com.danvelazco.android.wear.emergencyalert.data.AlertPayload;
+import com.danvelazco.android.wear.emergencyalert.data.MetricsRegistry;
+import com.danvelazco.android.wear.emergencyalert.data.MetricsSnapshot;
+import com.danvelazco.android.wear.emergencyalert.history.AlertJournal;
+import com.danvelazco.android.wear.emergencyalert.location.LocationCache;
+import com.danvelazco.android.wear.emergencyalert.sms.SmsOutbox;
+import com.danvelazco.android.wear.emergencyalert.sms.SmsTracker;
+import com.danvelazco.android.wear.emergencyalert.util.AlertConfig;
+import com.google.android.gms.common.data.FreezableUtils;
+import com.google.android.gms.wearable.DataEvent;
+import com.google.android.gms.wearable.DataEventBuffer;
+import com.google.android.gms.wearable.DataMapItem;
 import com.google.android.gms.wearable.MessageEvent;
 import com.google.android.gms.wearable.WearableListenerService;
 
-import java.lang.ref.WeakReference;
+import java.io.FileDescriptor;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.util.List;
 
 /**
  * Sicne a {@link WearableListenerService} is short-lived and is quickly killed, we try to delegate
  * finding an accurate {@link Location} to the {@link FineLocationSMSIntentService} from here, but
  * only if the option to send location data is enabled by the user.
+ * <p/>
+ * The alert itself is handled off the main thread by the {@link AlertPipeline}, this service only decodes the message.
+ * It also receives the metrics the watch publishes, so both sides can be looked at from here.
  *
  * @author Daniel Velazco <velazcod@gmail.com>
  * @since 7/2/14
@@ -48,16 +53,24 @@ import java.lang.ref.WeakReference;
 public class WearAlertService extends WearableListenerService {
     
     // Constants
-    private final static int ALERT_NOTIFICATION_ID = 0x6001;
-    private final static int MSG_TRIGGER_ALERT = 0x5001;
-    private final static int DELAY_TRIGGER_ALERT = 500;
+    private final static String TAG = "WearAlertService";
     public final static String SEND_EMERGENCY_ALERT_SMS_PATH = "/start/sendEmergencyAlert";
 
+    private static final MetricsRegistry.Counter sAlertsReceived = MetricsRegistry.getDefault()
+            .counter("phone.alert.received");
+    private static final MetricsRegistry.Counter sLegacyAlertsReceived = MetricsRegistry.getDefault()
+            .counter("phone.alert.legacy");
+    private static final MetricsRegistry.Histogram sTransitMs = MetricsRegistry.getDefault()
+            .histogram("phone.alert.transit_ms", MetricsRegistry.LATENCY_BUCKETS_MS);
+    private static final MetricsRegistry.Gauge sWatchBattery = MetricsRegistry.getDefault()
+            .gauge("phone.watch.battery");
+
+    // Last snapshot the watch published, null until one was received by this process
+    private static volatile MetricsSnapshot sWatchMetrics = null;
+
     // Members
-    private SharedPreferences mSharedPrefs = null;
-    private NotificationManager mNotificationManager = null;
-    private LocationManager mLocationManager;
-    private ViewHandler mMessageHandler = new ViewHandler(this);
+    private AlertPipeline mAlertPipeline = null;
+    private final AlertPayload mAlertPayload = new AlertPayload();
 
     /**
      * {@inheritDoc}
@@ -65,9 +78,24 @@ public class WearAlertService extends WearableListenerService {
     @Override
     public void onCreate() {
         super.onCreate();
-        mSharedPrefs = PreferenceManager.getDefaultSharedPreferences(this);
-        mNotificationManager = (NotificationManager) getSystemService(Context.NOTIFICATION_SERVICE);
-        mLocationManager = (LocationManager) getSystemService(Context.LOCATION_SERVICE);
+
+        // Load the preferences now, so they are ready by the time an alert comes in
+        AlertConfig.preload(this);
+        AlertJournal.preload(this);
+        mAlertPipeline = AlertPipeline.getInstance(this);
+
+        // Warm up the location cache so the last known location is ready when an alert comes in
+        LocationCache.getInstance().start(this);
+
+        // Send anything that was left pending if the process died before it went out
+        SmsOutbox.resendPending(this);
+    }
+
+    /**
+     * @return the last {@link MetricsSnapshot} published by the watch, null if none was received yet
+     */
+    public static MetricsSnapshot getWatchMetrics() {
+        return sWatchMetrics;
     }
 
     /**
@@ -76,121 +104,93 @@ public class WearAlertService extends WearableListenerService {
     @Override
     public void onMessageReceived(MessageEvent messageEvent) {
         if (messageEvent.getPath().equals(SEND_EMERGENCY_ALERT_SMS_PATH)) {
-            // Don't allow multiple consecutive messages firing right next to another
-            // to trigger an alert when they are too close together
-            mMessageHandler.removeMessages(MSG_TRIGGER_ALERT);
-            mMessageHandler.sendEmptyMessageDelayed(MSG_TRIGGER_ALERT, DELAY_TRIGGER_ALERT);
+            long start = System.nanoTime();
+            long receivedAt = System.currentTimeMillis();
+            AlertPipeline.AlertRun run;
+            sAlertsReceived.increment();
+            if (mAlertPayload.decode(messageEvent.getData())) {
+                long transitMs = receivedAt - mAlertPayload.getTriggeredAt();
+                Log.d(TAG, "Alert received " + transitMs + "ms after it was triggered: " + mAlertPayload);
+                // The clocks of the watch and the phone may be off from each other
+                if (transitMs >= 0) {
+                    sTransitMs.record(transitMs);
+                }
+                if (mAlertPayload.getBattery() != AlertPayload.BATTERY_UNKNOWN) {
+                    sWatchBattery.set(mAlertPayload.getBattery());
+                }
+                run = new AlertPipeline.AlertRun(mAlertPayload.getAlertId(), receivedAt,
+                        mAlertPayload.getTriggeredAt(), mAlertPayload.getBattery(), messageEvent.getSourceNodeId());
+            } else {
+                // Older watch apps don't send an alert ID, the pipeline debounces these instead
+                sLegacyAlertsReceived.increment();
+                run = new AlertPipeline.AlertRun(0, receivedAt, 0, AlertPayload.BATTERY_UNKNOWN,
+                        messageEvent.getSourceNodeId());
+            }
+            run.endStage(AlertPipeline.Stage.RECEIVE, start);
+            mAlertPipeline.submit(run);
         }
     }
 
     /**
-     * Trigger the alert by sending an SMS with a pre-configured message to a pre-configured phone number. Here we also
-     * take user's preferences into consideration. A {@link Notification} is posted, only if the user has that option
-     * enabled, and the last known location is sent immediately, only if the user has that option enabled.
-     * <p/>
-     * Finally, if the option to send the location is enabled, the {@link FineLocationSMSIntentService} will be started
-     * and the phone number will be passed as an {@link Intent} extra. The {@link FineLocationSMSIntentService} will
-     * make sure to fetch a more accurate and current location point, then send it to the phone number passed when the
-     * service was started, and then it will kill it self.
+     * {@inheritDoc}
      */
-    private void triggerAlert() {
-        // Get the user preferences
-        final String smsNumber = mSharedPrefs.getString(AlertPreferencesActivity.PREF_KEY_SMS_NUMBER, null);
-        final String smsMessage = mSharedPrefs.getString(AlertPreferencesActivity.PREF_KEY_SMS_MESSAGE,
-                getString(R.string.default_emergency_message));
-        boolean sendLocation = mSharedPrefs.getBoolean(AlertPreferencesActivity.PREF_KEY_SMS_MESSAGE_LOCATION,
-                true);
-        boolean showNotification = mSharedPrefs.getBoolean(AlertPreferencesActivity.PREF_KEY_SHOW_NOTIFICATION,
-                true);
-
-        // Only keep going if we have a valid message and phone number
-        if (!TextUtils.isEmpty(smsNumber) && !TextUtils.isEmpty(smsMessage)) {
-            if (showNotification) {
-                // Only post the notification if the option is enabled
-                showNotification();
-            }
-
-            // Send the SMS with the specific messaged to the specific phone number set by the user
-            SMSUtil.sendSms(smsNumber, smsMessage);
-
-            // Only send the phone's location if the option is enabled
-            if (sendLocation) {
-                // Get the last known location and send it to the specific phone number
-                Location location = mLocationManager
-                        .getLastKnownLocation(LocationManager.NETWORK_PROVIDER);
-                if (location != null) {
-                    double latitude = location.getLatitude();
-                    double longitude = location.getLongitude();
-
-                    // Format the message with specific coordinates
-                    String message = String.format(getString(R.string.message_last_location),
-                            Double.toString(latitude), Double.toString(longitude),
-                            SMSUtil.getFormattedTimestamp(this, location.getTime()));
-
-                    // Send the SMS with the last known location
-                    SMSUtil.sendSms(smsNumber, message);
+    @Override
+    public void onDataChanged(DataEventBuffer dataEvents) {
+        final List<DataEvent> events = FreezableUtils.freezeIterable(dataEvents);
+        for (DataEvent event : events) {
+            Uri uri = event.getDataItem().getUri();
+            if (MetricsSnapshot.WATCH_URI_PATH.equals(uri.getPath()) && event.getType() == DataEvent.TYPE_CHANGED) {
+                byte[] payload = DataMapItem.fromDataItem(event.getDataItem()).getDataMap()
+                        .getByteArray(MetricsSnapshot.FIELD_SNAPSHOT);
+                MetricsSnapshot snapshot = MetricsSnapshot.fromByteArray(payload);
+                if (snapshot == null) {
+                    Log.e(TAG, "ERROR: Could not decode the metrics published by the watch");
+                    continue;
                 }
-
-                // Start the location service and pass the phone number as an extra
-                Intent locationService = new Intent(this, FineLocationSMSIntentService.class);
-                locationService.putExtra(FineLocationSMSIntentService.KEY_SMS_PHONE_NUMBER, smsNumber);
-                startService(locationService);
+                sWatchMetrics = snapshot;
+                logMetrics(snapshot);
             }
         }
     }
 
     /**
-     * Post the notification to the {@link NotificationManager}
+     * Print the state of the pipeline with the stage timings of the latest alerts, the outbox, and the metrics of both
+     * the phone (SMS latencies included) and the watch, through {@code adb shell dumpsys activity service
+     * WearAlertService}.
      */
-    private void showNotification() {
-        NotificationCompat.Builder builder =
-                new NotificationCompat.Builder(this)
-                        .setSmallIcon(R.drawable.ic_launcher)
-                        .setContentTitle(getString(R.string.notification_title))
-                        .setContentText(getString(R.string.notification_content))
-                        .setAutoCancel(true)
-                        .setVisibility(NotificationCompat.VISIBILITY_SECRET)
-                        .setLocalOnly(false);
-
-        Intent notificationIntent = new Intent(this, AlertPreferencesActivity.class);
-        PendingIntent contentIntent = PendingIntent.getActivity(this, 0, notificationIntent,
-                PendingIntent.FLAG_UPDATE_CURRENT);
-        builder.setContentIntent(contentIntent);
-
-        if (mNotificationManager != null) {
-            mNotificationManager.notify(ALERT_NOTIFICATION_ID, builder.build());
+    @Override
+    protected void dump(FileDescriptor fd, PrintWriter writer, String[] args) {
+        writer.println("WearAlertService state:");
+        writer.println("  pipeline:");
+        AlertPipeline.getInstance(this).dump(writer, "    ");
+
+        writer.println("  outbox:");
+        SmsOutbox.getInstance(this).dump(writer, "    ");
+
+        // The SMS latencies are in the phone metrics
+        writer.println("  sms awaiting delivery: " + SmsTracker.getInstance().getAwaitingDeliveryCount());
+
+        writer.println("  phone metrics:");
+        MetricsRegistry.getDefault().snapshot().dump(writer, "    ");
+        MetricsSnapshot watchMetrics = sWatchMetrics;
+        if (watchMetrics != null) {
+            writer.println("  watch metrics, " + (System.currentTimeMillis() - watchMetrics.getTakenAt())
+                    + "ms old:");
+            watchMetrics.dump(writer, "    ");
+        } else {
+            writer.println("  watch metrics: none received yet");
         }
     }
 
-    private static class ViewHandler extends Handler {
-
-        // Members
-        private WeakReference<WearAlertService> mmParent;
-
-        /**
-         * Constructor.
-         *
-         * @param parent
-         *         {@link WearAlertService}
-         */
-        private ViewHandler(WearAlertService parent) {
-            mmParent = new WeakReference<>(parent);
-        }
-
-        /**
-         * {@inheritDoc}
-         */
-        @Override
-        public void handleMessage(Message msg) {
-            WearAlertService parent = mmParent.get();
-            switch (msg.what) {
-                case MSG_TRIGGER_ALERT:
-                    if (parent != null) {
-                        parent.triggerAlert();
-                    }
-                    break;
-            }
-        }
+    private void logMetrics(MetricsSnapshot watchMetrics) {
+        StringWriter out = new StringWriter();
+        PrintWriter writer = new PrintWriter(out);
+        writer.println("Phone metrics:");
+        MetricsRegistry.getDefault().snapshot().dump(writer, "  ");
+        writer.println("Watch metrics:");
+        watchMetrics.dump(writer, "  ");
+        writer.flush();
+        Log.d(TAG, out.toString());
     }
 
 }
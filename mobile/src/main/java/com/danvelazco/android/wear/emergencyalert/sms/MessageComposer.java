@@ -0,0 +1,72 @@
+/*
+ * Copyright (C) 2014 Daniel Velazco
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.danvelazco.android.wear.emergencyalert.sms;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Decides whether the alert message and the last known location go out as a single SMS. Merging them means one carrier
+ * submission and one notification on the recipient's phone, and the location can't arrive before the alert. They are
+ * only merged when that doesn't take more segments than sending them separately, and stays within {@link
+ * #MAX_MERGED_SEGMENTS}.
+ * <p/>
+ * This doesn't depend on the Android framework, so it can also be measured on a plain JVM.
+ *
+ * @since 10/18/26
+ */
+public final class MessageComposer {
+
+    // Constants
+    public static final int MAX_MERGED_SEGMENTS = 2;
+    public static final String SEPARATOR = "\n";
+
+    private MessageComposer() {
+    }
+
+    /**
+     * Compose the messages to send for an alert.
+     *
+     * @param alert
+     *         {@link String} alert message
+     * @param location
+     *         {@link String} location message, or null if there is none
+     * @param transliterate
+     *         {@link boolean} whether the messages will be transliterated when that saves segments, see {@link
+     *         SmsSegments#optimize(String)}
+     * @return {@link List} with either the merged message, or the alert and the location messages in order
+     */
+    public static List<String> compose(String alert, String location, boolean transliterate) {
+        if (location == null) {
+            return Collections.singletonList(alert);
+        }
+
+        String merged = alert + SEPARATOR + location;
+        int mergedSegments = countSegments(merged, transliterate);
+        int separateSegments = countSegments(alert, transliterate) + countSegments(location, transliterate);
+        if (mergedSegments <= MAX_MERGED_SEGMENTS && mergedSegments <= separateSegments) {
+            return Collections.singletonList(merged);
+        }
+        return Arrays.asList(alert, location);
+    }
+
+    private static int countSegments(String message, boolean transliterate) {
+        return SmsSegments.countSegments(transliterate ? SmsSegments.optimize(message) : message);
+    }
+
+}
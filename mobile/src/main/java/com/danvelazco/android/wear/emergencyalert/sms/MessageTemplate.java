@@ -0,0 +1,310 @@
+/*
+ * Copyright (C) 2014 Daniel Velazco
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.danvelazco.android.wear.emergencyalert.sms;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A user editable SMS message with named placeholders, such as {@code "{maps_url} on {time}"}. The text is compiled
+ * once into literal parts and placeholders, so rendering is a single pass that writes everything into a reused buffer.
+ * Anything between braces that isn't a known placeholder is kept as it is, and a placeholder without a value is
+ * rendered empty.
+ * <p/>
+ * This doesn't depend on the Android framework, so it can also be measured on a plain JVM.
+ *
+ * @since 10/18/26
+ */
+public final class MessageTemplate {
+
+    // Constants
+    public static final String PLACEHOLDER_LAT = "lat";
+    public static final String PLACEHOLDER_LON = "lon";
+    public static final String PLACEHOLDER_ACCURACY = "accuracy";
+    public static final String PLACEHOLDER_TIME = "time";
+    public static final String PLACEHOLDER_MAPS_URL = "maps_url";
+    public static final String PLACEHOLDER_BATTERY = "battery";
+
+    private static final String[] PLACEHOLDERS = {PLACEHOLDER_LAT, PLACEHOLDER_LON, PLACEHOLDER_ACCURACY,
+            PLACEHOLDER_TIME, PLACEHOLDER_MAPS_URL, PLACEHOLDER_BATTERY};
+    private static final int LAT = 0;
+    private static final int LON = 1;
+    private static final int ACCURACY = 2;
+    private static final int TIME = 3;
+    private static final int MAPS_URL = 4;
+    private static final int BATTERY = 5;
+
+    private static final String MAPS_URL_PREFIX = "http://maps.google.com/maps?q=";
+    private static final int COORDINATE_DECIMALS = 6;
+    private static final long[] POWERS_OF_TEN = {1, 10, 100, 1000, 10000, 100000, 1000000};
+    private static final int INITIAL_BUFFER_SIZE = 256;
+
+    // Every thread renders into its own buffer, which is reused for every message
+    private static final ThreadLocal<StringBuilder> sBuffer = new ThreadLocal<StringBuilder>() {
+        @Override
+        protected StringBuilder initialValue() {
+            return new StringBuilder(INITIAL_BUFFER_SIZE);
+        }
+    };
+
+    /**
+     * The values of the placeholders, meant to be reused as well
+     */
+    public static final class Values {
+
+        // Members
+        private boolean mmHasLocation = false;
+        private double mmLatitude = 0;
+        private double mmLongitude = 0;
+        private float mmAccuracy = Float.NaN;
+        private CharSequence mmTime = null;
+        private int mmBattery = -1;
+
+        /**
+         * Forget every value.
+         *
+         * @return {@link Values}
+         */
+        public Values clear() {
+            mmHasLocation = false;
+            mmAccuracy = Float.NaN;
+            mmTime = null;
+            mmBattery = -1;
+            return this;
+        }
+
+        /**
+         * @param latitude
+         *         {@link double}
+         * @param longitude
+         *         {@link double}
+         * @param accuracy
+         *         {@link float} accuracy in meters, {@link Float#NaN} if unknown
+         * @return {@link Values}
+         */
+        public Values setLocation(double latitude, double longitude, float accuracy) {
+            mmHasLocation = true;
+            mmLatitude = latitude;
+            mmLongitude = longitude;
+            mmAccuracy = accuracy;
+            return this;
+        }
+
+        /**
+         * @param time
+         *         {@link CharSequence} already formatted time
+         * @return {@link Values}
+         */
+        public Values setTime(CharSequence time) {
+            mmTime = time;
+            return this;
+        }
+
+        /**
+         * @param battery
+         *         {@link int} battery level in percent, negative if unknown
+         * @return {@link Values}
+         */
+        public Values setBattery(int battery) {
+            mmBattery = battery;
+            return this;
+        }
+    }
+
+    // Members
+    private final String mSource;
+    private final String[] mLiterals;
+    private final int[] mPlaceholders;
+
+    private MessageTemplate(String source, String[] literals, int[] placeholders) {
+        mSource = source;
+        mLiterals = literals;
+        mPlaceholders = placeholders;
+    }
+
+    /**
+     * Compile the text of a template.
+     *
+     * @param source
+     *         {@link String}
+     * @return {@link MessageTemplate}
+     */
+    public static MessageTemplate compile(String source) {
+        if (source == null) {
+            source = "";
+        }
+
+        List<String> literals = new ArrayList<>();
+        List<Integer> placeholders = new ArrayList<>();
+        StringBuilder literal = new StringBuilder();
+        int i = 0;
+        while (i < source.length()) {
+            int open = source.indexOf('{', i);
+            int close = open < 0 ? -1 : source.indexOf('}', open + 1);
+            if (close < 0) {
+                literal.append(source, i, source.length());
+                break;
+            }
+
+            int placeholder = indexOf(source.substring(open + 1, close));
+            if (placeholder < 0) {
+                // Not a placeholder, keep the brace as text and look again right after it
+                literal.append(source, i, open + 1);
+                i = open + 1;
+                continue;
+            }
+            literal.append(source, i, open);
+            literals.add(literal.toString());
+            literal.setLength(0);
+            placeholders.add(placeholder);
+            i = close + 1;
+        }
+        literals.add(literal.toString());
+
+        int[] placeholderArray = new int[placeholders.size()];
+        for (int j = 0; j < placeholderArray.length; j++) {
+            placeholderArray[j] = placeholders.get(j);
+        }
+        return new MessageTemplate(source, literals.toArray(new String[literals.size()]), placeholderArray);
+    }
+
+    private static int indexOf(String name) {
+        for (int i = 0; i < PLACEHOLDERS.length; i++) {
+            if (PLACEHOLDERS[i].equals(name)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * @return {@link String} text the template was compiled from
+     */
+    public String getSource() {
+        return mSource;
+    }
+
+    /**
+     * @param placeholder
+     *         {@link String} name of the placeholder, such as {@link #PLACEHOLDER_TIME}
+     * @return true if the template uses the placeholder, so its value is worth computing
+     */
+    public boolean uses(String placeholder) {
+        int index = indexOf(placeholder);
+        for (int used : mPlaceholders) {
+            if (used == index) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Render the template into the reused buffer of the calling thread.
+     *
+     * @param prefix
+     *         {@link CharSequence} written before the template and separated from it by a space, may be null
+     * @param values
+     *         {@link Values}
+     * @return {@link String} message
+     */
+    public String render(CharSequence prefix, Values values) {
+        StringBuilder buffer = sBuffer.get();
+        buffer.setLength(0);
+        if (prefix != null && prefix.length() > 0) {
+            buffer.append(prefix).append(' ');
+        }
+        renderTo(buffer, values);
+        return buffer.toString();
+    }
+
+    /**
+     * Render the template at the end of a buffer, nothing is allocated unless the buffer has to grow.
+     *
+     * @param out
+     *         {@link StringBuilder}
+     * @param values
+     *         {@link Values}
+     */
+    public void renderTo(StringBuilder out, Values values) {
+        for (int i = 0; i < mPlaceholders.length; i++) {
+            out.append(mLiterals[i]);
+            switch (mPlaceholders[i]) {
+                case LAT:
+                    if (values.mmHasLocation) {
+                        appendCoordinate(out, values.mmLatitude);
+                    }
+                    break;
+                case LON:
+                    if (values.mmHasLocation) {
+                        appendCoordinate(out, values.mmLongitude);
+                    }
+                    break;
+                case ACCURACY:
+                    if (values.mmHasLocation && !Float.isNaN(values.mmAccuracy)) {
+                        out.append(Math.round(values.mmAccuracy));
+                    }
+                    break;
+                case TIME:
+                    if (values.mmTime != null) {
+                        out.append(values.mmTime);
+                    }
+                    break;
+                case MAPS_URL:
+                    if (values.mmHasLocation) {
+                        out.append(MAPS_URL_PREFIX);
+                        appendCoordinate(out, values.mmLatitude);
+                        out.append(',');
+                        appendCoordinate(out, values.mmLongitude);
+                    }
+                    break;
+                case BATTERY:
+                    if (values.mmBattery >= 0) {
+                        out.append(values.mmBattery).append('%');
+                    }
+                    break;
+            }
+        }
+        out.append(mLiterals[mPlaceholders.length]);
+    }
+
+    /**
+     * Append a coordinate with a fixed number of decimals, about 10cm, without going through a {@link String}.
+     */
+    static void appendCoordinate(StringBuilder out, double coordinate) {
+        long scale = POWERS_OF_TEN[COORDINATE_DECIMALS];
+        long scaled = Math.round(Math.abs(coordinate) * scale);
+        if (coordinate < 0 && scaled != 0) {
+            out.append('-');
+        }
+        out.append(scaled / scale).append('.');
+        long fraction = scaled % scale;
+        for (int i = COORDINATE_DECIMALS - 1; i > 0 && fraction < POWERS_OF_TEN[i]; i--) {
+            out.append('0');
+        }
+        out.append(fraction);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public String toString() {
+        return mSource;
+    }
+
+}
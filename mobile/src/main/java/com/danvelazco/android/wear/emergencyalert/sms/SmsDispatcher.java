@@ -0,0 +1,173 @@
+/*
+ * Copyright (C) 2014 Daniel Velazco
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.danvelazco.android.wear.emergencyalert.sms;
+
+import android.content.Context;
+import android.os.SystemClock;
+import android.util.Log;
+import com.danvelazco.android.wear.emergencyalert.util.AlertConfig;
+import com.danvelazco.android.wear.emergencyalert.util.SMSUtil;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Sends the same SMS message to a list of recipients. Each recipient is handled concurrently on a small pool of worker
+ * threads, and the outcome and latency for each recipient is reported back through a {@link Callback} once the carrier
+ * accepted the message, or the {@link SmsOutbox} gave up on it. The messages go through the {@link SmsOutbox}, which
+ * splits long messages into a multipart message and retries failed sends.
+ * <p/>
+ * Before that, the message goes through {@link SmsSegments}. If the user allows it, a message that only needs UCS-2
+ * because of a few characters is transliterated to the GSM 7-bit alphabet when that makes it take fewer segments.
+ *
+ * @since 10/18/26
+ */
+public class SmsDispatcher {
+
+    // Constants
+    private static final String TAG = "SmsDispatcher";
+    private static final int WORKER_COUNT = 4;
+
+    private static final ExecutorService sExecutor = Executors.newFixedThreadPool(WORKER_COUNT);
+
+    /**
+     * Outcome of sending a message to one recipient
+     */
+    public static class Result {
+
+        public final String number;
+        public final boolean success;
+        public final long latencyMs;
+
+        private Result(String number, boolean success, long latencyMs) {
+            this.number = number;
+            this.success = success;
+            this.latencyMs = latencyMs;
+        }
+
+        @Override
+        public String toString() {
+            return "Result{number=" + SMSUtil.redactNumber(number) + ", success=" + success + ", latencyMs="
+                    + latencyMs + "}";
+        }
+    }
+
+    /**
+     * Callback for the outcome of each message to each recipient, called on the thread that learned it. A message that
+     * failed is retried before it is reported.
+     */
+    public interface Callback {
+
+        void onResult(Result result);
+    }
+
+    /**
+     * Send a message to all the recipients, this returns immediately.
+     *
+     * @param context
+     *         {@link Context}
+     * @param recipients
+     *         {@link Collection} of phone numbers
+     * @param message
+     *         {@link String}
+     * @param alertId
+     *         {@link long} ID of the alert the message belongs to, 0 if unknown
+     * @param receivedAt
+     *         {@link long} time the alert was received, in milliseconds since epoch
+     * @param callback
+     *         {@link Callback}, can be null
+     */
+    public static void dispatch(Context context, Collection<String> recipients, String message,
+            long alertId, long receivedAt, Callback callback) {
+        dispatch(context, recipients, Collections.singletonList(message), alertId, receivedAt, callback);
+    }
+
+    /**
+     * Send several messages to all the recipients, this returns immediately. Each recipient gets the messages queued
+     * in order, the outcome of each of them is reported.
+     *
+     * @param context
+     *         {@link Context}
+     * @param recipients
+     *         {@link Collection} of phone numbers
+     * @param messages
+     *         {@link List} of messages
+     * @param alertId
+     *         {@link long} ID of the alert the messages belong to, 0 if unknown
+     * @param receivedAt
+     *         {@link long} time the alert was received, in milliseconds since epoch
+     * @param callback
+     *         {@link Callback}, can be null
+     */
+    public static void dispatch(Context context, Collection<String> recipients, List<String> messages,
+            final long alertId, final long receivedAt, final Callback callback) {
+        final Context appContext = context.getApplicationContext();
+        final List<String> encoded = new ArrayList<>(messages.size());
+        for (String message : messages) {
+            encoded.add(encode(context, message));
+        }
+        for (final String number : recipients) {
+            sExecutor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    // The first call in the process replays the outbox journal, keep it off the caller's thread
+                    SmsOutbox outbox = SmsOutbox.getInstance(appContext);
+                    for (String message : encoded) {
+                        final long start = SystemClock.elapsedRealtime();
+                        outbox.enqueue(number, message, alertId, receivedAt, new SmsOutbox.Listener() {
+                            @Override
+                            public void onResult(boolean sent) {
+                                Result result = new Result(number, sent, SystemClock.elapsedRealtime() - start);
+                                if (result.success) {
+                                    Log.d(TAG, "SMS sent: " + result);
+                                } else {
+                                    Log.e(TAG, "ERROR: failed to send SMS: " + result);
+                                }
+                                if (callback != null) {
+                                    callback.onResult(result);
+                                }
+                            }
+                        });
+                    }
+                }
+            });
+        }
+    }
+
+    /**
+     * Get the version of the message that is actually sent.
+     *
+     * @param context
+     *         {@link Context}
+     * @param message
+     *         {@link String}
+     * @return {@link String}
+     */
+    static String encode(Context context, String message) {
+        String encoded = AlertConfig.get(context).transliterateSms ? SmsSegments.optimize(message) : message;
+        if (encoded != message) {
+            Log.d(TAG, "Transliterated message from " + SmsSegments.calculate(message) + " to "
+                    + SmsSegments.calculate(encoded));
+        }
+        return encoded;
+    }
+
+}
@@ -0,0 +1,432 @@
+/*
+ * Copyright (C) 2014 Daniel Velazco
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.danvelazco.android.wear.emergencyalert.sms;
+
+import android.app.Activity;
+import android.app.AlarmManager;
+import android.app.PendingIntent;
+import android.content.Context;
+import android.content.Intent;
+import android.net.Uri;
+import android.os.AsyncTask;
+import android.os.SystemClock;
+import android.telephony.SmsManager;
+import android.util.Log;
+import com.danvelazco.android.wear.emergencyalert.history.AlertJournal;
+import com.danvelazco.android.wear.emergencyalert.util.SMSUtil;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Map;
+
+/**
+ * Durable outbox for every SMS message we send. An entry is written to the {@link SmsOutboxJournal} before the message
+ * is handed to the {@link SmsManager}, and only removed once the sent {@link PendingIntent} of every part reports
+ * success. The sent and delivery results are also passed on to the {@link SmsTracker}, and every step of a message is
+ * recorded in the {@link AlertJournal}. Failed sends are retried with a
+ * bounded exponential backoff, and whatever is still pending when the process dies is sent again once {@link
+ * #resendPending(Context)} is called in the new process. The time of a scheduled retry is journaled as well, so a
+ * message that was waiting for its retry keeps waiting for it in the new process instead of going out right away.
+ *
+ * @since 10/18/26
+ */
+public class SmsOutbox {
+
+    // Constants
+    private static final String TAG = "SmsOutbox";
+    private static final String JOURNAL_FILE_NAME = "sms_outbox.journal";
+    private static final String URI_SCHEME = "smsoutbox";
+    public static final String ACTION_SMS_SENT = "com.danvelazco.android.wear.emergencyalert.action.SMS_SENT";
+    public static final String ACTION_SMS_DELIVERED =
+            "com.danvelazco.android.wear.emergencyalert.action.SMS_DELIVERED";
+    public static final String ACTION_SMS_RETRY = "com.danvelazco.android.wear.emergencyalert.action.SMS_RETRY";
+    public static final String EXTRA_ENTRY_ID = "_extra_entry_id";
+    public static final String EXTRA_PART = "_extra_part";
+    private static final int MAX_ATTEMPTS = 6;
+    private static final long BASE_BACKOFF_MS = 5000; // 5 seconds
+    private static final long MAX_BACKOFF_MS = 300000; // 5 minutes
+
+    private static SmsOutbox sInstance = null;
+
+    /**
+     * Listener for the final outcome of a message, called at most once and only in the process that enqueued it. It is
+     * called while holding the outbox lock, so it must not block.
+     */
+    public interface Listener {
+
+        /**
+         * @param sent
+         *         true if the carrier accepted every part of the message, false if it was given up on
+         */
+        void onResult(boolean sent);
+    }
+
+    /**
+     * A message to a single phone number
+     */
+    static class Entry {
+
+        final long id;
+        final String number;
+        final String message;
+        final long createdAt;
+        final long alertId;
+        final long receivedAt;
+        int attempts = 0;
+
+        // Time of the scheduled retry in milliseconds since epoch, 0 if none
+        long retryAt = 0;
+
+        // Only valid while a send is in flight in this process
+        boolean inFlight = false;
+        int parts = 0;
+        int pendingParts = 0;
+        boolean partFailed = false;
+        boolean retryScheduled = false;
+        Listener listener = null;
+
+        Entry(long id, String number, String message, long createdAt, long alertId, long receivedAt) {
+            this.id = id;
+            this.number = number;
+            this.message = message;
+            this.createdAt = createdAt;
+            this.alertId = alertId;
+            this.receivedAt = receivedAt;
+        }
+    }
+
+    // Members
+    private final Context mContext;
+    private final SmsOutboxJournal mJournal;
+    private final AlertJournal mAlertJournal;
+    private final Map<Long, Entry> mPending;
+    private long mLastId = 0;
+    private boolean mReplayed = false;
+
+    /**
+     * Get the outbox, the journal is replayed the first time this is called in the process.
+     *
+     * @param context
+     *         {@link Context}
+     * @return {@link SmsOutbox}
+     */
+    public static synchronized SmsOutbox getInstance(Context context) {
+        if (sInstance == null) {
+            sInstance = new SmsOutbox(context.getApplicationContext());
+        }
+        return sInstance;
+    }
+
+    private SmsOutbox(Context context) {
+        mContext = context;
+        mJournal = new SmsOutboxJournal(new File(context.getFilesDir(), JOURNAL_FILE_NAME));
+        mPending = mJournal.replay();
+        mAlertJournal = AlertJournal.getInstance(context);
+        for (long id : mPending.keySet()) {
+            mLastId = Math.max(mLastId, id);
+        }
+    }
+
+    /**
+     * Add a message to the outbox and send it.
+     *
+     * @param number
+     *         {@link String}
+     * @param message
+     *         {@link String}
+     * @param alertId
+     *         {@link long} ID of the alert the message belongs to, 0 if unknown
+     * @param receivedAt
+     *         {@link long} time the alert was received, in milliseconds since epoch
+     * @param listener
+     *         {@link Listener} for the outcome once the carrier accepted the message or it was given up on, a failed
+     *         first attempt is retried before that. Can be null
+     * @return true if the message was handed to the {@link SmsManager}
+     */
+    public boolean enqueue(String number, String message, long alertId, long receivedAt, Listener listener) {
+        Entry entry;
+        synchronized (this) {
+            // IDs only need to be unique within the journal, base them on the clock so they never repeat after a clear
+            mLastId = Math.max(mLastId + 1, System.currentTimeMillis());
+            entry = new Entry(mLastId, number, message, System.currentTimeMillis(), alertId, receivedAt);
+            entry.listener = listener;
+            try {
+                mJournal.appendEnqueued(entry);
+            } catch (IOException e) {
+                // Still try to send it, it just won't survive the process dying
+                Log.e(TAG, "ERROR: failed to write the outbox journal", e);
+            }
+            mPending.put(entry.id, entry);
+        }
+        return send(entry);
+    }
+
+    /**
+     * Send the messages left pending by a previous process, in the background. Meant to be called when a service that
+     * sends messages starts, only the first call in the process does anything.
+     *
+     * @param context
+     *         {@link Context}
+     */
+    public static void resendPending(Context context) {
+        final Context appContext = context.getApplicationContext();
+        AsyncTask.THREAD_POOL_EXECUTOR.execute(new Runnable() {
+            @Override
+            public void run() {
+                getInstance(appContext).resendReplayed();
+            }
+        });
+    }
+
+    /**
+     * Send every replayed message that isn't being sent or waiting for its retry already, those keep their backoff. A
+     * message whose retry was scheduled by the previous process gets its alarm armed again, that replaces the alarm if
+     * it's still set so the message is only sent once.
+     */
+    private synchronized void resendReplayed() {
+        if (mReplayed) {
+            return;
+        }
+        mReplayed = true;
+
+        long now = System.currentTimeMillis();
+        for (Entry entry : new ArrayList<>(mPending.values())) {
+            if (entry.inFlight || entry.retryScheduled) {
+                continue;
+            }
+            if (entry.retryAt > 0) {
+                long delay = Math.max(entry.retryAt - now, 0);
+                Log.d(TAG, "Retrying pending message " + entry.id + " in " + delay + "ms");
+                armRetry(entry, delay);
+            } else {
+                Log.d(TAG, "Resending pending message " + entry.id);
+                send(entry);
+            }
+        }
+    }
+
+    /**
+     * Called with the result code of the sent {@link PendingIntent} of one of the parts of a message.
+     *
+     * @param id
+     *         {@link long} ID of the entry
+     * @param resultCode
+     *         {@link int} result code of the broadcast
+     */
+    synchronized void onPartSent(long id, int resultCode) {
+        Entry entry = mPending.get(id);
+        if (entry == null) {
+            return;
+        }
+
+        if (resultCode != Activity.RESULT_OK) {
+            Log.e(TAG, "ERROR: failed to send part of message " + id + ", result code " + resultCode);
+            entry.partFailed = true;
+        }
+        if (--entry.pendingParts > 0) {
+            return;
+        }
+        entry.inFlight = false;
+
+        if (entry.partFailed) {
+            onSendFailed(entry);
+        } else {
+            try {
+                mJournal.appendSent(entry);
+            } catch (IOException e) {
+                Log.e(TAG, "ERROR: failed to write the outbox journal", e);
+            }
+            remove(entry);
+            SmsTracker.getInstance().onSent(entry.id, entry.alertId, entry.receivedAt, entry.parts, mAlertJournal);
+            notifyListener(entry, true);
+        }
+    }
+
+    /**
+     * Called with the delivery report of one of the parts of a message.
+     *
+     * @param id
+     *         {@link long} ID of the entry
+     */
+    void onPartDelivered(long id) {
+        SmsTracker.getInstance().onPartDelivered(id, mAlertJournal);
+    }
+
+    /**
+     * Retry a failed entry after its backoff, or give up on it once it ran out of attempts.
+     */
+    private void onSendFailed(Entry entry) {
+        if (entry.attempts < MAX_ATTEMPTS) {
+            scheduleRetry(entry);
+            return;
+        }
+
+        Log.e(TAG, "ERROR: giving up on message " + entry.id + " after " + entry.attempts + " attempts");
+        try {
+            mJournal.appendFailed(entry);
+        } catch (IOException e) {
+            Log.e(TAG, "ERROR: failed to write the outbox journal", e);
+        }
+        mAlertJournal.recordSmsFailed(entry.alertId, entry.id, entry.attempts);
+        remove(entry);
+        notifyListener(entry, false);
+    }
+
+    private static void notifyListener(Entry entry, boolean sent) {
+        Listener listener = entry.listener;
+        entry.listener = null;
+        if (listener != null) {
+            listener.onResult(sent);
+        }
+    }
+
+    private void remove(Entry entry) {
+        mPending.remove(entry.id);
+        if (mPending.isEmpty()) {
+            // Nothing left to replay, start over with an empty journal
+            mJournal.clear();
+        }
+    }
+
+    /**
+     * Called when the backoff of an entry is over.
+     *
+     * @param id
+     *         {@link long} ID of the entry
+     */
+    synchronized void onRetry(long id) {
+        Entry entry = mPending.get(id);
+        if (entry != null && !entry.inFlight) {
+            entry.retryScheduled = false;
+            send(entry);
+        }
+    }
+
+    /**
+     * Hand the message to the {@link SmsManager}, with a sent {@link PendingIntent} for each part. Only the
+     * bookkeeping is done while holding the lock, so messages to different recipients can be sent concurrently.
+     */
+    private boolean send(Entry entry) {
+        SmsManager smsManager = SmsManager.getDefault();
+        ArrayList<String> parts = smsManager.divideMessage(entry.message);
+        ArrayList<PendingIntent> sentIntents = new ArrayList<>(parts.size());
+        ArrayList<PendingIntent> deliveryIntents = new ArrayList<>(parts.size());
+        synchronized (this) {
+            entry.attempts++;
+            entry.retryAt = 0;
+            try {
+                mJournal.appendAttempt(entry);
+            } catch (IOException e) {
+                Log.e(TAG, "ERROR: failed to write the outbox journal", e);
+            }
+
+            for (int i = 0; i < parts.size(); i++) {
+                sentIntents.add(getStatusIntent(ACTION_SMS_SENT, entry, i));
+                deliveryIntents.add(getStatusIntent(ACTION_SMS_DELIVERED, entry, i));
+            }
+            entry.inFlight = true;
+            entry.parts = parts.size();
+            entry.pendingParts = parts.size();
+            entry.partFailed = false;
+            mAlertJournal.recordSmsSubmitted(entry.alertId, entry.id, entry.number, entry.parts, entry.attempts);
+        }
+
+        try {
+            if (parts.size() > 1) {
+                smsManager.sendMultipartTextMessage(entry.number, null, parts, sentIntents, deliveryIntents);
+            } else {
+                smsManager.sendTextMessage(entry.number, null, entry.message, sentIntents.get(0),
+                        deliveryIntents.get(0));
+            }
+            return true;
+        } catch (RuntimeException e) {
+            Log.e(TAG, "ERROR: failed to send message " + entry.id, e);
+            synchronized (this) {
+                entry.inFlight = false;
+                onSendFailed(entry);
+            }
+            return false;
+        }
+    }
+
+    /**
+     * Print the messages still waiting in the outbox, for {@code dumpsys}. The message text is left out, and the phone
+     * numbers are redacted.
+     *
+     * @param writer
+     *         {@link PrintWriter}
+     * @param prefix
+     *         {@link String} to indent every line with
+     */
+    public synchronized void dump(PrintWriter writer, String prefix) {
+        long now = System.currentTimeMillis();
+        writer.println(prefix + "pending messages (" + mPending.size() + "), lastId=" + mLastId + ":");
+        for (Entry entry : mPending.values()) {
+            writer.println(prefix + "  message " + entry.id + ": alert=" + entry.alertId + " number="
+                    + SMSUtil.redactNumber(entry.number) + " age=" + (now - entry.createdAt) + "ms attempts="
+                    + entry.attempts + " inFlight=" + entry.inFlight + " parts=" + entry.parts + " pendingParts="
+                    + entry.pendingParts + " partFailed=" + entry.partFailed + " retryScheduled="
+                    + entry.retryScheduled);
+        }
+    }
+
+    private void scheduleRetry(Entry entry) {
+        long backoff = Math.min(BASE_BACKOFF_MS << (entry.attempts - 1), MAX_BACKOFF_MS);
+        Log.d(TAG, "Retrying message " + entry.id + " in " + backoff + "ms");
+        entry.retryAt = System.currentTimeMillis() + backoff;
+        try {
+            mJournal.appendRetryScheduled(entry);
+        } catch (IOException e) {
+            Log.e(TAG, "ERROR: failed to write the outbox journal", e);
+        }
+        armRetry(entry, backoff);
+    }
+
+    /**
+     * Set the alarm of a retry, an alarm already set for the entry is replaced.
+     */
+    private void armRetry(Entry entry, long delayMs) {
+        entry.retryScheduled = true;
+        Intent intent = new Intent(ACTION_SMS_RETRY, getEntryUri(entry, 0), mContext, SmsStatusReceiver.class);
+        intent.putExtra(EXTRA_ENTRY_ID, entry.id);
+        AlarmManager alarmManager = (AlarmManager) mContext.getSystemService(Context.ALARM_SERVICE);
+        alarmManager.set(AlarmManager.ELAPSED_REALTIME_WAKEUP, SystemClock.elapsedRealtime() + delayMs,
+                PendingIntent.getBroadcast(mContext, 0, intent, PendingIntent.FLAG_UPDATE_CURRENT));
+    }
+
+    private PendingIntent getStatusIntent(String action, Entry entry, int part) {
+        Intent intent = new Intent(action, getEntryUri(entry, part), mContext, SmsStatusReceiver.class);
+        intent.putExtra(EXTRA_ENTRY_ID, entry.id);
+        intent.putExtra(EXTRA_PART, part);
+        return PendingIntent.getBroadcast(mContext, 0, intent, PendingIntent.FLAG_UPDATE_CURRENT);
+    }
+
+    /**
+     * Each part gets its own data {@link Uri}, otherwise the {@linkplain PendingIntent pending intents} would be
+     * considered the same and their extras overwritten.
+     */
+    private static Uri getEntryUri(Entry entry, int part) {
+        return new Uri.Builder()
+                .scheme(URI_SCHEME)
+                .authority(Long.toString(entry.id))
+                .appendPath(Integer.toString(part))
+                .build();
+    }
+
+}
@@ -0,0 +1,219 @@
+/*
+ * Copyright (C) 2014 Daniel Velazco
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.danvelazco.android.wear.emergencyalert.sms;
+
+import android.util.Log;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Append-only on-disk journal of the {@link SmsOutbox}. Every change to an entry is written as a new length-prefixed
+ * record at the end of the file, so writing is a single sequential append and the file is never rewritten. The state
+ * of the outbox is rebuilt by replaying all the records, a partially written record at the end (the process died
+ * while appending) is ignored.
+ *
+ * @since 10/18/26
+ */
+class SmsOutboxJournal {
+
+    // Constants
+    private static final String TAG = "SmsOutboxJournal";
+    private static final byte RECORD_ENQUEUED = 1;
+    private static final byte RECORD_ATTEMPT = 2;
+    private static final byte RECORD_SENT = 3;
+    private static final byte RECORD_FAILED = 4;
+    private static final byte RECORD_ENQUEUED_FOR_ALERT = 5;
+    private static final byte RECORD_RETRY_SCHEDULED = 6;
+
+    // Members
+    private final File mFile;
+    private final ByteArrayOutputStream mRecordBuffer = new ByteArrayOutputStream(256);
+    private final DataOutputStream mRecordWriter = new DataOutputStream(mRecordBuffer);
+    private FileOutputStream mOutputStream = null;
+
+    /**
+     * Constructor.
+     *
+     * @param file
+     *         {@link File} the journal is stored in
+     */
+    SmsOutboxJournal(File file) {
+        mFile = file;
+    }
+
+    /**
+     * Replay the whole journal.
+     *
+     * @return {@link Map} of entry ID to the {@linkplain SmsOutbox.Entry entries} that are still pending, in the order
+     * they were enqueued
+     */
+    synchronized Map<Long, SmsOutbox.Entry> replay() {
+        Map<Long, SmsOutbox.Entry> entries = new LinkedHashMap<>();
+        if (!mFile.exists()) {
+            return entries;
+        }
+
+        DataInputStream in = null;
+        try {
+            in = new DataInputStream(new BufferedInputStream(new FileInputStream(mFile)));
+            while (true) {
+                int length = in.readInt();
+                byte[] record = new byte[length];
+                in.readFully(record);
+                readRecord(new DataInputStream(new ByteArrayInputStream(record)), entries);
+            }
+        } catch (EOFException e) {
+            // Reached the end, or a record that was only partially written
+        } catch (IOException e) {
+            Log.e(TAG, "ERROR: failed to replay the journal", e);
+        } finally {
+            closeQuietly(in);
+        }
+        return entries;
+    }
+
+    private void readRecord(DataInputStream record, Map<Long, SmsOutbox.Entry> entries) throws IOException {
+        byte type = record.readByte();
+        long id = record.readLong();
+        switch (type) {
+            case RECORD_ENQUEUED:
+                String number = record.readUTF();
+                String message = record.readUTF();
+                long createdAt = record.readLong();
+                entries.put(id, new SmsOutbox.Entry(id, number, message, createdAt, 0, createdAt));
+                break;
+            case RECORD_ENQUEUED_FOR_ALERT:
+                number = record.readUTF();
+                message = record.readUTF();
+                createdAt = record.readLong();
+                long alertId = record.readLong();
+                long receivedAt = record.readLong();
+                entries.put(id, new SmsOutbox.Entry(id, number, message, createdAt, alertId, receivedAt));
+                break;
+            case RECORD_ATTEMPT:
+                SmsOutbox.Entry entry = entries.get(id);
+                if (entry != null) {
+                    entry.attempts = record.readInt();
+                    entry.retryAt = 0;
+                }
+                break;
+            case RECORD_RETRY_SCHEDULED:
+                entry = entries.get(id);
+                if (entry != null) {
+                    entry.retryAt = record.readLong();
+                }
+                break;
+            case RECORD_SENT:
+            case RECORD_FAILED:
+                entries.remove(id);
+                break;
+        }
+    }
+
+    synchronized void appendEnqueued(SmsOutbox.Entry entry) throws IOException {
+        mRecordWriter.writeByte(RECORD_ENQUEUED_FOR_ALERT);
+        mRecordWriter.writeLong(entry.id);
+        mRecordWriter.writeUTF(entry.number);
+        mRecordWriter.writeUTF(entry.message);
+        mRecordWriter.writeLong(entry.createdAt);
+        mRecordWriter.writeLong(entry.alertId);
+        mRecordWriter.writeLong(entry.receivedAt);
+        commitRecord();
+    }
+
+    synchronized void appendAttempt(SmsOutbox.Entry entry) throws IOException {
+        mRecordWriter.writeByte(RECORD_ATTEMPT);
+        mRecordWriter.writeLong(entry.id);
+        mRecordWriter.writeInt(entry.attempts);
+        commitRecord();
+    }
+
+    synchronized void appendRetryScheduled(SmsOutbox.Entry entry) throws IOException {
+        mRecordWriter.writeByte(RECORD_RETRY_SCHEDULED);
+        mRecordWriter.writeLong(entry.id);
+        mRecordWriter.writeLong(entry.retryAt);
+        commitRecord();
+    }
+
+    synchronized void appendSent(SmsOutbox.Entry entry) throws IOException {
+        mRecordWriter.writeByte(RECORD_SENT);
+        mRecordWriter.writeLong(entry.id);
+        commitRecord();
+    }
+
+    synchronized void appendFailed(SmsOutbox.Entry entry) throws IOException {
+        mRecordWriter.writeByte(RECORD_FAILED);
+        mRecordWriter.writeLong(entry.id);
+        commitRecord();
+    }
+
+    /**
+     * Drop all the records. Only call this when there are no pending entries left.
+     */
+    synchronized void clear() {
+        closeQuietly(mOutputStream);
+        mOutputStream = null;
+        if (mFile.exists() && !mFile.delete()) {
+            Log.e(TAG, "ERROR: failed to clear the journal");
+        }
+    }
+
+    /**
+     * Write the buffered record to the end of the file with a single write.
+     */
+    private void commitRecord() throws IOException {
+        try {
+            if (mOutputStream == null) {
+                mOutputStream = new FileOutputStream(mFile, true);
+            }
+            int length = mRecordBuffer.size();
+            byte[] record = new byte[4 + length];
+            record[0] = (byte) (length >>> 24);
+            record[1] = (byte) (length >>> 16);
+            record[2] = (byte) (length >>> 8);
+            record[3] = (byte) length;
+            System.arraycopy(mRecordBuffer.toByteArray(), 0, record, 4, length);
+            mOutputStream.write(record);
+            mOutputStream.flush();
+        } finally {
+            mRecordBuffer.reset();
+        }
+    }
+
+    private static void closeQuietly(Closeable closeable) {
+        if (closeable != null) {
+            try {
+                closeable.close();
+            } catch (IOException e) {
+                // Ignore
+            }
+        }
+    }
+
+}
@@ -0,0 +1,298 @@
+/*
+ * Copyright (C) 2014 Daniel Velazco
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.danvelazco.android.wear.emergencyalert.sms;
+
+import java.text.Normalizer;
+
+/**
+ * Calculates how many SMS segments a message takes. A message that only uses the GSM 03.38 default alphabet is sent
+ * as 7-bit septets, where characters of the extension table take two septets. A single character outside of it makes
+ * the whole message go out as UCS-2, which fits far fewer characters per segment. Long messages are split into
+ * segments that lose some room to the concatenation header, and an escape sequence or a surrogate pair is never split
+ * across two segments.
+ * <p/>
+ * Since the recipients only need to read the message, a message can also be transliterated to the GSM 7-bit alphabet
+ * (smart quotes, dashes, accents...) through {@link #optimize(String)}, when that makes it take fewer segments.
+ * <p/>
+ * This doesn't depend on the Android framework, so it can also be measured on a plain JVM.
+ *
+ * @since 10/18/26
+ */
+public final class SmsSegments {
+
+    // Constants
+    public static final int GSM7_SINGLE_SEPTETS = 160;
+    public static final int GSM7_MULTI_SEPTETS = 153;
+    public static final int UCS2_SINGLE_CHARS = 70;
+    public static final int UCS2_MULTI_CHARS = 67;
+
+    private static final String GSM7_BASIC = "@£$¥èéùìòÇ\nØø\rÅåΔ_ΦΓΛΩΠΨΣΘΞÆæßÉ !\"#¤%&'()*+,-./0123456789:;<=>?"
+            + "¡ABCDEFGHIJKLMNOPQRSTUVWXYZÄÖÑÜ§¿abcdefghijklmnopqrstuvwxyzäöñüà";
+    private static final String GSM7_EXTENSION = "\f^{}\\[~]|€";
+
+    // Septets taken by each character, 0 if it is not part of the alphabet
+    private static final byte[] SEPTETS = new byte['€' + 1];
+    static {
+        for (int i = 0; i < GSM7_BASIC.length(); i++) {
+            SEPTETS[GSM7_BASIC.charAt(i)] = 1;
+        }
+        for (int i = 0; i < GSM7_EXTENSION.length(); i++) {
+            SEPTETS[GSM7_EXTENSION.charAt(i)] = 2;
+        }
+    }
+
+    /**
+     * Cost of sending a message
+     */
+    public static final class Cost {
+
+        public final boolean gsm7;
+        public final int length;
+        public final int segments;
+        public final int remaining;
+
+        private Cost(boolean gsm7, int length, int segments, int remaining) {
+            this.gsm7 = gsm7;
+            this.length = length;
+            this.segments = segments;
+            this.remaining = remaining;
+        }
+
+        @Override
+        public String toString() {
+            return "Cost{gsm7=" + gsm7 + ", length=" + length + ", segments=" + segments + ", remaining=" + remaining
+                    + "}";
+        }
+    }
+
+    private SmsSegments() {
+    }
+
+    /**
+     * Calculate the cost of sending a message.
+     *
+     * @param text
+     *         {@link CharSequence}
+     * @return {@link Cost}
+     */
+    public static Cost calculate(CharSequence text) {
+        boolean gsm7 = isGsm7(text);
+        int length = getEncodedLength(text);
+        int segments = countSegments(text);
+        int capacity;
+        if (segments == 1) {
+            capacity = gsm7 ? GSM7_SINGLE_SEPTETS : UCS2_SINGLE_CHARS;
+        } else {
+            capacity = segments * (gsm7 ? GSM7_MULTI_SEPTETS : UCS2_MULTI_CHARS);
+        }
+        return new Cost(gsm7, length, segments, Math.max(capacity - length, 0));
+    }
+
+    /**
+     * Get the characters of the text that are not part of the GSM 7-bit alphabet, the ones that make it go out as
+     * UCS-2.
+     *
+     * @param text
+     *         {@link CharSequence}
+     * @return {@link String} with each of them once, in order, empty if there are none
+     */
+    public static String getNonGsm7Characters(CharSequence text) {
+        StringBuilder characters = new StringBuilder();
+        for (int i = 0; i < text.length(); i++) {
+            int codePoint = Character.codePointAt(text, i);
+            if (Character.charCount(codePoint) > 1 || getSeptets(text.charAt(i)) == 0) {
+                String character = new String(Character.toChars(codePoint));
+                if (characters.indexOf(character) < 0) {
+                    characters.append(character);
+                }
+            }
+            i += Character.charCount(codePoint) - 1;
+        }
+        return characters.toString();
+    }
+
+    /**
+     * Replace the characters that are not part of the GSM 7-bit alphabet with the closest ones that are, when there is
+     * one. Characters that have no replacement, such as emoji, are kept.
+     *
+     * @param text
+     *         {@link CharSequence}
+     * @return {@link String}
+     */
+    public static String transliterate(CharSequence text) {
+        StringBuilder out = new StringBuilder(text.length());
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (getSeptets(c) != 0) {
+                out.append(c);
+                continue;
+            }
+
+            switch (c) {
+                case '\u2018': // Single quotation marks
+                case '\u2019':
+                case '\u201a':
+                case '\u201b':
+                case '\u2032':
+                case '\u00b4':
+                case '`':
+                    out.append('\'');
+                    break;
+                case '\u201c': // Double quotation marks
+                case '\u201d':
+                case '\u201e':
+                case '\u201f':
+                case '\u2033':
+                case '\u00ab':
+                case '\u00bb':
+                    out.append('"');
+                    break;
+                case '\u2010': // Hyphens and dashes
+                case '\u2011':
+                case '\u2012':
+                case '\u2013':
+                case '\u2014':
+                case '\u2015':
+                case '\u2212':
+                    out.append('-');
+                    break;
+                case '\u2026': // Ellipsis
+                    out.append("...");
+                    break;
+                case '\u2022': // Bullet
+                case '\u00b7':
+                    out.append('*');
+                    break;
+                case '\u00a0': // Spaces
+                case '\u2002':
+                case '\u2003':
+                case '\u2009':
+                case '\t':
+                    out.append(' ');
+                    break;
+                default:
+                    // Drop the accent of letters that only exist in the alphabet without it
+                    String decomposed = Normalizer.normalize(String.valueOf(c), Normalizer.Form.NFD);
+                    if (decomposed.length() > 1 && getSeptets(decomposed.charAt(0)) == 1) {
+                        out.append(decomposed.charAt(0));
+                    } else {
+                        out.append(c);
+                    }
+                    break;
+            }
+        }
+        return out.toString();
+    }
+
+    /**
+     * Get the version of the message that takes the fewest segments, the transliterated one if it fits in fewer
+     * segments than the original, or else the original.
+     *
+     * @param message
+     *         {@link String}
+     * @return {@link String}
+     */
+    public static String optimize(String message) {
+        if (isGsm7(message)) {
+            return message;
+        }
+        String transliterated = transliterate(message);
+        return countSegments(transliterated) < countSegments(message) ? transliterated : message;
+    }
+
+    /**
+     * @param c
+     *         {@link char}
+     * @return {@link int} septets the character takes in the GSM 7-bit alphabet, 0 if it is not part of it
+     */
+    public static int getSeptets(char c) {
+        return c < SEPTETS.length ? SEPTETS[c] : 0;
+    }
+
+    /**
+     * @param text
+     *         {@link CharSequence}
+     * @return true if every character of the text is part of the GSM 7-bit alphabet
+     */
+    public static boolean isGsm7(CharSequence text) {
+        for (int i = 0; i < text.length(); i++) {
+            if (getSeptets(text.charAt(i)) == 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Get the length of the text in the units of its encoding, septets for GSM 7-bit and chars for UCS-2.
+     *
+     * @param text
+     *         {@link CharSequence}
+     * @return {@link int}
+     */
+    public static int getEncodedLength(CharSequence text) {
+        int septets = 0;
+        for (int i = 0; i < text.length(); i++) {
+            int length = getSeptets(text.charAt(i));
+            if (length == 0) {
+                return text.length();
+            }
+            septets += length;
+        }
+        return septets;
+    }
+
+    /**
+     * Count the segments the text is sent as, without allocating anything.
+     *
+     * @param text
+     *         {@link CharSequence}
+     * @return {@link int} number of segments, 1 for an empty text
+     */
+    public static int countSegments(CharSequence text) {
+        boolean gsm7 = isGsm7(text);
+        int length = getEncodedLength(text);
+        if (length <= (gsm7 ? GSM7_SINGLE_SEPTETS : UCS2_SINGLE_CHARS)) {
+            return 1;
+        }
+
+        int capacity = gsm7 ? GSM7_MULTI_SEPTETS : UCS2_MULTI_CHARS;
+        int segments = 1;
+        int used = 0;
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            int units;
+            if (gsm7) {
+                units = getSeptets(c);
+            } else if (Character.isHighSurrogate(c) && i + 1 < text.length()
+                    && Character.isLowSurrogate(text.charAt(i + 1))) {
+                units = 2;
+                i++;
+            } else {
+                units = 1;
+            }
+
+            if (used + units > capacity) {
+                segments++;
+                used = 0;
+            }
+            used += units;
+        }
+        return segments;
+    }
+
+}
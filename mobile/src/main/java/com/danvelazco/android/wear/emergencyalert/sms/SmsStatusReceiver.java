@@ -0,0 +1,67 @@
+/*
+ * Copyright (C) 2014 Daniel Velazco
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.danvelazco.android.wear.emergencyalert.sms;
+
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.os.AsyncTask;
+
+/**
+ * Receives the sent results and delivery reports of the messages in the {@link SmsOutbox} and the alarms for retrying
+ * them.
+ *
+ * @since 10/18/26
+ */
+public class SmsStatusReceiver extends BroadcastReceiver {
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void onReceive(Context context, Intent intent) {
+        final long id = intent.getLongExtra(SmsOutbox.EXTRA_ENTRY_ID, -1);
+        if (id == -1) {
+            return;
+        }
+
+        // The outbox may have to replay its journal first and a retry sends the message, neither belongs on the
+        // main thread. The results are still handled one at a time, in the order they were received
+        final Context appContext = context.getApplicationContext();
+        final String action = intent.getAction();
+        final int resultCode = getResultCode();
+        final PendingResult pendingResult = goAsync();
+        AsyncTask.SERIAL_EXECUTOR.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    SmsOutbox outbox = SmsOutbox.getInstance(appContext);
+                    if (SmsOutbox.ACTION_SMS_SENT.equals(action)) {
+                        outbox.onPartSent(id, resultCode);
+                    } else if (SmsOutbox.ACTION_SMS_DELIVERED.equals(action)) {
+                        outbox.onPartDelivered(id);
+                    } else if (SmsOutbox.ACTION_SMS_RETRY.equals(action)) {
+                        outbox.onRetry(id);
+                    }
+                } finally {
+                    pendingResult.finish();
+                }
+            }
+        });
+    }
+
+}
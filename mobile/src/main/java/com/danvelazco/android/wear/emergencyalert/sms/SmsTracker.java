@@ -0,0 +1,134 @@
+/*
+ * Copyright (C) 2014 Daniel Velazco
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.danvelazco.android.wear.emergencyalert.sms;
+
+import android.util.Log;
+import com.danvelazco.android.wear.emergencyalert.data.MetricsRegistry;
+import com.danvelazco.android.wear.emergencyalert.history.AlertJournal;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Tracks every message of the {@link SmsOutbox} from the moment its alert was received until the carrier accepted it
+ * (sent) and the recipient got it (delivered). The latencies of both steps are recorded in {@link MetricsRegistry}
+ * histograms so carrier slowdowns show up with the other metrics, and both steps are also recorded in the {@link
+ * AlertJournal}.
+ *
+ * @since 10/18/26
+ */
+public class SmsTracker {
+
+    // Constants
+    private static final String TAG = "SmsTracker";
+    private static final int MAX_TRACKED_MESSAGES = 32;
+
+    private static final MetricsRegistry.Histogram sReceiveToSentMs = MetricsRegistry.getDefault()
+            .histogram("phone.sms.receive_to_sent_ms", MetricsRegistry.LATENCY_BUCKETS_MS);
+    private static final MetricsRegistry.Histogram sSentToDeliveredMs = MetricsRegistry.getDefault()
+            .histogram("phone.sms.sent_to_delivered_ms", MetricsRegistry.LATENCY_BUCKETS_MS);
+
+    private static final SmsTracker sInstance = new SmsTracker();
+
+    /**
+     * A message that was accepted by the carrier and is waiting for its delivery reports
+     */
+    private static class SentMessage {
+
+        final long alertId;
+        final long sentAt;
+        int pendingParts;
+
+        SentMessage(long alertId, long sentAt, int parts) {
+            this.alertId = alertId;
+            this.sentAt = sentAt;
+            this.pendingParts = parts;
+        }
+    }
+
+    // Members
+    private final Map<Long, SentMessage> mAwaitingDelivery = new LinkedHashMap<Long, SentMessage>() {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Long, SentMessage> eldest) {
+            // Not every carrier sends delivery reports, don't hold on to those messages forever
+            return size() > MAX_TRACKED_MESSAGES;
+        }
+    };
+
+    /**
+     * @return {@link SmsTracker}
+     */
+    public static SmsTracker getInstance() {
+        return sInstance;
+    }
+
+    private SmsTracker() {
+    }
+
+    /**
+     * Called once every part of a message was accepted by the carrier.
+     *
+     * @param entryId
+     *         {@link long} ID of the outbox entry
+     * @param alertId
+     *         {@link long} ID of the alert the message belongs to
+     * @param receivedAt
+     *         {@link long} time the alert was received, in milliseconds since epoch
+     * @param parts
+     *         {@link int} number of parts of the message
+     * @param journal
+     *         {@link AlertJournal} to record it in
+     */
+    synchronized void onSent(long entryId, long alertId, long receivedAt, int parts, AlertJournal journal) {
+        long now = System.currentTimeMillis();
+        long latency = now - receivedAt;
+        sReceiveToSentMs.record(latency);
+        mAwaitingDelivery.put(entryId, new SentMessage(alertId, now, parts));
+        journal.recordSmsSent(alertId, entryId, parts, latency);
+        Log.d(TAG, "Message " + entryId + " of alert " + alertId + " sent " + latency + "ms after receiving it");
+    }
+
+    /**
+     * Called with the delivery report of a part of a message.
+     *
+     * @param entryId
+     *         {@link long} ID of the outbox entry
+     * @param journal
+     *         {@link AlertJournal} to record it in
+     */
+    synchronized void onPartDelivered(long entryId, AlertJournal journal) {
+        SentMessage message = mAwaitingDelivery.get(entryId);
+        if (message == null || --message.pendingParts > 0) {
+            return;
+        }
+
+        mAwaitingDelivery.remove(entryId);
+        long latency = System.currentTimeMillis() - message.sentAt;
+        sSentToDeliveredMs.record(latency);
+        journal.recordSmsDelivered(message.alertId, entryId, latency);
+        Log.d(TAG, "Message " + entryId + " of alert " + message.alertId + " delivered " + latency
+                + "ms after it was sent");
+    }
+
+    /**
+     * @return {@link int} number of sent messages still waiting for their delivery reports
+     */
+    public synchronized int getAwaitingDeliveryCount() {
+        return mAwaitingDelivery.size();
+    }
+
+}
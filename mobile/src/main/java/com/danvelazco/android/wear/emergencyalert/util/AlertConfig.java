@@ -0,0 +1,131 @@
+/*
+ * Copyright (C) 2014 Daniel Velazco
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.danvelazco.android.wear.emergencyalert.util;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.os.AsyncTask;
+import android.preference.PreferenceManager;
+import android.util.Log;
+import com.danvelazco.android.wear.emergencyalert.AlertPreferencesActivity;
+import com.danvelazco.android.wear.emergencyalert.R;
+import com.danvelazco.android.wear.emergencyalert.sms.MessageTemplate;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Immutable snapshot of the user preferences an alert needs, so triggering one never has to read {@link
+ * SharedPreferences} or resources. The current snapshot is built once, preferably ahead of time through {@link
+ * #preload(Context)}, and replaced as a whole whenever a preference changes. The message templates are compiled at
+ * that point as well.
+ *
+ * @since 10/18/26
+ */
+public final class AlertConfig {
+
+    // Constants
+    private static final String TAG = "AlertConfig";
+
+    private static final AtomicReference<AlertConfig> sCurrent = new AtomicReference<>();
+
+    // SharedPreferences only keeps a weak reference to its listeners
+    private static SharedPreferences.OnSharedPreferenceChangeListener sListener = null;
+
+    // Members
+    public final String smsNumber;
+    public final List<String> recipients;
+    public final String smsMessage;
+    public final MessageTemplate messageTemplate;
+    public final MessageTemplate locationTemplate;
+    public final boolean sendLocation;
+    public final boolean showNotification;
+    public final boolean sendBreadcrumbs;
+    public final boolean transliterateSms;
+
+    private AlertConfig(Context context, SharedPreferences prefs) {
+        smsNumber = prefs.getString(AlertPreferencesActivity.PREF_KEY_SMS_NUMBER, null);
+        recipients = Collections.unmodifiableList(SMSUtil.parseRecipients(smsNumber));
+        smsMessage = prefs.getString(AlertPreferencesActivity.PREF_KEY_SMS_MESSAGE,
+                context.getString(R.string.default_emergency_message));
+        messageTemplate = MessageTemplate.compile(smsMessage);
+        locationTemplate = MessageTemplate.compile(prefs.getString(
+                AlertPreferencesActivity.PREF_KEY_SMS_LOCATION_TEMPLATE,
+                context.getString(R.string.default_location_template)));
+        sendLocation = prefs.getBoolean(AlertPreferencesActivity.PREF_KEY_SMS_MESSAGE_LOCATION, true);
+        showNotification = prefs.getBoolean(AlertPreferencesActivity.PREF_KEY_SHOW_NOTIFICATION, true);
+        sendBreadcrumbs = prefs.getBoolean(AlertPreferencesActivity.PREF_KEY_SMS_BREADCRUMBS, false);
+        transliterateSms = prefs.getBoolean(AlertPreferencesActivity.PREF_KEY_SMS_TRANSLITERATE, true);
+    }
+
+    /**
+     * Build the snapshot in the background, and keep it current from then on. Meant to be called as soon as a
+     * component that may trigger an alert is created.
+     *
+     * @param context
+     *         {@link Context}
+     */
+    public static void preload(Context context) {
+        final Context appContext = context.getApplicationContext();
+        AsyncTask.THREAD_POOL_EXECUTOR.execute(new Runnable() {
+            @Override
+            public void run() {
+                get(appContext);
+            }
+        });
+    }
+
+    /**
+     * Get the current snapshot. Only the first call in the process may have to load the preferences, every other
+     * call returns right away.
+     *
+     * @param context
+     *         {@link Context}
+     * @return {@link AlertConfig}
+     */
+    public static AlertConfig get(Context context) {
+        AlertConfig config = sCurrent.get();
+        if (config != null) {
+            return config;
+        }
+
+        Context appContext = context.getApplicationContext();
+        SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(appContext);
+        registerListener(appContext, prefs);
+
+        // Don't replace a snapshot that was built by the listener in the meantime, it could be newer
+        sCurrent.compareAndSet(null, new AlertConfig(appContext, prefs));
+        return sCurrent.get();
+    }
+
+    private static synchronized void registerListener(final Context appContext, SharedPreferences prefs) {
+        if (sListener != null) {
+            return;
+        }
+
+        sListener = new SharedPreferences.OnSharedPreferenceChangeListener() {
+            @Override
+            public void onSharedPreferenceChanged(SharedPreferences sharedPreferences, String key) {
+                Log.d(TAG, "Preference " + key + " changed, rebuilding the alert configuration");
+                sCurrent.set(new AlertConfig(appContext, sharedPreferences));
+            }
+        };
+        prefs.registerOnSharedPreferenceChangeListener(sListener);
+    }
+
+}
@@ -17,8 +17,17 @@
 package com.danvelazco.android.wear.emergencyalert.util;
 
 import android.content.Context;
-import android.telephony.SmsManager;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.location.Location;
+import android.os.BatteryManager;
+import android.text.TextUtils;
 import android.text.format.DateUtils;
+import com.danvelazco.android.wear.emergencyalert.sms.MessageTemplate;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
 
 /**
  * @author Daniel Velazco <velazcod@gmail.com>
@@ -27,16 +36,24 @@ import android.text.format.DateUtils;
 public class SMSUtil {
 
     /**
-     * Use the default {@link SmsManager} to send a message to phone number
+     * Get the list of phone numbers from the phone number preference, where multiple numbers are separated by commas,
+     * semicolons or new lines
      *
-     * @param number
-     *         {@link String}
-     * @param message
+     * @param numbers
      *         {@link String}
+     * @return {@link List} of phone numbers, empty if there are none
      */
-    public static void sendSms(String number, String message) {
-        SmsManager smsManager = SmsManager.getDefault();
-        smsManager.sendTextMessage(number, null, message, null, null);
+    public static List<String> parseRecipients(String numbers) {
+        List<String> recipients = new ArrayList<>();
+        if (!TextUtils.isEmpty(numbers)) {
+            for (String number : numbers.split("[,;\\n]")) {
+                number = number.trim();
+                if (!TextUtils.isEmpty(number) && !recipients.contains(number)) {
+                    recipients.add(number);
+                }
+            }
+        }
+        return recipients;
     }
 
     /**
@@ -55,4 +72,88 @@ public class SMSUtil {
         );
     }
 
+    /**
+     * Get the battery level of the phone, to be included in the SMS
+     *
+     * @param context
+     *         {@link Context}
+     * @return {@link int} battery level in percent, -1 if unknown
+     */
+    public static int getBatteryLevel(Context context) {
+        Intent batteryStatus = context.registerReceiver(null, new IntentFilter(Intent.ACTION_BATTERY_CHANGED));
+        if (batteryStatus == null) {
+            return -1;
+        }
+        int level = batteryStatus.getIntExtra(BatteryManager.EXTRA_LEVEL, -1);
+        int scale = batteryStatus.getIntExtra(BatteryManager.EXTRA_SCALE, -1);
+        if (level < 0 || scale <= 0) {
+            return -1;
+        }
+        return level * 100 / scale;
+    }
+
+    /**
+     * Render a message from a {@link MessageTemplate}, only the values the template uses are computed
+     *
+     * @param context
+     *         {@link Context}
+     * @param template
+     *         {@link MessageTemplate}
+     * @param label
+     *         {@link CharSequence} written before the message, may be null
+     * @param location
+     *         {@link Location}, or null if there is none
+     * @param time
+     *         {@link long} time the message is about, in milliseconds since epoch
+     * @param values
+     *         {@link MessageTemplate.Values} to reuse
+     * @return {@link String}
+     */
+    public static String renderMessage(Context context, MessageTemplate template, CharSequence label,
+            Location location, long time, MessageTemplate.Values values) {
+        values.clear();
+        if (location != null) {
+            values.setLocation(location.getLatitude(), location.getLongitude(),
+                    location.hasAccuracy() ? location.getAccuracy() : Float.NaN);
+        }
+        if (template.uses(MessageTemplate.PLACEHOLDER_TIME)) {
+            values.setTime(getFormattedTimestamp(context, time));
+        }
+        if (template.uses(MessageTemplate.PLACEHOLDER_BATTERY)) {
+            values.setBattery(getBatteryLevel(context));
+        }
+        return template.render(label, values);
+    }
+
+    /**
+     * Hide a phone number for logs and {@code dumpsys}, only its last two characters are kept so recipients can still
+     * be told apart
+     *
+     * @param number
+     *         {@link String}, can be null
+     * @return {@link String}
+     */
+    public static String redactNumber(String number) {
+        if (number == null) {
+            return null;
+        }
+        return "***" + number.substring(Math.max(number.length() - 2, 0));
+    }
+
+    /**
+     * Describe a location for logs and {@code dumpsys}, with the coordinates rounded to about a kilometer
+     *
+     * @param location
+     *         {@link Location}, can be null
+     * @return {@link String}
+     */
+    public static String redactLocation(Location location) {
+        if (location == null) {
+            return "none";
+        }
+        return String.format(Locale.US, "%s %.2f,%.2f accuracy=%.0fm age=%dms", location.getProvider(),
+                location.getLatitude(), location.getLongitude(), location.hasAccuracy() ? location.getAccuracy()
+                        : Float.NaN, System.currentTimeMillis() - location.getTime());
+    }
+
 }
@@ -0,0 +1,86 @@
+/*
+ * Copyright (C) 2014 Daniel Velazco
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.danvelazco.android.wear.emergencyalert.util;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Small bounded cache of the alert IDs that were already handled, used to drop duplicate messages for the same alert
+ * (the watch sends it to every node, and may retry). Entries are evicted once they are older than the time to live,
+ * or when the cache is full, the oldest first.
+ *
+ * @since 10/18/26
+ */
+public class SeenAlertCache {
+
+    // Members
+    private final int mCapacity;
+    private final long mTimeToLiveMs;
+    private final LinkedHashMap<Long, Long> mSeenAt;
+
+    /**
+     * Constructor.
+     *
+     * @param capacity
+     *         {@link int} maximum number of alert IDs to remember
+     * @param timeToLiveMs
+     *         {@link long} how long to remember an alert ID for
+     */
+    public SeenAlertCache(final int capacity, long timeToLiveMs) {
+        mCapacity = capacity;
+        mTimeToLiveMs = timeToLiveMs;
+        mSeenAt = new LinkedHashMap<Long, Long>(capacity + 1, 1f) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Long, Long> eldest) {
+                return size() > mCapacity;
+            }
+        };
+    }
+
+    /**
+     * Mark an alert as seen.
+     *
+     * @param alertId
+     *         {@link long}
+     * @param now
+     *         {@link long} current time, in milliseconds of a monotonic clock
+     * @return true if this is the first time the alert is seen, false if it's a duplicate
+     */
+    public synchronized boolean markSeen(long alertId, long now) {
+        // Entries are in insertion order, so the expired ones are always at the head
+        Iterator<Long> seenAt = mSeenAt.values().iterator();
+        while (seenAt.hasNext() && now - seenAt.next() > mTimeToLiveMs) {
+            seenAt.remove();
+        }
+
+        if (mSeenAt.containsKey(alertId)) {
+            return false;
+        }
+        mSeenAt.put(alertId, now);
+        return true;
+    }
+
+    /**
+     * @return {@link int} number of alert IDs currently remembered
+     */
+    public synchronized int size() {
+        return mSeenAt.size();
+    }
+
+}
@@ -0,0 +1,186 @@
+/*
+ * Copyright (C) 2014 Daniel Velazco
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.danvelazco.android.wear.emergencyalert.util;
+
+import android.os.Handler;
+import android.os.PowerManager;
+import android.os.SystemClock;
+import android.util.Log;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Holds a {@link PowerManager.WakeLock} for a fixed deadline instead of an open-ended timeout. When the deadline
+ * expires before the work is done, the wake lock is released and the expiry callback runs so the caller can wrap up
+ * with whatever it has. The time the wake lock was held is accounted per alert, and kept for the life of the process so
+ * it can be queried after the service is gone.
+ *
+ * @since 10/18/26
+ */
+public class WakeLockScheduler {
+
+    // Constants
+    private static final String TAG = "WakeLockScheduler";
+    private static final int MAX_ACCOUNTED_ALERTS = 16;
+
+    // Milliseconds the wake lock was held for each alert, shared by every instance
+    private static final Map<Long, Long> sHeldMsPerAlert = new LinkedHashMap<Long, Long>() {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Long, Long> eldest) {
+            return size() > MAX_ACCOUNTED_ALERTS;
+        }
+    };
+    private static long sTotalHeldMs = 0;
+
+    // Members
+    private final PowerManager.WakeLock mWakeLock;
+    private final Handler mHandler;
+    private long mAlertId = 0;
+    private long mAcquiredAt = 0;
+    private Runnable mOnExpired = null;
+
+    private final Runnable mExpireRunnable = new Runnable() {
+        @Override
+        public void run() {
+            Log.d(TAG, "Deadline expired for alert " + mAlertId);
+            Runnable onExpired = mOnExpired;
+            release();
+            if (onExpired != null) {
+                onExpired.run();
+            }
+        }
+    };
+
+    /**
+     * Constructor.
+     *
+     * @param wakeLock
+     *         {@link PowerManager.WakeLock}, must not be reference counted
+     * @param handler
+     *         {@link Handler} the expiry callback runs on
+     */
+    public WakeLockScheduler(PowerManager.WakeLock wakeLock, Handler handler) {
+        mWakeLock = wakeLock;
+        mWakeLock.setReferenceCounted(false);
+        mHandler = handler;
+    }
+
+    /**
+     * Hold the wake lock until {@link #release()} is called or the deadline expires. Calling it again while the wake
+     * lock is held accounts the time so far and starts over with the new deadline.
+     *
+     * @param alertId
+     *         {@link long} ID of the alert the wake lock is held for
+     * @param deadlineMs
+     *         {@link long} longest time to hold the wake lock for
+     * @param onExpired
+     *         {@link Runnable} to run if the deadline expires, can be null
+     */
+    public void hold(long alertId, long deadlineMs, Runnable onExpired) {
+        if (isHeld()) {
+            release();
+        }
+
+        mAlertId = alertId;
+        mOnExpired = onExpired;
+        mAcquiredAt = SystemClock.elapsedRealtime();
+        // The timeout is only a safety net in case the handler never gets to run
+        mWakeLock.acquire(deadlineMs);
+        mHandler.postDelayed(mExpireRunnable, deadlineMs);
+    }
+
+    /**
+     * Release the wake lock, if held, and account the time it was held for.
+     */
+    public void release() {
+        mHandler.removeCallbacks(mExpireRunnable);
+        mOnExpired = null;
+        if (mAcquiredAt == 0) {
+            return;
+        }
+
+        long heldMs = SystemClock.elapsedRealtime() - mAcquiredAt;
+        mAcquiredAt = 0;
+        if (mWakeLock.isHeld()) {
+            mWakeLock.release();
+        }
+
+        synchronized (sHeldMsPerAlert) {
+            Long previous = sHeldMsPerAlert.get(mAlertId);
+            sHeldMsPerAlert.put(mAlertId, (previous != null ? previous : 0) + heldMs);
+            sTotalHeldMs += heldMs;
+        }
+        Log.d(TAG, "Wake lock held for " + heldMs + "ms for alert " + mAlertId);
+    }
+
+    /**
+     * @return true if the wake lock is currently held through this scheduler
+     */
+    public boolean isHeld() {
+        return mAcquiredAt != 0;
+    }
+
+    /**
+     * @return {@link long} time the wake lock has been held for so far in milliseconds, 0 if it isn't held
+     */
+    public long getHeldForMs() {
+        long acquiredAt = mAcquiredAt;
+        return acquiredAt != 0 ? SystemClock.elapsedRealtime() - acquiredAt : 0;
+    }
+
+    /**
+     * @return {@link long} ID of the alert the wake lock is (or was last) held for
+     */
+    public long getAlertId() {
+        return mAlertId;
+    }
+
+    /**
+     * Get the time the wake lock was held for an alert.
+     *
+     * @param alertId
+     *         {@link long}
+     * @return {@link long} in milliseconds, 0 if it was never held for that alert
+     */
+    public static long getHeldMs(long alertId) {
+        synchronized (sHeldMsPerAlert) {
+            Long heldMs = sHeldMsPerAlert.get(alertId);
+            return heldMs != null ? heldMs : 0;
+        }
+    }
+
+    /**
+     * @return {@link Map} of alert ID to the time the wake lock was held for it, for the latest alerts
+     */
+    public static Map<Long, Long> getHeldMsPerAlert() {
+        synchronized (sHeldMsPerAlert) {
+            return Collections.unmodifiableMap(new LinkedHashMap<>(sHeldMsPerAlert));
+        }
+    }
+
+    /**
+     * @return {@link long} total time the wake lock was held for since the process started
+     */
+    public static long getTotalHeldMs() {
+        synchronized (sHeldMsPerAlert) {
+            return sTotalHeldMs;
+        }
+    }
+
+}
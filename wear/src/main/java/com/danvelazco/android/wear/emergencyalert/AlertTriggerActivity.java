@@ -18,9 +18,12 @@ package com.danvelazco.android.wear.emergencyalert;
 
 import android.app.Activity;
 import android.content.Intent;
+import android.content.IntentFilter;
 import android.content.SharedPreferences;
 import android.os.AsyncTask;
+import android.os.BatteryManager;
 import android.os.Bundle;
+import android.os.SystemClock;
 import android.preference.PreferenceManager;
 import android.support.wearable.activity.ConfirmationActivity;
 import android.support.wearable.view.DelayedConfirmationView;
@@ -28,15 +31,24 @@ import android.support.wearable.view.WatchViewStub;
 import android.util.Log;
 import android.view.View;
 import android.widget.TextView;
+import com.danvelazco.android.wear.emergencyalert.data.AlertAck;
+import com.danvelazco.android.wear.emergencyalert.data.AlertData;
+import com.danvelazco.android.wear.emergencyalert.data.AlertPayload;
+import com.danvelazco.android.wear.emergencyalert.data.MetricsRegistry;
+import com.danvelazco.android.wear.emergencyalert.util.AlertAckWaiter;
+import com.danvelazco.android.wear.emergencyalert.util.AlertQueue;
+import com.danvelazco.android.wear.emergencyalert.util.ConnectedNodeDirectory;
+import com.danvelazco.android.wear.emergencyalert.util.MetricsPublisher;
+import com.danvelazco.android.wear.emergencyalert.util.NodeMessageDispatcher;
 import com.google.android.gms.common.ConnectionResult;
 import com.google.android.gms.common.api.GoogleApiClient;
 import com.google.android.gms.wearable.MessageApi;
 import com.google.android.gms.wearable.Node;
-import com.google.android.gms.wearable.NodeApi;
 import com.google.android.gms.wearable.Wearable;
 
 import java.util.Collection;
-import java.util.HashSet;
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
 
 /**
  * @author Daniel Velazco <velazcod@gmail.com>
@@ -48,8 +60,40 @@ public class AlertTriggerActivity extends Activity implements GoogleApiClient.Co
     // Constants
     private static final String TAG = "AlertTriggerActivity";
     private static final long CONFIRMATION_DELAY_MS = 3500;
+    private static final long CONNECT_TIMEOUT_MS = CONFIRMATION_DELAY_MS;
+    private static final long ACK_TIMEOUT_MS = 10000;
+    private static final int MAX_ACK_ATTEMPTS = 3;
     public final static String SEND_EMERGENCY_ALERT_SMS_PATH = "/start/sendEmergencyAlert";
     public final static String PREF_KEY_USE_CONFIRMATION_BTN = "_pref_use_confirmation_btn";
+    private final static String PREF_KEY_ALERT_SEQUENCE = "_pref_alert_sequence";
+
+    // Outcome of sending an alert
+    private static final int RESULT_FAILED = 0;
+    private static final int RESULT_SENT = 1;
+    private static final int RESULT_QUEUED = 2;
+    private static final int RESULT_ACKNOWLEDGED = 3;
+
+    // Metrics
+    private static final MetricsRegistry.Counter sAlertsTriggered =
+            MetricsRegistry.getDefault().counter("wear.alert.triggered");
+    private static final MetricsRegistry.Counter sAlertsCancelled =
+            MetricsRegistry.getDefault().counter("wear.alert.cancelled");
+    private static final MetricsRegistry.Counter sAlertsAcknowledged =
+            MetricsRegistry.getDefault().counter("wear.alert.acknowledged");
+    private static final MetricsRegistry.Counter sAlertsUnconfirmed =
+            MetricsRegistry.getDefault().counter("wear.alert.unconfirmed");
+    private static final MetricsRegistry.Counter sAlertsQueued =
+            MetricsRegistry.getDefault().counter("wear.alert.queued");
+    private static final MetricsRegistry.Counter sAlertsFailed =
+            MetricsRegistry.getDefault().counter("wear.alert.failed");
+    private static final MetricsRegistry.Counter sAlertResends =
+            MetricsRegistry.getDefault().counter("wear.alert.resends");
+    private static final MetricsRegistry.Histogram sTriggerToSentMs = MetricsRegistry.getDefault()
+            .histogram("wear.alert.trigger_to_sent_ms", MetricsRegistry.LATENCY_BUCKETS_MS);
+    private static final MetricsRegistry.Histogram sAckRoundTripMs = MetricsRegistry.getDefault()
+            .histogram("wear.alert.ack_round_trip_ms", MetricsRegistry.LATENCY_BUCKETS_MS);
+    private static final MetricsRegistry.Histogram sTriggerToResultMs = MetricsRegistry.getDefault()
+            .histogram("wear.alert.trigger_to_result_ms", MetricsRegistry.LATENCY_BUCKETS_MS);
 
     // Members
     private SharedPreferences mSharedPrefs = null;
@@ -60,6 +104,11 @@ public class AlertTriggerActivity extends Activity implements GoogleApiClient.Co
     private TextView mTvConfirmationStatus;
     private DelayedConfirmationView mBtnConfirm;
     private boolean mUseConfirmationButton;
+    private PrepareAlertTask mPrepareAlertTask = null;
+    private MessageAlertTask mMessageAlertTask = null;
+    private volatile PreparedAlert mPreparedAlert = null;
+    private volatile long mTimerFinishedAt = 0;
+    private volatile long mTriggeredAt = 0;
 
     /**
      * {@inheritDoc}
@@ -114,6 +163,7 @@ public class AlertTriggerActivity extends Activity implements GoogleApiClient.Co
 
         if (mGoogleApiClient != null) {
             mGoogleApiClient.connect();
+            armAlert();
         }
     }
 
@@ -136,11 +186,16 @@ public class AlertTriggerActivity extends Activity implements GoogleApiClient.Co
     @Override
     public void onStop() {
         if (mGoogleApiClient != null && mGoogleApiClient.isConnected()) {
-            mGoogleApiClient.disconnect();
+            Wearable.NodeApi.removeListener(mGoogleApiClient, ConnectedNodeDirectory.getInstance());
+            // While the alert is being sent the task owns the client, it disconnects it once it's done
+            if (mMessageAlertTask == null) {
+                mGoogleApiClient.disconnect();
+            }
         }
         if (mBtnConfirm != null) {
             mBtnConfirm.setListener(null);
         }
+        disarmAlert();
         super.onStop();
     }
 
@@ -149,7 +204,23 @@ public class AlertTriggerActivity extends Activity implements GoogleApiClient.Co
      */
     @Override
     public void onConnected(Bundle bundle) {
-        // No need to do anything here
+        // Keep the node directory current while we are connected, and refresh it if it's out of date
+        ConnectedNodeDirectory nodeDirectory = ConnectedNodeDirectory.getInstance();
+        Wearable.NodeApi.addListener(mGoogleApiClient, nodeDirectory);
+        if (nodeDirectory.isStale()) {
+            nodeDirectory.refreshAsync(mGoogleApiClient);
+        }
+
+        // Alerts that were queued while no phone was connected go out as soon as we can reach one
+        final AlertQueue alertQueue = AlertQueue.getInstance(this);
+        AsyncTask.THREAD_POOL_EXECUTOR.execute(new Runnable() {
+            @Override
+            public void run() {
+                if (!alertQueue.isEmpty() && mGoogleApiClient.isConnected()) {
+                    alertQueue.flush(mGoogleApiClient, getNodes());
+                }
+            }
+        });
     }
 
     /**
@@ -201,6 +272,8 @@ public class AlertTriggerActivity extends Activity implements GoogleApiClient.Co
             sendAlert();
         } else {
             mBtnConfirm.setListener(null);
+            disarmAlert();
+            sAlertsCancelled.increment();
 
             finish();
             Intent intent = new Intent(AlertTriggerActivity.this, ConfirmationActivity.class);
@@ -211,31 +284,164 @@ public class AlertTriggerActivity extends Activity implements GoogleApiClient.Co
     }
 
     private void sendAlert() {
-        if (mGoogleApiClient != null && mGoogleApiClient.isConnected()) {
-            (new MessageAlertTask()).execute();
+        mTimerFinishedAt = SystemClock.elapsedRealtime();
+        mTriggeredAt = System.currentTimeMillis();
+        sAlertsTriggered.increment();
+        PreparedAlert preparedAlert = mPreparedAlert;
+        mMessageAlertTask = new MessageAlertTask();
+        if (preparedAlert != null) {
+            // Everything was already prepared while the timer was running, just send it
+            mMessageAlertTask.execute(preparedAlert);
+        } else {
+            // Still preparing (or it failed), the task will have to prepare it on its own
+            mMessageAlertTask.execute();
+        }
+    }
+
+    /**
+     * Start preparing the alert in the background while the user is looking at the confirmation, so once the timer
+     * finishes (or the alert is confirmed) all that is left is sending the message.
+     */
+    private void armAlert() {
+        if (mPrepareAlertTask == null && mPreparedAlert == null) {
+            mPrepareAlertTask = new PrepareAlertTask();
+            mPrepareAlertTask.executeOnExecutor(AsyncTask.THREAD_POOL_EXECUTOR);
+        }
+    }
+
+    /**
+     * Drop anything that was prepared for the alert.
+     */
+    private void disarmAlert() {
+        if (mPrepareAlertTask != null) {
+            mPrepareAlertTask.cancel(false);
+            mPrepareAlertTask = null;
+        }
+        mPreparedAlert = null;
+    }
+
+    /**
+     * Make sure the {@link GoogleApiClient} is connected, resolve the target nodes and read the sequence number and
+     * battery level for the payload. Only the time the alert is actually triggered is left to stamp when sending, so
+     * it carries that rather than the time it was armed. This blocks, so it needs to be called on a background thread.
+     *
+     * @return {@link PreparedAlert}, without any node if the client couldn't connect or no phone is connected, or
+     * null if there is no client
+     */
+    private PreparedAlert prepareAlert() {
+        if (mGoogleApiClient == null) {
+            return null;
+        }
+
+        Collection<String> nodes = Collections.emptySet();
+        if (mGoogleApiClient.isConnected()
+                || mGoogleApiClient.blockingConnect(CONNECT_TIMEOUT_MS, TimeUnit.MILLISECONDS).isSuccess()) {
+            nodes = getNodes();
         }
+        // An armed alert that ends up cancelled skips a sequence number, which is fine as long as it keeps increasing
+        return new PreparedAlert(nodes, nextSequence(), getBatteryLevel());
+    }
+
+    /**
+     * Get the next alert sequence number, it keeps increasing for as long as the app is installed.
+     *
+     * @return {@link int}
+     */
+    private synchronized int nextSequence() {
+        int sequence = mSharedPrefs.getInt(PREF_KEY_ALERT_SEQUENCE, 0) + 1;
+        mSharedPrefs.edit().putInt(PREF_KEY_ALERT_SEQUENCE, sequence).apply();
+        return sequence;
     }
 
     /**
-     * Get a {@link Collection} of connected {@linkplain Node nodes} to which we can send a message to.
+     * Get the current battery level of the watch.
+     *
+     * @return {@link int} in percent, or {@link AlertPayload#BATTERY_UNKNOWN}
+     */
+    private int getBatteryLevel() {
+        Intent batteryStatus = registerReceiver(null, new IntentFilter(Intent.ACTION_BATTERY_CHANGED));
+        if (batteryStatus == null) {
+            return AlertPayload.BATTERY_UNKNOWN;
+        }
+        int level = batteryStatus.getIntExtra(BatteryManager.EXTRA_LEVEL, -1);
+        int scale = batteryStatus.getIntExtra(BatteryManager.EXTRA_SCALE, -1);
+        if (level < 0 || scale <= 0) {
+            return AlertPayload.BATTERY_UNKNOWN;
+        }
+        return level * 100 / scale;
+    }
+
+    /**
+     * Get a {@link Collection} of connected {@linkplain Node nodes} to which we can send a message to. These come from
+     * the {@link ConnectedNodeDirectory}, only if it's empty we have to block and query the connected nodes. A stale
+     * directory is still used, so the alert isn't held up, but it is refreshed at the same time.
      *
      * @return {@link Collection}
      */
     private Collection<String> getNodes() {
-        HashSet<String> results= new HashSet<String>();
-        NodeApi.GetConnectedNodesResult nodes = Wearable.NodeApi.getConnectedNodes(mGoogleApiClient).await();
-        for (Node node : nodes.getNodes()) {
-            results.add(node.getId());
+        ConnectedNodeDirectory nodeDirectory = ConnectedNodeDirectory.getInstance();
+        Collection<String> nodes = nodeDirectory.getNodeIds();
+        if (nodes.isEmpty()) {
+            nodes = nodeDirectory.refreshBlocking(mGoogleApiClient);
+        } else if (nodeDirectory.isStale()) {
+            nodeDirectory.refreshAsync(mGoogleApiClient);
+        }
+        return nodes;
+    }
+
+    /**
+     * Everything needed to send the alert that can be prepared ahead of time.
+     */
+    private static class PreparedAlert {
+
+        // Members
+        private final Collection<String> mmNodes;
+        private final int mmSequence;
+        private final int mmBattery;
+
+        private PreparedAlert(Collection<String> nodes, int sequence, int battery) {
+            mmNodes = nodes;
+            mmSequence = sequence;
+            mmBattery = battery;
+        }
+    }
+
+    /**
+     * {@link AsyncTask} used to prepare the alert while the confirmation is shown.
+     */
+    private class PrepareAlertTask extends AsyncTask<Void, Void, PreparedAlert> {
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        protected PreparedAlert doInBackground(Void... params) {
+            return prepareAlert();
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        protected void onPostExecute(PreparedAlert preparedAlert) {
+            mPreparedAlert = preparedAlert;
+            mPrepareAlertTask = null;
         }
-        return results;
     }
 
     /**
      * {@link AsyncTask} used to send a message using the {@link MessageApi} since the method {@link
      * MessageApi#sendMessage(GoogleApiClient, String, String, byte[])} blocks and needs to be called on a background
-     * thread.
+     * thread. If no phone gets the message, the alert is kept in the {@link AlertQueue} until one connects.
+     * <p/>
+     * Once the phone got the message, we wait for its {@link AlertAck} to know whether the SMS was actually sent, and
+     * send the message again whenever it doesn't arrive in time. That can take a while, so the task owns the {@link
+     * GoogleApiClient} from then on: leaving the screen doesn't disconnect it, the task does once it's done.
      */
-    private class MessageAlertTask extends AsyncTask<Void, Void, Boolean> {
+    private class MessageAlertTask extends AsyncTask<PreparedAlert, Void, Integer> {
+
+        // Members
+        private AlertAck mmAck = null;
 
         /**
          * {@inheritDoc}
@@ -254,33 +460,151 @@ public class AlertTriggerActivity extends Activity implements GoogleApiClient.Co
          * {@inheritDoc}
          */
         @Override
-        protected Boolean doInBackground(Void... params) {
-            boolean messageSent = false;
-            Collection<String> nodes = getNodes();
-            for (String node : nodes) {
-                MessageApi.SendMessageResult result = Wearable.MessageApi.sendMessage(mGoogleApiClient, node,
-                        SEND_EMERGENCY_ALERT_SMS_PATH, null).await();
-                if (result.getStatus().isSuccess()) {
-                    messageSent = true;
-                } else {
-                    Log.e(TAG, "ERROR: failed to send Message: " + result.getStatus());
+        protected Integer doInBackground(PreparedAlert... params) {
+            int result = send(params);
+
+            long triggerToResultMs = SystemClock.elapsedRealtime() - mTimerFinishedAt;
+            sTriggerToResultMs.record(triggerToResultMs);
+            Log.d(TAG, "Alert result=" + result + " " + triggerToResultMs + "ms after it was triggered");
+            switch (result) {
+                case RESULT_ACKNOWLEDGED:
+                    sAlertsAcknowledged.increment();
+                    break;
+                case RESULT_SENT:
+                    sAlertsUnconfirmed.increment();
+                    break;
+                case RESULT_QUEUED:
+                    sAlertsQueued.increment();
+                    break;
+                default:
+                    sAlertsFailed.increment();
+                    break;
+            }
+
+            return result;
+        }
+
+        private int send(PreparedAlert... params) {
+            // Use the prepared alert if there is one, otherwise prepare it now
+            PreparedAlert preparedAlert = params.length > 0 ? params[0] : prepareAlert();
+            if (preparedAlert == null) {
+                return RESULT_FAILED;
+            }
+
+            // The directory may have been refreshed, or a phone may have connected, since the alert was prepared
+            Collection<String> nodes = preparedAlert.mmNodes;
+            if (mGoogleApiClient.isConnected()) {
+                nodes = getNodes();
+            }
+
+            AlertPayload payload = new AlertPayload().set(AlertData.newAlertId(), mTriggeredAt,
+                    preparedAlert.mmSequence, preparedAlert.mmBattery,
+                    mUseConfirmationButton ? AlertPayload.FLAG_CONFIRMED_BY_BUTTON : 0);
+            byte[] data = payload.toByteArray();
+            AlertAckWaiter ackWaiter = AlertAckWaiter.getInstance();
+            ackWaiter.expect(payload.getAlertId());
+            try {
+                // Send to all the nodes at once, we are done as soon as one of them gets the message
+                NodeMessageDispatcher dispatcher = new NodeMessageDispatcher(mGoogleApiClient,
+                        NodeMessageDispatcher.DEFAULT_NODE_TIMEOUT_MS);
+                long sentAt = SystemClock.elapsedRealtime();
+                if (!dispatcher.dispatch(nodes, SEND_EMERGENCY_ALERT_SMS_PATH, data)) {
+                    // No phone got it, keep it until one connects
+                    return AlertQueue.getInstance(AlertTriggerActivity.this).add(data) ? RESULT_QUEUED : RESULT_FAILED;
                 }
+                sTriggerToSentMs.record(SystemClock.elapsedRealtime() - mTimerFinishedAt);
+                publishProgress();
+
+                for (int attempt = 1; attempt <= MAX_ACK_ATTEMPTS; attempt++) {
+                    if (attempt > 1) {
+                        // The phone drops it if it already got it, and acknowledges it again
+                        Log.e(TAG, "ERROR: no acknowledgement for alert " + payload.getAlertId() + ", resending it");
+                        payload.set(payload.getAlertId(), payload.getTriggeredAt(), payload.getSequence(),
+                                payload.getBattery(), payload.getFlags() | AlertPayload.FLAG_RETRY);
+                        sAlertResends.increment();
+                        sentAt = SystemClock.elapsedRealtime();
+                        dispatcher.dispatch(nodes, SEND_EMERGENCY_ALERT_SMS_PATH, payload.toByteArray());
+                    }
+
+                    mmAck = ackWaiter.await(payload.getAlertId(), ACK_TIMEOUT_MS);
+                    if (mmAck != null) {
+                        long roundTripMs = SystemClock.elapsedRealtime() - sentAt;
+                        sAckRoundTripMs.record(roundTripMs);
+                        Log.d(TAG, "Alert acknowledged " + roundTripMs + "ms after attempt " + attempt
+                                + " was sent: " + mmAck);
+                        return RESULT_ACKNOWLEDGED;
+                    }
+                }
+                return RESULT_SENT;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return RESULT_SENT;
+            } finally {
+                ackWaiter.cancel(payload.getAlertId());
             }
+        }
 
-            return messageSent;
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        protected void onProgressUpdate(Void... values) {
+            // The phone got the alert, now it's sending the SMS
+            mTvStatus.setText(getString(R.string.lbl_waiting_for_phone));
         }
 
         /**
          * {@inheritDoc}
          */
         @Override
-        protected void onPostExecute(Boolean success) {
+        protected void onPostExecute(Integer result) {
             finish();
             Intent intent = new Intent(AlertTriggerActivity.this, ConfirmationActivity.class);
-            intent.putExtra(ConfirmationActivity.EXTRA_ANIMATION_TYPE, success ?
-                    ConfirmationActivity.SUCCESS_ANIMATION : ConfirmationActivity.FAILURE_ANIMATION);
-            intent.putExtra(ConfirmationActivity.EXTRA_MESSAGE, success ? "Success" : "Failure");
+            switch (result) {
+                case RESULT_ACKNOWLEDGED:
+                    boolean sent = mmAck.getStatus() == AlertAck.STATUS_SENT;
+                    intent.putExtra(ConfirmationActivity.EXTRA_ANIMATION_TYPE, sent
+                            ? ConfirmationActivity.SUCCESS_ANIMATION : ConfirmationActivity.FAILURE_ANIMATION);
+                    intent.putExtra(ConfirmationActivity.EXTRA_MESSAGE, getAckMessage(mmAck));
+                    break;
+                case RESULT_SENT:
+                    intent.putExtra(ConfirmationActivity.EXTRA_ANIMATION_TYPE, ConfirmationActivity.FAILURE_ANIMATION);
+                    intent.putExtra(ConfirmationActivity.EXTRA_MESSAGE, getString(R.string.lbl_alert_unconfirmed));
+                    break;
+                case RESULT_QUEUED:
+                    intent.putExtra(ConfirmationActivity.EXTRA_ANIMATION_TYPE, ConfirmationActivity.SUCCESS_ANIMATION);
+                    intent.putExtra(ConfirmationActivity.EXTRA_MESSAGE, getString(R.string.lbl_alert_queued));
+                    break;
+                default:
+                    intent.putExtra(ConfirmationActivity.EXTRA_ANIMATION_TYPE, ConfirmationActivity.FAILURE_ANIMATION);
+                    intent.putExtra(ConfirmationActivity.EXTRA_MESSAGE, "Failure");
+                    break;
+            }
             startActivity(intent);
+
+            // Let the phone know how the watch side is doing once the result is shown. The data item is handed off
+            // without waiting, and gets synced whenever the phone is reachable
+            mMessageAlertTask = null;
+            if (mGoogleApiClient.isConnected()) {
+                MetricsPublisher.publish(mGoogleApiClient);
+                Wearable.NodeApi.removeListener(mGoogleApiClient, ConnectedNodeDirectory.getInstance());
+                mGoogleApiClient.disconnect();
+            }
+        }
+
+        private String getAckMessage(AlertAck ack) {
+            switch (ack.getStatus()) {
+                case AlertAck.STATUS_SENT:
+                    return getString(R.string.lbl_alert_sms_sent);
+                case AlertAck.STATUS_PARTIAL:
+                    return getString(R.string.lbl_alert_sms_partial, ack.getSentCount(), ack.getRecipientCount());
+                case AlertAck.STATUS_NOT_CONFIGURED:
+                    return getString(R.string.lbl_alert_not_configured);
+                case AlertAck.STATUS_PENDING:
+                    return getString(R.string.lbl_alert_sms_pending);
+                default:
+                    return getString(R.string.lbl_alert_sms_failed);
+            }
         }
     }
 
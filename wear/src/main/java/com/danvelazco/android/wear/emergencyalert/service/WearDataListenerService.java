@@ -5,15 +5,30 @@ import android.net.Uri;
 import android.preference.PreferenceManager;
 import android.util.Log;
 import com.danvelazco.android.wear.emergencyalert.AlertTriggerActivity;
+import com.danvelazco.android.wear.emergencyalert.data.AlertData;
+import com.danvelazco.android.wear.emergencyalert.data.ConfigField;
+import com.danvelazco.android.wear.emergencyalert.data.MetricsRegistry;
 import com.danvelazco.android.wear.emergencyalert.data.PreferencesData;
+import com.danvelazco.android.wear.emergencyalert.util.AlertAckWaiter;
+import com.danvelazco.android.wear.emergencyalert.util.AlertQueue;
+import com.danvelazco.android.wear.emergencyalert.util.ConnectedNodeDirectory;
+import com.danvelazco.android.wear.emergencyalert.util.MetricsPublisher;
+import com.google.android.gms.common.api.GoogleApiClient;
 import com.google.android.gms.common.data.FreezableUtils;
 import com.google.android.gms.wearable.DataEvent;
 import com.google.android.gms.wearable.DataEventBuffer;
 import com.google.android.gms.wearable.DataMap;
 import com.google.android.gms.wearable.DataMapItem;
+import com.google.android.gms.wearable.MessageEvent;
+import com.google.android.gms.wearable.Node;
+import com.google.android.gms.wearable.Wearable;
 import com.google.android.gms.wearable.WearableListenerService;
 
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
 
 /**
  * @since 6/7/15
@@ -22,6 +37,28 @@ public class WearDataListenerService extends WearableListenerService {
 
     // Constants
     private static final String TAG = "WearDataListener";
+    private static final String PREF_KEY_CONFIG_VERSION = "_pref_config_version";
+    private static final long CONNECT_TIMEOUT_MS = 5000;
+
+    // Metrics
+    private static final MetricsRegistry.Counter sConfigApplied =
+            MetricsRegistry.getDefault().counter("wear.config.applied");
+    private static final MetricsRegistry.Counter sConfigUnchanged =
+            MetricsRegistry.getDefault().counter("wear.config.unchanged");
+    private static final MetricsRegistry.Counter sAcksReceived =
+            MetricsRegistry.getDefault().counter("wear.ack.received");
+    private static final MetricsRegistry.Counter sQueuedAlertsFlushed =
+            MetricsRegistry.getDefault().counter("wear.queue.flushed");
+    private static final MetricsRegistry.Counter sPeersConnected =
+            MetricsRegistry.getDefault().counter("wear.peer.connected");
+
+    // Key of the local preference each field of the configuration is stored in
+    private static final Map<ConfigField<?>, String> PREF_KEYS;
+    static {
+        Map<ConfigField<?>, String> prefKeys = new HashMap<>();
+        prefKeys.put(PreferencesData.USE_BUTTON_CONFIRMATION, AlertTriggerActivity.PREF_KEY_USE_CONFIRMATION_BTN);
+        PREF_KEYS = Collections.unmodifiableMap(prefKeys);
+    }
 
     // Members
     private SharedPreferences mSharedPrefs = null;
@@ -47,14 +84,103 @@ public class WearDataListenerService extends WearableListenerService {
             if (PreferencesData.URI_PATH.equals(uri.getPath())) {
                 if (event.getType() == DataEvent.TYPE_CHANGED) {
                     Log.d(TAG, PreferencesData.URI_PATH + " data TYPE_CHANGED");
-                    DataMap dataMap = DataMapItem.fromDataItem(event.getDataItem()).getDataMap();
-                    SharedPreferences.Editor editor = mSharedPrefs.edit();
-                    editor.putBoolean(AlertTriggerActivity.PREF_KEY_USE_CONFIRMATION_BTN,
-                            PreferencesData.getUseButtonConfirmation(dataMap));
-                    editor.apply();
+                    applyConfig(DataMapItem.fromDataItem(event.getDataItem()).getDataMap());
                 }
             }
         }
     }
 
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void onMessageReceived(MessageEvent messageEvent) {
+        if (AlertData.ACK_PATH.equals(messageEvent.getPath())) {
+            sAcksReceived.increment();
+            AlertAckWaiter.getInstance().onAckReceived(messageEvent.getData());
+        }
+    }
+
+    /**
+     * Apply a new version of the configuration to the local preferences, in a single transaction. Nothing is written
+     * if the version is the one we already have. If it directly follows our version only the fields that changed are
+     * written, otherwise we missed a version (or the phone app doesn't track them) and every field is written.
+     *
+     * @param dataMap
+     *         {@link DataMap} of the configuration data item
+     */
+    private void applyConfig(DataMap dataMap) {
+        long version = PreferencesData.getVersion(dataMap);
+        long localVersion = mSharedPrefs.getLong(PREF_KEY_CONFIG_VERSION, PreferencesData.VERSION_UNKNOWN);
+        if (version != PreferencesData.VERSION_UNKNOWN && version == localVersion) {
+            Log.d(TAG, "Configuration version " + version + " is already applied");
+            sConfigUnchanged.increment();
+            return;
+        }
+
+        List<ConfigField<?>> fields;
+        if (version != PreferencesData.VERSION_UNKNOWN && version == localVersion + 1) {
+            fields = PreferencesData.getChangedFields(dataMap);
+        } else {
+            fields = PreferencesData.FIELDS;
+        }
+
+        SharedPreferences.Editor editor = mSharedPrefs.edit();
+        for (ConfigField<?> field : fields) {
+            String prefKey = PREF_KEYS.get(field);
+            if (prefKey != null) {
+                field.copy(dataMap, editor, prefKey);
+            }
+        }
+        editor.putLong(PREF_KEY_CONFIG_VERSION, version);
+        editor.apply();
+        sConfigApplied.increment();
+        Log.d(TAG, "Applied configuration version " + version + ", fields: " + fields);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void onPeerConnected(Node peer) {
+        ConnectedNodeDirectory.getInstance().onPeerConnected(peer);
+        sPeersConnected.increment();
+        flushAlertQueue(peer);
+    }
+
+    /**
+     * Send the alerts that were queued while no phone was connected to the peer that just connected. The peer
+     * callbacks are not called on the main thread, so this can block.
+     */
+    private void flushAlertQueue(Node peer) {
+        AlertQueue alertQueue = AlertQueue.getInstance(this);
+        if (alertQueue.isEmpty()) {
+            return;
+        }
+
+        GoogleApiClient googleApiClient = new GoogleApiClient.Builder(this)
+                .addApi(Wearable.API)
+                .build();
+        if (!googleApiClient.blockingConnect(CONNECT_TIMEOUT_MS, TimeUnit.MILLISECONDS).isSuccess()) {
+            Log.e(TAG, "ERROR: failed to connect, queued alerts will go out on the next connection");
+            return;
+        }
+        try {
+            int sent = alertQueue.flush(googleApiClient, Collections.singleton(peer.getId()));
+            sQueuedAlertsFlushed.add(sent);
+            Log.d(TAG, "Sent " + sent + " queued alerts to " + peer.getId());
+            MetricsPublisher.publish(googleApiClient).await(CONNECT_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+        } finally {
+            googleApiClient.disconnect();
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void onPeerDisconnected(Node peer) {
+        ConnectedNodeDirectory.getInstance().onPeerDisconnected(peer);
+    }
+
 }
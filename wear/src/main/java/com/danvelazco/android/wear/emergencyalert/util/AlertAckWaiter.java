@@ -0,0 +1,133 @@
+/*
+ * Copyright (C) 2014 Daniel Velazco
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.danvelazco.android.wear.emergencyalert.util;
+
+import android.util.Log;
+import com.danvelazco.android.wear.emergencyalert.data.AlertAck;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Hands the {@linkplain AlertAck acknowledgements} received from the phone to whoever is waiting for them. An alert has
+ * to be expected before its message is sent, so an acknowledgement that arrives right away is never missed.
+ *
+ * @since 10/18/26
+ */
+public class AlertAckWaiter {
+
+    // Constants
+    private static final String TAG = "AlertAckWaiter";
+
+    private static final AlertAckWaiter sInstance = new AlertAckWaiter();
+
+    /**
+     * An alert waiting for its acknowledgement
+     */
+    private static class Waiter {
+
+        // Members
+        private final CountDownLatch mmLatch = new CountDownLatch(1);
+        private volatile AlertAck mmAck = null;
+    }
+
+    // Members
+    private final Map<Long, Waiter> mWaiters = new HashMap<>();
+
+    /**
+     * @return {@link AlertAckWaiter}
+     */
+    public static AlertAckWaiter getInstance() {
+        return sInstance;
+    }
+
+    private AlertAckWaiter() {
+    }
+
+    /**
+     * Start expecting the acknowledgement of an alert, must be called before its message is sent.
+     *
+     * @param alertId
+     *         {@link long}
+     */
+    public synchronized void expect(long alertId) {
+        if (!mWaiters.containsKey(alertId)) {
+            mWaiters.put(alertId, new Waiter());
+        }
+    }
+
+    /**
+     * Stop expecting the acknowledgement of an alert.
+     *
+     * @param alertId
+     *         {@link long}
+     */
+    public synchronized void cancel(long alertId) {
+        mWaiters.remove(alertId);
+    }
+
+    /**
+     * Wait for the acknowledgement of an expected alert. Blocks, so it must be called on a background thread.
+     *
+     * @param alertId
+     *         {@link long}
+     * @param timeoutMs
+     *         {@link long} how long to wait
+     * @return {@link AlertAck}, or null if it didn't arrive in time or the alert isn't expected
+     * @throws InterruptedException
+     *         if the thread is interrupted while waiting
+     */
+    public AlertAck await(long alertId, long timeoutMs) throws InterruptedException {
+        Waiter waiter;
+        synchronized (this) {
+            waiter = mWaiters.get(alertId);
+        }
+        if (waiter == null) {
+            return null;
+        }
+        waiter.mmLatch.await(timeoutMs, TimeUnit.MILLISECONDS);
+        return waiter.mmAck;
+    }
+
+    /**
+     * Called with the payload of an acknowledgement message.
+     *
+     * @param payload
+     *         {@link byte[]}
+     */
+    public void onAckReceived(byte[] payload) {
+        AlertAck ack = new AlertAck();
+        if (!ack.decode(payload)) {
+            Log.e(TAG, "ERROR: ignoring an acknowledgement that can't be decoded");
+            return;
+        }
+
+        Waiter waiter;
+        synchronized (this) {
+            waiter = mWaiters.get(ack.getAlertId());
+        }
+        if (waiter == null) {
+            Log.d(TAG, "Acknowledgement for an alert nobody is waiting for: " + ack);
+            return;
+        }
+        waiter.mmAck = ack;
+        waiter.mmLatch.countDown();
+    }
+
+}
@@ -0,0 +1,251 @@
+/*
+ * Copyright (C) 2014 Daniel Velazco
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.danvelazco.android.wear.emergencyalert.util;
+
+import android.content.Context;
+import android.util.Log;
+import com.danvelazco.android.wear.emergencyalert.AlertTriggerActivity;
+import com.danvelazco.android.wear.emergencyalert.data.AlertPayload;
+import com.google.android.gms.common.api.GoogleApiClient;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Persistent queue of the alerts that couldn't be sent because no phone was connected. Each alert is kept in its own
+ * file, with the payload exactly as it was built when the alert was triggered, so the phone still gets the original
+ * trigger time. The queue is flushed as soon as a node connects, see {@link #flush(GoogleApiClient, Collection)}.
+ *
+ * @since 10/18/26
+ */
+public class AlertQueue {
+
+    // Constants
+    private static final String TAG = "AlertQueue";
+    private static final String DIRECTORY_NAME = "alert_queue";
+    private static final String FILE_SUFFIX = ".alert";
+    private static final String TEMP_SUFFIX = ".tmp";
+
+    private static AlertQueue sInstance = null;
+
+    /**
+     * An alert waiting in the queue
+     */
+    private static class QueuedAlert {
+
+        // Members
+        private final File mmFile;
+        private final AlertPayload mmPayload;
+
+        private QueuedAlert(File file, AlertPayload payload) {
+            mmFile = file;
+            mmPayload = payload;
+        }
+    }
+
+    // Members
+    private final File mDirectory;
+    private final AtomicBoolean mFlushing = new AtomicBoolean(false);
+
+    /**
+     * Get the queue.
+     *
+     * @param context
+     *         {@link Context}
+     * @return {@link AlertQueue}
+     */
+    public static synchronized AlertQueue getInstance(Context context) {
+        if (sInstance == null) {
+            sInstance = new AlertQueue(new File(context.getApplicationContext().getFilesDir(), DIRECTORY_NAME));
+        }
+        return sInstance;
+    }
+
+    private AlertQueue(File directory) {
+        mDirectory = directory;
+    }
+
+    /**
+     * Add an alert to the queue, it is on disk by the time this returns.
+     *
+     * @param payload
+     *         {@link byte[]} encoded {@link AlertPayload}
+     * @return true if the alert was queued
+     */
+    public synchronized boolean add(byte[] payload) {
+        AlertPayload alert = new AlertPayload();
+        if (!alert.decode(payload)) {
+            Log.e(TAG, "ERROR: not queueing an alert that can't be decoded");
+            return false;
+        }
+        if (!mDirectory.isDirectory() && !mDirectory.mkdirs()) {
+            Log.e(TAG, "ERROR: failed to create " + mDirectory);
+            return false;
+        }
+
+        // Written to a temporary file first, so a queued alert is never only partly written
+        File file = new File(mDirectory, alert.getAlertId() + FILE_SUFFIX);
+        File tempFile = new File(mDirectory, alert.getAlertId() + TEMP_SUFFIX);
+        FileOutputStream outputStream = null;
+        try {
+            outputStream = new FileOutputStream(tempFile);
+            outputStream.write(payload);
+            outputStream.getFD().sync();
+        } catch (IOException e) {
+            Log.e(TAG, "ERROR: failed to queue alert " + alert.getAlertId(), e);
+            return false;
+        } finally {
+            closeQuietly(outputStream);
+        }
+        if (!tempFile.renameTo(file)) {
+            Log.e(TAG, "ERROR: failed to queue alert " + alert.getAlertId());
+            return false;
+        }
+        Log.d(TAG, "Queued alert " + alert.getAlertId() + " until a phone connects");
+        return true;
+    }
+
+    /**
+     * @return true if there is no alert waiting to be sent
+     */
+    public synchronized boolean isEmpty() {
+        return listFiles().length == 0;
+    }
+
+    /**
+     * Send every queued alert, oldest first, and remove the ones that were sent. The alerts are sent with the {@link
+     * AlertPayload#FLAG_QUEUED} flag. Only one flush runs at a time, this returns right away if another one is
+     * running. Blocks, so it must be called on a background thread.
+     *
+     * @param googleApiClient
+     *         connected {@link GoogleApiClient}
+     * @param nodes
+     *         {@link Collection} of the IDs of the connected nodes
+     * @return {@link int} number of alerts that were sent
+     */
+    public int flush(GoogleApiClient googleApiClient, Collection<String> nodes) {
+        if (nodes.isEmpty() || !mFlushing.compareAndSet(false, true)) {
+            return 0;
+        }
+
+        int sent = 0;
+        try {
+            NodeMessageDispatcher dispatcher = new NodeMessageDispatcher(googleApiClient,
+                    NodeMessageDispatcher.DEFAULT_NODE_TIMEOUT_MS);
+            for (QueuedAlert alert : load()) {
+                AlertPayload payload = alert.mmPayload;
+                payload.set(payload.getAlertId(), payload.getTriggeredAt(), payload.getSequence(),
+                        payload.getBattery(), payload.getFlags() | AlertPayload.FLAG_QUEUED);
+                if (!dispatcher.dispatch(nodes, AlertTriggerActivity.SEND_EMERGENCY_ALERT_SMS_PATH,
+                        payload.toByteArray())) {
+                    // Keep the rest in order, they will go out on the next flush
+                    Log.e(TAG, "ERROR: failed to send queued alert " + payload.getAlertId());
+                    break;
+                }
+                sent++;
+                remove(alert);
+                Log.d(TAG, "Sent queued alert " + payload.getAlertId() + ", "
+                        + (System.currentTimeMillis() - payload.getTriggeredAt()) + "ms after it was triggered");
+            }
+        } finally {
+            mFlushing.set(false);
+        }
+        return sent;
+    }
+
+    /**
+     * Read every queued alert, sorted by the time they were triggered.
+     */
+    private synchronized List<QueuedAlert> load() {
+        List<QueuedAlert> alerts = new ArrayList<>();
+        for (File file : listFiles()) {
+            byte[] buffer = new byte[AlertPayload.MAX_SIZE];
+            FileInputStream inputStream = null;
+            try {
+                inputStream = new FileInputStream(file);
+                int length = 0;
+                int read;
+                while (length < buffer.length
+                        && (read = inputStream.read(buffer, length, buffer.length - length)) > 0) {
+                    length += read;
+                }
+                AlertPayload payload = new AlertPayload();
+                if (payload.decode(buffer, 0, length)) {
+                    alerts.add(new QueuedAlert(file, payload));
+                } else {
+                    Log.e(TAG, "ERROR: dropping unreadable queued alert " + file.getName());
+                    remove(new QueuedAlert(file, null));
+                }
+            } catch (IOException e) {
+                Log.e(TAG, "ERROR: failed to read queued alert " + file.getName(), e);
+            } finally {
+                closeQuietly(inputStream);
+            }
+        }
+
+        Collections.sort(alerts, new Comparator<QueuedAlert>() {
+            @Override
+            public int compare(QueuedAlert lhs, QueuedAlert rhs) {
+                long lhsTime = lhs.mmPayload.getTriggeredAt();
+                long rhsTime = rhs.mmPayload.getTriggeredAt();
+                return lhsTime < rhsTime ? -1 : (lhsTime == rhsTime ? 0 : 1);
+            }
+        });
+        return alerts;
+    }
+
+    private synchronized void remove(QueuedAlert alert) {
+        if (!alert.mmFile.delete()) {
+            Log.e(TAG, "ERROR: failed to remove queued alert " + alert.mmFile.getName());
+        }
+    }
+
+    private File[] listFiles() {
+        File[] files = mDirectory.listFiles();
+        if (files == null) {
+            return new File[0];
+        }
+
+        List<File> alertFiles = new ArrayList<>(files.length);
+        for (File file : files) {
+            if (file.getName().endsWith(FILE_SUFFIX)) {
+                alertFiles.add(file);
+            }
+        }
+        return alertFiles.toArray(new File[alertFiles.size()]);
+    }
+
+    private static void closeQuietly(Closeable closeable) {
+        if (closeable != null) {
+            try {
+                closeable.close();
+            } catch (IOException e) {
+                // Nothing else to do
+            }
+        }
+    }
+
+}
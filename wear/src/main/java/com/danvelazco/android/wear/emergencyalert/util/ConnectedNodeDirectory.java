@@ -0,0 +1,156 @@
+/*
+ * Copyright (C) 2014 Daniel Velazco
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.danvelazco.android.wear.emergencyalert.util;
+
+import android.os.SystemClock;
+import android.util.Log;
+import com.google.android.gms.common.api.GoogleApiClient;
+import com.google.android.gms.common.api.ResultCallback;
+import com.google.android.gms.wearable.Node;
+import com.google.android.gms.wearable.NodeApi;
+import com.google.android.gms.wearable.Wearable;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Process-wide directory of the connected {@linkplain Node nodes}. It is kept current through the {@link
+ * NodeApi.NodeListener} peer callbacks, so reading it never needs a round-trip to Play Services. A full query is only
+ * needed when the directory is empty, and a stale directory is refreshed asynchronously.
+ * <p/>
+ * The directory itself is only registered as a listener while the {@code AlertTriggerActivity} is connected. Between
+ * alerts, only the peer callbacks of the {@code WearDataListenerService} keep it current, and only while the process is
+ * alive, so a directory that wasn't updated within {@link #MAX_AGE_MS} is treated as stale on the send path as well.
+ *
+ * @since 10/18/26
+ */
+public class ConnectedNodeDirectory implements NodeApi.NodeListener {
+
+    // Constants
+    private static final String TAG = "ConnectedNodeDirectory";
+    public static final long MAX_AGE_MS = 5 * 60 * 1000; // 5 minutes
+
+    private static final ConnectedNodeDirectory sInstance = new ConnectedNodeDirectory();
+
+    // Members, the node set is immutable and replaced on every change so readers never need to lock
+    private volatile Set<String> mNodeIds = Collections.emptySet();
+    private volatile long mLastUpdate = 0;
+
+    /**
+     * Get the shared instance.
+     *
+     * @return {@link ConnectedNodeDirectory}
+     */
+    public static ConnectedNodeDirectory getInstance() {
+        return sInstance;
+    }
+
+    private ConnectedNodeDirectory() {
+    }
+
+    /**
+     * Get the IDs of the currently known connected nodes, this never blocks.
+     *
+     * @return immutable {@link Set} of node IDs, empty if none are known
+     */
+    public Set<String> getNodeIds() {
+        return mNodeIds;
+    }
+
+    /**
+     * @return true if the directory hasn't been updated within {@link #MAX_AGE_MS}
+     */
+    public boolean isStale() {
+        return mLastUpdate == 0 || SystemClock.elapsedRealtime() - mLastUpdate > MAX_AGE_MS;
+    }
+
+    /**
+     * Replace the whole directory with the result of a full query.
+     *
+     * @param nodes
+     *         {@link Collection} of connected {@linkplain Node nodes}
+     */
+    public synchronized void setNodes(Collection<Node> nodes) {
+        Set<String> nodeIds = new HashSet<>();
+        for (Node node : nodes) {
+            nodeIds.add(node.getId());
+        }
+        mNodeIds = Collections.unmodifiableSet(nodeIds);
+        mLastUpdate = SystemClock.elapsedRealtime();
+    }
+
+    /**
+     * Query the connected nodes and wait for the result. Blocks, only meant as a fallback when the directory is
+     * empty, so it must be called on a background thread.
+     *
+     * @param googleApiClient
+     *         connected {@link GoogleApiClient}
+     * @return {@link Set} of node IDs
+     */
+    public Set<String> refreshBlocking(GoogleApiClient googleApiClient) {
+        NodeApi.GetConnectedNodesResult result = Wearable.NodeApi.getConnectedNodes(googleApiClient).await();
+        if (result.getStatus().isSuccess()) {
+            setNodes(result.getNodes());
+        }
+        return mNodeIds;
+    }
+
+    /**
+     * Query the connected nodes without blocking, the directory is updated once the result arrives.
+     *
+     * @param googleApiClient
+     *         connected {@link GoogleApiClient}
+     */
+    public void refreshAsync(GoogleApiClient googleApiClient) {
+        Wearable.NodeApi.getConnectedNodes(googleApiClient).setResultCallback(
+                new ResultCallback<NodeApi.GetConnectedNodesResult>() {
+                    @Override
+                    public void onResult(NodeApi.GetConnectedNodesResult result) {
+                        if (result.getStatus().isSuccess()) {
+                            setNodes(result.getNodes());
+                        } else {
+                            Log.e(TAG, "ERROR: failed to get connected nodes: " + result.getStatus());
+                        }
+                    }
+                });
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public synchronized void onPeerConnected(Node peer) {
+        Set<String> nodeIds = new HashSet<>(mNodeIds);
+        nodeIds.add(peer.getId());
+        mNodeIds = Collections.unmodifiableSet(nodeIds);
+        mLastUpdate = SystemClock.elapsedRealtime();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public synchronized void onPeerDisconnected(Node peer) {
+        Set<String> nodeIds = new HashSet<>(mNodeIds);
+        nodeIds.remove(peer.getId());
+        mNodeIds = Collections.unmodifiableSet(nodeIds);
+        mLastUpdate = SystemClock.elapsedRealtime();
+    }
+
+}
@@ -0,0 +1,51 @@
+/*
+ * Copyright (C) 2014 Daniel Velazco
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.danvelazco.android.wear.emergencyalert.util;
+
+import com.danvelazco.android.wear.emergencyalert.data.MetricsRegistry;
+import com.danvelazco.android.wear.emergencyalert.data.MetricsSnapshot;
+import com.google.android.gms.common.api.GoogleApiClient;
+import com.google.android.gms.common.api.PendingResult;
+import com.google.android.gms.wearable.DataApi;
+import com.google.android.gms.wearable.PutDataMapRequest;
+import com.google.android.gms.wearable.Wearable;
+
+/**
+ * Pushes a {@link MetricsSnapshot} of the watch to the phone, so both sets of metrics can be looked at together. The
+ * snapshot goes in a data item, so it is synced whenever the phone is reachable.
+ *
+ * @since 10/18/26
+ */
+public final class MetricsPublisher {
+
+    private MetricsPublisher() {
+    }
+
+    /**
+     * Put the current snapshot of the metrics, this returns immediately.
+     *
+     * @param googleApiClient
+     *         connected {@link GoogleApiClient}
+     * @return {@link PendingResult}, only worth waiting on if the caller needs to know the item was put
+     */
+    public static PendingResult<DataApi.DataItemResult> publish(GoogleApiClient googleApiClient) {
+        PutDataMapRequest request = PutDataMapRequest.create(MetricsSnapshot.WATCH_URI_PATH);
+        request.getDataMap().putByteArray(MetricsSnapshot.FIELD_SNAPSHOT,
+                MetricsRegistry.getDefault().snapshot().toByteArray());
+        return Wearable.DataApi.putDataItem(googleApiClient, request.asPutDataRequest());
+    }
+
+}
@@ -0,0 +1,136 @@
+/*
+ * Copyright (C) 2014 Daniel Velazco
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.danvelazco.android.wear.emergencyalert.util;
+
+import android.os.SystemClock;
+import android.util.Log;
+import com.danvelazco.android.wear.emergencyalert.data.MetricsRegistry;
+import com.google.android.gms.common.api.GoogleApiClient;
+import com.google.android.gms.wearable.MessageApi;
+import com.google.android.gms.wearable.Node;
+import com.google.android.gms.wearable.Wearable;
+
+import java.util.Collection;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Sends the same message to every {@link Node} at once instead of one after another, so a slow or half-dead node
+ * can't hold back the rest. {@link #dispatch(Collection, String, byte[])} returns as soon as the first node confirms
+ * the message, the remaining sends keep going in the background until they finish or hit their deadline. The latency
+ * of every send is recorded in a {@link MetricsRegistry} histogram of its node, so it is published with the rest of
+ * the watch metrics.
+ *
+ * @since 10/18/26
+ */
+public class NodeMessageDispatcher {
+
+    // Constants
+    private static final String TAG = "NodeMessageDispatcher";
+    public static final long DEFAULT_NODE_TIMEOUT_MS = 5000;
+
+    private static final String NODE_LATENCY_METRIC_PREFIX = "wear.node.send_ms.";
+
+    // Shared by every dispatch, idle threads go away on their own. Sends that outlive a dispatch keep running here
+    private static final ExecutorService sExecutor = Executors.newCachedThreadPool();
+
+    // Members
+    private final GoogleApiClient mGoogleApiClient;
+    private final long mNodeTimeoutMs;
+
+    /**
+     * Constructor.
+     *
+     * @param googleApiClient
+     *         connected {@link GoogleApiClient}
+     * @param nodeTimeoutMs
+     *         {@link long} deadline for each individual node
+     */
+    public NodeMessageDispatcher(GoogleApiClient googleApiClient, long nodeTimeoutMs) {
+        mGoogleApiClient = googleApiClient;
+        mNodeTimeoutMs = nodeTimeoutMs;
+    }
+
+    /**
+     * Send a message to all the nodes concurrently. This blocks, so it needs to be called on a background thread.
+     *
+     * @param nodes
+     *         {@link Collection} of node IDs
+     * @param path
+     *         {@link String} path of the message
+     * @param data
+     *         {@link byte[]} payload of the message, can be null
+     * @return true if at least one node confirmed the message
+     */
+    public boolean dispatch(Collection<String> nodes, final String path, final byte[] data) {
+        if (nodes == null || nodes.isEmpty()) {
+            return false;
+        }
+
+        CompletionService<Boolean> completionService = new ExecutorCompletionService<>(sExecutor);
+        for (final String node : nodes) {
+            completionService.submit(new Callable<Boolean>() {
+                @Override
+                public Boolean call() throws Exception {
+                    return sendToNode(node, path, data);
+                }
+            });
+        }
+
+        // A node that fails only counts as one of the sends, the others may still get through
+        for (int i = 0; i < nodes.size(); i++) {
+            try {
+                if (completionService.take().get()) {
+                    return true;
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return false;
+            } catch (ExecutionException e) {
+                Log.e(TAG, "ERROR: failed to send Message", e.getCause());
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Send the message to a single node, waiting no longer than the node deadline.
+     */
+    private boolean sendToNode(String node, String path, byte[] data) {
+        long start = SystemClock.elapsedRealtime();
+        MessageApi.SendMessageResult result = Wearable.MessageApi.sendMessage(mGoogleApiClient, node, path, data)
+                .await(mNodeTimeoutMs, TimeUnit.MILLISECONDS);
+        long latency = SystemClock.elapsedRealtime() - start;
+        MetricsRegistry.getDefault().histogram(NODE_LATENCY_METRIC_PREFIX + node, MetricsRegistry.LATENCY_BUCKETS_MS)
+                .record(latency);
+
+        if (result.getStatus().isSuccess()) {
+            Log.d(TAG, "Message sent to node " + node + " in " + latency + "ms");
+            return true;
+        } else {
+            Log.e(TAG, "ERROR: failed to send Message to node " + node + " after " + latency + "ms: "
+                    + result.getStatus());
+            return false;
+        }
+    }
+
+}